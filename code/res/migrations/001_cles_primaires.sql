@@ -0,0 +1,47 @@
+-- Clés primaires composites des tables de relation.
+-- Les doublons éventuels (relation ajoutée deux fois) sont retirés avant,
+-- la table n'est vidée et remplie qu'au sein d'une transaction.
+-- Un ALTER TABLE est validé immédiatement et échoue si la clé existe déjà : chaque clé
+-- n'est ajoutée que si la table n'en a pas, pour qu'un script interrompu puisse être relancé.
+
+DROP TABLE IF EXISTS VU_DEDOUBLE;
+CREATE TABLE VU_DEDOUBLE AS SELECT DISTINCT id_message, id_util FROM VU;
+START TRANSACTION;
+DELETE FROM VU;
+INSERT INTO VU (id_message, id_util) SELECT id_message, id_util FROM VU_DEDOUBLE;
+COMMIT;
+DROP TABLE VU_DEDOUBLE;
+SET @cle = IF((SELECT COUNT(*) FROM information_schema.TABLE_CONSTRAINTS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'VU' AND CONSTRAINT_TYPE = 'PRIMARY KEY') = 0,
+    'ALTER TABLE VU ADD PRIMARY KEY (id_message, id_util)', 'DO 0');
+PREPARE ajout_cle FROM @cle;
+EXECUTE ajout_cle;
+DEALLOCATE PREPARE ajout_cle;
+
+DROP TABLE IF EXISTS RECU_DEDOUBLE;
+CREATE TABLE RECU_DEDOUBLE AS SELECT DISTINCT id_message, id_util FROM RECU;
+START TRANSACTION;
+DELETE FROM RECU;
+INSERT INTO RECU (id_message, id_util) SELECT id_message, id_util FROM RECU_DEDOUBLE;
+COMMIT;
+DROP TABLE RECU_DEDOUBLE;
+SET @cle = IF((SELECT COUNT(*) FROM information_schema.TABLE_CONSTRAINTS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'RECU' AND CONSTRAINT_TYPE = 'PRIMARY KEY') = 0,
+    'ALTER TABLE RECU ADD PRIMARY KEY (id_message, id_util)', 'DO 0');
+PREPARE ajout_cle FROM @cle;
+EXECUTE ajout_cle;
+DEALLOCATE PREPARE ajout_cle;
+
+DROP TABLE IF EXISTS APPARTENIR_DEDOUBLE;
+CREATE TABLE APPARTENIR_DEDOUBLE AS SELECT DISTINCT id_groupe, id_util FROM APPARTENIR;
+START TRANSACTION;
+DELETE FROM APPARTENIR;
+INSERT INTO APPARTENIR (id_groupe, id_util) SELECT id_groupe, id_util FROM APPARTENIR_DEDOUBLE;
+COMMIT;
+DROP TABLE APPARTENIR_DEDOUBLE;
+SET @cle = IF((SELECT COUNT(*) FROM information_schema.TABLE_CONSTRAINTS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'APPARTENIR' AND CONSTRAINT_TYPE = 'PRIMARY KEY') = 0,
+    'ALTER TABLE APPARTENIR ADD PRIMARY KEY (id_groupe, id_util)', 'DO 0');
+PREPARE ajout_cle FROM @cle;
+EXECUTE ajout_cle;
+DEALLOCATE PREPARE ajout_cle;
@@ -0,0 +1,18 @@
+-- Index couvrants des lectures les plus fréquentes.
+-- Tickets d'un groupe : toutes les colonnes du ticket sont dans l'index (id_ticket y est implicitement).
+-- Messages d'un ticket : id_message et la date suffisent aux jointures et au tri,
+-- le contenu reste lu dans la table.
+
+-- Chaque index n'est créé que s'il n'existe pas, pour qu'un script interrompu puisse être relancé.
+SET @index = IF((SELECT COUNT(*) FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'TICKET' AND INDEX_NAME = 'IX_TICKET_GROUPE') = 0,
+    'CREATE INDEX IX_TICKET_GROUPE ON TICKET (id_groupe, id_util, titre)', 'DO 0');
+PREPARE ajout_index FROM @index;
+EXECUTE ajout_index;
+DEALLOCATE PREPARE ajout_index;
+SET @index = IF((SELECT COUNT(*) FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'MESSAGE' AND INDEX_NAME = 'IX_MESSAGE_TICKET') = 0,
+    'CREATE INDEX IX_MESSAGE_TICKET ON MESSAGE (id_ticket, heure_envoi)', 'DO 0');
+PREPARE ajout_index FROM @index;
+EXECUTE ajout_index;
+DEALLOCATE PREPARE ajout_index;
@@ -0,0 +1,16 @@
+-- Un état par message au lieu d'une ligne VU et d'une ligne RECU par membre du groupe.
+-- a_lire et a_recevoir sont les ids des utilisateurs en attente, en bitset (java.util.BitSet),
+-- nb_a_lire et nb_a_recevoir leur nombre. Un message sans état n'attend plus personne.
+-- Les lignes de VU et RECU existantes sont converties au démarrage du serveur,
+-- les tables restent vides.
+
+CREATE TABLE IF NOT EXISTS ETAT_MESSAGE (
+    id_message      INT                 NOT NULL,
+    a_lire          BLOB                NOT NULL,
+    nb_a_lire       INT                 NOT NULL DEFAULT 0,
+    a_recevoir      BLOB                NOT NULL,
+    nb_a_recevoir   INT                 NOT NULL DEFAULT 0,
+
+    PRIMARY KEY(id_message),
+    FOREIGN KEY(id_message)             REFERENCES MESSAGE(id_message)  ON DELETE CASCADE
+);
@@ -0,0 +1,42 @@
+-- Index des tris et des recherches de l'interface d'administration.
+-- Les recherches comparent le début des colonnes (LIKE 'texte%') : un index suffit.
+-- ine et label_grp sont déjà uniques, donc indexés. Seuls les 32 premiers caractères
+-- du contenu des messages sont indexés, la fin reste lue dans la table.
+
+-- Chaque index n'est créé que s'il n'existe pas, pour qu'un script interrompu puisse être relancé.
+SET @index = IF((SELECT COUNT(*) FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'UTILISATEUR' AND INDEX_NAME = 'IX_UTILISATEUR_NOM') = 0,
+    'CREATE INDEX IX_UTILISATEUR_NOM ON UTILISATEUR (nom)', 'DO 0');
+PREPARE ajout_index FROM @index;
+EXECUTE ajout_index;
+DEALLOCATE PREPARE ajout_index;
+SET @index = IF((SELECT COUNT(*) FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'UTILISATEUR' AND INDEX_NAME = 'IX_UTILISATEUR_PRENOM') = 0,
+    'CREATE INDEX IX_UTILISATEUR_PRENOM ON UTILISATEUR (prenom)', 'DO 0');
+PREPARE ajout_index FROM @index;
+EXECUTE ajout_index;
+DEALLOCATE PREPARE ajout_index;
+SET @index = IF((SELECT COUNT(*) FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'UTILISATEUR' AND INDEX_NAME = 'IX_UTILISATEUR_TYPE') = 0,
+    'CREATE INDEX IX_UTILISATEUR_TYPE ON UTILISATEUR (type_util)', 'DO 0');
+PREPARE ajout_index FROM @index;
+EXECUTE ajout_index;
+DEALLOCATE PREPARE ajout_index;
+SET @index = IF((SELECT COUNT(*) FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'TICKET' AND INDEX_NAME = 'IX_TICKET_TITRE') = 0,
+    'CREATE INDEX IX_TICKET_TITRE ON TICKET (titre)', 'DO 0');
+PREPARE ajout_index FROM @index;
+EXECUTE ajout_index;
+DEALLOCATE PREPARE ajout_index;
+SET @index = IF((SELECT COUNT(*) FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'MESSAGE' AND INDEX_NAME = 'IX_MESSAGE_HEURE') = 0,
+    'CREATE INDEX IX_MESSAGE_HEURE ON MESSAGE (heure_envoi)', 'DO 0');
+PREPARE ajout_index FROM @index;
+EXECUTE ajout_index;
+DEALLOCATE PREPARE ajout_index;
+SET @index = IF((SELECT COUNT(*) FROM information_schema.STATISTICS
+    WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'MESSAGE' AND INDEX_NAME = 'IX_MESSAGE_CONTENU') = 0,
+    'CREATE INDEX IX_MESSAGE_CONTENU ON MESSAGE (contenu(32))', 'DO 0');
+PREPARE ajout_index FROM @index;
+EXECUTE ajout_index;
+DEALLOCATE PREPARE ajout_index;
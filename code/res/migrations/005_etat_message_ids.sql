@@ -0,0 +1,10 @@
+-- a_lire et a_recevoir deviennent la liste triée des ids en attente, chaque id codé
+-- par son écart au précédent en varint : leur taille suit celle du groupe et non le plus grand id.
+-- Les états en bitset sont mis de côté dans ETAT_MESSAGE_BITSET et convertis au démarrage
+-- du serveur, la table reste vide.
+
+CREATE TABLE IF NOT EXISTS ETAT_MESSAGE_BITSET LIKE ETAT_MESSAGE;
+
+INSERT IGNORE INTO ETAT_MESSAGE_BITSET SELECT * FROM ETAT_MESSAGE;
+
+DELETE FROM ETAT_MESSAGE;
@@ -0,0 +1,21 @@
+package backend.data;
+
+import org.json.JSONString;
+
+/**
+ * Entrée partagée entre plusieurs messages, qui ne change plus une fois créée.
+ * Son texte JSON est calculé une seule fois, et le format binaire garde son propre encodage avec elle
+ * au premier envoi : les messages suivants le recopient sans parcourir l'entrée.
+ */
+public interface EncodedEntry extends JSONString {
+
+    /**
+     * @return - L'encodage binaire de l'entrée, null s'il n'a pas encore été calculé
+     */
+    byte[] getBinary();
+
+    /**
+     * @param binary - L'encodage binaire de l'entrée, à ne plus modifier
+     */
+    void setBinary(byte[] binary);
+}
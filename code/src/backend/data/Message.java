@@ -162,6 +162,16 @@ public class Message extends ProjectTable implements Comparable<Message> {
         return mContenu;
     }
 
+    /**
+     * Retire un lecteur de la liste des personnes n'ayant pas lu le message
+     *
+     * @param username - le lecteur (nom prenom)
+     * @return true si le lecteur n'avait pas encore lu le message
+     **/
+    public boolean markRead(String username) {
+        return mHaveToRead != null && mHaveToRead.remove(username);
+    }
+
     /**
      * methode verifiant le status du message
      *
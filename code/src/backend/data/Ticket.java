@@ -5,6 +5,8 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.NoSuchElementException;
 import java.util.TreeSet;
 
@@ -15,12 +17,25 @@ public class Ticket extends ProjectTable implements Comparable<Ticket> {
 
     private static final String KEY_MESSAGES = "messages";
     private static final String KEY_PENDING = "pendings";
+    private static final String KEY_GROUP = "group";
+    private static final String KEY_LAST_ACTIVITY = "last_activity";
+    private static final String KEY_UNREAD = "unread";
+    private static final String KEY_UNRECEIVED = "unreceived";
 
     private Long mID;
     private String mTitre;
     private TreeSet<Message> mMessages = new TreeSet<>();
     private ArrayList<Message> pendingMessages = new ArrayList<>();
 
+    // En-tête : les compteurs viennent du serveur, seuls les messages chargés ou modifiés sont présents
+    private boolean mHeader = false;
+    private int mUnread;
+    private int mUnreceived;
+    private Date mLastActivity;
+
+    // Pages de messages : curseur de la page suivante, null si tous les messages anciens sont chargés
+    private boolean mPageLoaded = false;
+    private Long mNextPage;
 
 
     /**
@@ -36,10 +51,38 @@ public class Ticket extends ProjectTable implements Comparable<Ticket> {
             mMessages.add(new Message(array.getJSONObject(i)));
         }
 
-        array = ticket.getJSONArray(KEY_PENDING);
-        for (int i = 0; i < array.length(); ++i) {
-            pendingMessages.add(new Message(array.getJSONObject(i)));
+        array = ticket.optJSONArray(KEY_PENDING);
+        if (array != null) {
+            for (int i = 0; i < array.length(); ++i) {
+                pendingMessages.add(new Message(array.getJSONObject(i)));
+            }
         }
+
+        if (ticket.has(KEY_UNREAD)) {
+            mHeader = true;
+            mUnread = ticket.getInt(KEY_UNREAD);
+            mUnreceived = ticket.getInt(KEY_UNRECEIVED);
+            mLastActivity = ticket.isNull(KEY_LAST_ACTIVITY) ? null : new Date(ticket.getLong(KEY_LAST_ACTIVITY));
+        }
+    }
+
+
+    /**
+     * Constructeur d'un en-tête de ticket, sans message : ceux-ci sont chargés par pages
+     *
+     * @param id           - identifiant unique du ticket
+     * @param titre        - titre du ticket
+     * @param lastActivity - date du dernier message, null si aucun
+     * @param unread       - nombre de messages qui n'ont pas été lus par tous
+     * @param unreceived   - nombre de messages qui n'ont pas été reçus par tous
+     */
+    public Ticket(Long id, String titre, Date lastActivity, int unread, int unreceived) {
+        mID = id;
+        mTitre = titre;
+        mHeader = true;
+        mLastActivity = lastActivity;
+        mUnread = unread;
+        mUnreceived = unreceived;
     }
 
 
@@ -92,10 +135,107 @@ public class Ticket extends ProjectTable implements Comparable<Ticket> {
         }
         ticketAsJSON.put(KEY_PENDING, messages);
 
+        if (mHeader) {
+            putCounters(ticketAsJSON);
+        }
+
         return ticketAsJSON;
     }
 
 
+    /**
+     * Encode l'en-tête du ticket pour les évènements : ses compteurs et seulement les messages modifiés,
+     * la taille ne dépend pas du nombre de messages du ticket.
+     *
+     * @param groupID - L'id du groupe du ticket
+     * @param changed - Les messages modifiés par l'évènement
+     * @return un objet json lu par {@link #Ticket(JSONObject)}, voir {@link #isHeader()}
+     */
+    public JSONObject toHeaderJSON(Long groupID, Collection<Message> changed) {
+        JSONObject headerAsJSON = new JSONObject();
+
+        headerAsJSON.put(TICKET_ID, getID());
+        headerAsJSON.put(TICKET_TITRE, getTitre());
+        headerAsJSON.put(KEY_GROUP, groupID);
+        putCounters(headerAsJSON);
+
+        JSONArray messages = new JSONArray();
+        for (Message m : changed) {
+            messages.put(m.toJSON());
+        }
+        headerAsJSON.put(KEY_MESSAGES, messages);
+
+        return headerAsJSON;
+    }
+
+
+    private void putCounters(JSONObject json) {
+        Date lastActivity = getLastActivity();
+        json.put(KEY_LAST_ACTIVITY, lastActivity == null ? JSONObject.NULL : lastActivity.getTime());
+        json.put(KEY_UNREAD, getNotSeenMessages());
+        json.put(KEY_UNRECEIVED, getNotReceivedMessages());
+    }
+
+
+    /**
+     * @return true si le ticket est un en-tête : ses messages ne sont que ceux chargés ou modifiés
+     */
+    public boolean isHeader() {
+        return mHeader;
+    }
+
+
+    /**
+     * @return la date du dernier message, null si le ticket est vide
+     */
+    public Date getLastActivity() {
+        Message last = dernierMessage();
+        if (!mHeader || (last != null && (mLastActivity == null || last.getHeureEnvoie().after(mLastActivity)))) {
+            return last == null ? null : last.getHeureEnvoie();
+        }
+
+        return mLastActivity;
+    }
+
+
+    /**
+     * @return true si la première page de messages a été chargée, toujours vrai pour un ticket complet
+     */
+    public boolean isPageLoaded() {
+        return !mHeader || mPageLoaded;
+    }
+
+
+    /**
+     * @return le curseur de la page de messages plus anciens, null s'il n'y en a plus
+     */
+    public Long getNextPage() {
+        return isPageLoaded() ? mNextPage : null;
+    }
+
+
+    /**
+     * Ajoute une page de messages. La première page remplace les messages déjà présents,
+     * qui peuvent ne pas se suivre.
+     *
+     * @param messages - Les messages de la page
+     * @param first    - Si c'est la page la plus récente
+     * @param nextPage - Le curseur de la page suivante, null si c'est la dernière
+     */
+    public void addPage(Collection<Message> messages, boolean first, Long nextPage) {
+        if (first) {
+            mMessages = new TreeSet<>();
+        }
+
+        for (Message message : messages) {
+            merge(message);
+        }
+
+        mPageLoaded = true;
+        mNextPage = nextPage;
+    }
+
+
     /**
      * Accesseur sur l'ensemble des messages du ticket
      * @return l'ensemble trié de messages présents sur le ticket
@@ -172,10 +312,13 @@ public class Ticket extends ProjectTable implements Comparable<Ticket> {
 
     @Override
     public int compareTo(@NotNull Ticket ticket) {
-        Message lastOther = ticket.dernierMessage();
-        Message lastThis = dernierMessage();
+        // Les en-têtes n'ont pas forcément de message : l'ordre vient de la date du dernier
+        Date lastOther = ticket.getLastActivity();
+        Date lastThis = getLastActivity();
 
-        int messageComparison = lastOther.compareTo(lastThis);
+        int messageComparison = lastOther == null || lastThis == null
+                ? Boolean.compare(lastThis == null, lastOther == null)
+                : lastOther.compareTo(lastThis);
         if (messageComparison == 0) {
             return getID().compareTo(ticket.getID());
         }
@@ -205,6 +348,10 @@ public class Ticket extends ProjectTable implements Comparable<Ticket> {
      * @return le nombre de messages n'ayant pas été lus par tous
     **/
     public int getNotSeenMessages() {
+        if (mHeader) {
+            return mUnread;
+        }
+
         int result = 0;
         if (mMessages != null) {
             for (Message message : mMessages) {
@@ -229,15 +376,27 @@ public class Ticket extends ProjectTable implements Comparable<Ticket> {
      * @return true si il y a des utilisateurs qui n'ont pas reçu ce message
      */
     public boolean containsUnreceivedMessages() {
+        return getNotReceivedMessages() > 0;
+    }
+
+    /**
+     * @return le nombre de messages qui n'ont pas été reçus par tous
+     */
+    public int getNotReceivedMessages() {
+        if (mHeader) {
+            return mUnreceived;
+        }
+
+        int result = 0;
         if (mMessages != null) {
             for (Message message : mMessages) {
                 if (message.state() < 3) {
-                    return true;
+                    ++result;
                 }
             }
         }
 
-        return false;
+        return result;
     }
 
     /**
@@ -259,12 +418,30 @@ public class Ticket extends ProjectTable implements Comparable<Ticket> {
     /**
      * Met à jour le ticket courant en remplaçant ses
      * messages par le ticket passé en paramètre.
+     * Un en-tête ne remplace que les messages qu'il contient.
      * Ne touche pas aux messages en attente à part
      * s'il sont présent dans les messages reçus.
      *
      * @param ticket - Le nouveau ticket
      */
     public void merge(Ticket ticket) {
+        mTitre = ticket.getTitre();
+
+        if (ticket.isHeader()) {
+            for (Message message : ticket.getMessages()) {
+                merge(message);
+            }
+
+            if (mHeader) {
+                mLastActivity = ticket.getLastActivity();
+                mUnread = ticket.getNotSeenMessages();
+                mUnreceived = ticket.getNotReceivedMessages();
+            }
+
+            return;
+        }
+
+        mHeader = false;
         mMessages = ticket.getMessages();
 
         if (!pendingMessages.isEmpty()) {
@@ -287,6 +464,30 @@ public class Ticket extends ProjectTable implements Comparable<Ticket> {
         removeUselessMessage(entryAsMessage);
     }
 
+    /**
+     * Applique un accusé de lecture aux messages du ticket
+     *
+     * @param username - Le lecteur (nom prenom)
+     * @param from     - Le plus petit id de message lu
+     * @param to       - Le plus grand id de message lu
+     * @return - Le nombre de messages qui n'étaient pas encore lus par ce lecteur
+     */
+    public int markRead(String username, long from, long to) {
+        int result = 0;
+        for (Message message : mMessages) {
+            if (message.getID() >= from && message.getID() <= to && message.markRead(username)) {
+                ++result;
+
+                // Les messages pas encore chargés ne sont comptés qu'à la prochaine mise à jour
+                if (mHeader && message.state() == 4 && mUnread > 0) {
+                    --mUnread;
+                }
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Supprime les messages en attente reçus.
      *
@@ -0,0 +1,272 @@
+package backend.database;
+
+import debug.Debugger;
+import debug.Metrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool borné de connexions à la base de donnée.
+ * Les requêtes de clients différents tournent en parallèle sur des connexions
+ * différentes, une connexion cassée est remplacée au lieu de bloquer tout le serveur.
+ * <p>
+ * Un emprunt est réentrant : une méthode du DatabaseManager qui en appelle une autre
+ * réutilise la connexion déjà empruntée par son thread, un thread n'en tient donc
+ * jamais plus d'une et le pool ne peut pas s'interbloquer.
+ * <p>
+ * Chaque connexion garde ses requêtes préparées ({@link StatementCache}) tant qu'elle est ouverte.
+ */
+class ConnectionPool {
+
+    /**
+     * Nombre maximal de connexions ouvertes.
+     */
+    static final int SIZE = Integer.getInteger("database.pool.size", 8);
+
+    /**
+     * Temps d'attente maximal d'une connexion libre en ms, au delà l'emprunt échoue.
+     */
+    static final long BORROW_TIMEOUT = Long.getLong("database.pool.borrowTimeout", 5000L);
+
+    /**
+     * Une connexion inutilisée depuis plus longtemps (en ms) est vérifiée avant d'être prêtée.
+     */
+    static final long VALIDATION_INTERVAL = Long.getLong("database.pool.validationInterval", 30000L);
+
+    private static final int VALIDATION_TIMEOUT = 2;
+
+    private final String mUrl;
+    private final String mUsername;
+    private final String mPassword;
+    private final Semaphore mPermits = new Semaphore(SIZE, true);
+    private final ThreadLocal<Lease> mCurrent = new ThreadLocal<>();
+
+    // Protégés par this
+    private final ArrayDeque<Pooled> mIdle = new ArrayDeque<>();
+    private boolean mClosed = false;
+
+    ConnectionPool(String url, String username, String password) {
+        mUrl = url;
+        mUsername = username;
+        mPassword = password;
+    }
+
+    /**
+     * Emprunte une connexion, à rendre en fermant le bail (try-with-resources).
+     *
+     * @return - Le bail, celui déjà ouvert par ce thread s'il y en a un
+     * @throws SQLException - Si aucune connexion ne se libère à temps ou si elle ne peut pas être ouverte
+     */
+    Lease borrow() throws SQLException {
+        Lease current = mCurrent.get();
+        if (current != null) {
+            current.mDepth++;
+            return current;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            if (!mPermits.tryAcquire(BORROW_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                Metrics.increment("database.pool.timeout");
+                throw new SQLTransientConnectionException("No database connection available after " + BORROW_TIMEOUT + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database connection");
+        }
+
+        Metrics.add("database.pool.wait.nanos", System.nanoTime() - start);
+        Metrics.increment("database.pool.borrow");
+
+        final Pooled connection;
+        try {
+            connection = take();
+        } catch (SQLException | RuntimeException e) {
+            mPermits.release();
+            throw e;
+        }
+
+        Metrics.add("database.pool.active", 1);
+
+        current = new Lease(connection);
+        mCurrent.set(current);
+        return current;
+    }
+
+    /**
+     * @return - Une connexion libre et valide, ouverte si besoin
+     */
+    private Pooled take() throws SQLException {
+        while (true) {
+            final Pooled idle;
+            synchronized (this) {
+                if (mClosed) {
+                    throw new SQLException("Connection pool closed");
+                }
+                idle = mIdle.pollLast();
+            }
+
+            if (idle == null) {
+                Metrics.increment("database.pool.created");
+                return new Pooled(DriverManager.getConnection(mUrl, mUsername, mPassword));
+            }
+
+            if (System.currentTimeMillis() - idle.since < VALIDATION_INTERVAL || isValid(idle.connection)) {
+                return idle;
+            }
+
+            Metrics.increment("database.pool.invalid");
+            Debugger.logMessage("ConnectionPool", "Dropping a broken database connection");
+            closeQuietly(idle);
+        }
+    }
+
+    private void release(Pooled connection, boolean broken) {
+        Metrics.add("database.pool.active", -1);
+
+        boolean close = broken;
+        synchronized (this) {
+            if (mClosed) {
+                close = true;
+            } else if (!broken) {
+                connection.since = System.currentTimeMillis();
+                mIdle.addLast(connection);
+            }
+        }
+
+        if (close) {
+            closeQuietly(connection);
+        }
+
+        mPermits.release();
+    }
+
+    /**
+     * Ferme les connexions libres, celles encore prêtées le seront à leur retour.
+     */
+    void close() {
+        ArrayDeque<Pooled> idle;
+        synchronized (this) {
+            mClosed = true;
+            idle = new ArrayDeque<>(mIdle);
+            mIdle.clear();
+        }
+
+        for (Pooled i : idle) {
+            closeQuietly(i);
+        }
+    }
+
+    private static boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(VALIDATION_TIMEOUT);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private static void closeQuietly(Pooled connection) {
+        connection.statements.close();
+        try {
+            connection.connection.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static class Pooled {
+        final Connection connection;
+        final StatementCache statements;
+        // Dernier retour au pool
+        long since = System.currentTimeMillis();
+
+        Pooled(Connection connection) {
+            this.connection = connection;
+            this.statements = new StatementCache(connection);
+        }
+    }
+
+    /**
+     * Connexion empruntée par un thread, rendue au pool à la fermeture du dernier bail.
+     */
+    final class Lease implements AutoCloseable {
+        private final Pooled mConnection;
+        private final ArrayList<Query> mOpen = new ArrayList<>();
+        private int mDepth = 1;
+
+        private Lease(Pooled connection) {
+            mConnection = connection;
+        }
+
+        /**
+         * Accès direct à la connexion, pour ce qui n'est pas une requête fixe (métadonnées, script SQL).
+         */
+        Connection getConnection() {
+            return mConnection.connection;
+        }
+
+        /**
+         * @param sql    - Une requête fixe, les valeurs sont des '?'
+         * @param params - Les valeurs, dans l'ordre
+         * @return - La requête prête à être exécutée, à fermer avant la fin du bail
+         * @throws SQLException - Si la requête ne peut pas être préparée
+         */
+        Query prepare(String sql, Object... params) throws SQLException {
+            return open(new Query(this, mConnection.statements, sql, false), params);
+        }
+
+        /**
+         * Comme {@link #prepare(String, Object...)}, pour une insertion dont on veut les clés générées.
+         */
+        Query prepareInsert(String sql, Object... params) throws SQLException {
+            return open(new Query(this, mConnection.statements, sql, true), params);
+        }
+
+        private Query open(Query query, Object... params) throws SQLException {
+            mOpen.add(query);
+            try {
+                return query.bind(params);
+            } catch (SQLException | RuntimeException e) {
+                query.close();
+                throw e;
+            }
+        }
+
+        void closed(Query query) {
+            mOpen.remove(query);
+        }
+
+        @Override
+        public void close() {
+            if (--mDepth > 0) {
+                return;
+            }
+
+            mCurrent.remove();
+
+            // Une requête oubliée resterait ouverte aussi longtemps que la connexion
+            for (Query query : new ArrayList<>(mOpen)) {
+                Metrics.increment("database.statement.leaked");
+                Debugger.logMessage("ConnectionPool", "Statement not closed: " + query.getSql());
+                query.close();
+            }
+
+            boolean broken;
+            try {
+                // Une requête qui a échoué a pu laisser la connexion fermée
+                broken = mConnection.connection.isClosed();
+            } catch (SQLException e) {
+                broken = true;
+            }
+
+            release(mConnection, broken);
+        }
+    }
+}
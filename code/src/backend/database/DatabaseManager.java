@@ -2,15 +2,15 @@ package backend.database;
 
 import backend.data.Groupe;
 import backend.data.Message;
+import backend.data.ProjectTable;
 import backend.data.Ticket;
 import backend.data.Utilisateur;
 import com.mysql.jdbc.StringUtils;
 import debug.Debugger;
+import debug.Metrics;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
@@ -20,6 +20,7 @@ import java.util.Date;
 import java.util.*;
 
 import static backend.database.Keys.*;
+import static backend.database.Queries.*;
 
 public class DatabaseManager {
 
@@ -29,8 +30,32 @@ public class DatabaseManager {
 
 
     private static DatabaseManager mDatabase;
-    private Connection databaseConnection;
-    private MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    private final ConnectionPool pool;
+    private Journal journal;
+    private final RelatedGroupsLoader relatedGroupsLoader;
+    private final MessageStates states;
+    private final ReceiptBuffer receipts;
+    private final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+
+    // Valeurs jamais modifiées, chaque lecture renvoie un nouvel objet
+    private final EntityCache<Long, TicketOwner> ticketOwners = new EntityCache<>("ticket");
+    private final EntityCache<Long, String> groupLabels = new EntityCache<>("group");
+    private final EntityCache<Long, Utilisateur> users = new EntityCache<>("user");
+    // Groupes et en-têtes de leurs tickets, invalidés à chaque écriture journalisée sur un ticket
+    private final GroupSnapshots groupSnapshots = new GroupSnapshots();
+
+    /**
+     * Groupe et créateur d'un ticket, qui ne changent pas
+     */
+    private static final class TicketOwner {
+        final long groupID;
+        final long creatorID;
+
+        TicketOwner(long groupID, long creatorID) {
+            this.groupID = groupID;
+            this.creatorID = creatorID;
+        }
+    }
 
 
     /**
@@ -48,9 +73,18 @@ public class DatabaseManager {
             e.printStackTrace();
         }
 
-        databaseConnection = DriverManager.getConnection(DB_URL, username, password);
+        pool = new ConnectionPool(DB_URL, username, password);
+        states = new MessageStates(pool);
+        receipts = new ReceiptBuffer(states);
+        relatedGroupsLoader = new RelatedGroupsLoader(pool, receipts, groupSnapshots);
 
         checkTableExistance();
+        new SchemaMigrator(pool).migrate();
+        states.importBitsets();
+        states.importRelations();
+
+        journal = new Journal(pool);
+        journal.init();
     }
 
     /**
@@ -66,46 +100,35 @@ public class DatabaseManager {
 
     /**
      * Teste si les tables existent et dans le cas contraire, les initialises.
+     * Les modifications suivantes du schéma sont appliquées par le {@link SchemaMigrator}.
      *
      * @throws SQLException
      * @throws IOException
      */
     private void checkTableExistance() throws SQLException, IOException {
-        boolean found = false;
-        ResultSet set = databaseConnection.getMetaData().getTables(null, null, null,
-                new String[]{"TABLE"});
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            Connection connection = lease.getConnection();
 
-        for (; set.next() && !found; ) {
-            if (set.getString("TABLE_NAME").equals("UTILISATEUR")) {
-                found = true;
-            }
-        }
+            boolean found = false;
+            try (ResultSet set = connection.getMetaData().getTables(null, null, null,
+                    new String[]{"TABLE"})) {
 
-        if (!found) {
-            File file = new File("res/database.sql");
-            BufferedReader reader = new BufferedReader(new FileReader(file));
-
-            String line;
-            StringBuilder builder = new StringBuilder();
-            for (; (line = reader.readLine()) != null; ) {
-                builder.append(line);
-                if (line.contains("--")) {
-                    builder = new StringBuilder();
-                } else if (line.contains(";")) {
-                    String query = builder.toString();
-                    query = query.replaceAll("\\s", " ");
-                    System.out.println("Exécution de la requête: " + query);
-                    Statement statement = databaseConnection.createStatement();
-                    statement.executeUpdate(query);
-
-                    builder = new StringBuilder();
+                for (; set.next() && !found; ) {
+                    if (set.getString("TABLE_NAME").equals("UTILISATEUR")) {
+                        found = true;
+                    }
                 }
             }
+
+            if (!found) {
+                SchemaMigrator.runScript(connection, new File("res/database.sql"));
+            }
         }
     }
 
     public void closeConnection() throws SQLException {
-        databaseConnection.close();
+        receipts.close();
+        pool.close();
     }
 
     /**
@@ -124,7 +147,10 @@ public class DatabaseManager {
      * @return - Le mot de passe hashé puis encodé en b64
      */
     public String hashPassword(@NotNull String password) {
-        return Base64.getEncoder().encodeToString(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+        // Le digest n'est pas thread-safe, les clients sont maintenant servis en parallèle
+        synchronized (digest) {
+            return Base64.getEncoder().encodeToString(digest.digest(password.getBytes(StandardCharsets.UTF_8)));
+        }
     }
 
     /**
@@ -155,15 +181,11 @@ public class DatabaseManager {
             return false;
         }
 
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "SELECT * FROM %s WHERE %s='%s'",
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_INE, ine
-        );
-
-        ResultSet queryResult = statement.executeQuery(request);
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(USER_BY_INE, ine)) {
 
-        return queryResult.next();
+            return query.executeQuery().next();
+        }
     }
 
 
@@ -171,25 +193,21 @@ public class DatabaseManager {
      * Teste si les identifiants d'un utilisateur sont valides ou non
      * @param ine - L'ine de l'utilisateur
      * @param password - Le mot de passe
-     * @return - Un booléen
+     * @return - L'utilisateur correspondant, null si les identifiants sont invalides
      * @throws SQLException - Peut être lancée en cas de requête invalide
      */
-    public ResultSet credentialsAreValid(String ine, String password) throws SQLException {
+    public Utilisateur credentialsAreValid(String ine, String password) throws SQLException {
         if (ine == null || password == null) {
             return null;
         }
 
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "SELECT * FROM %s WHERE %s='%s' AND %s='%s'",
-                TABLE_NAME_UTILISATEUR,
-                UTILISATEUR_INE, ine,
-                UTILISATEUR_MDP, hashPassword(password)
-        );
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(USER_BY_CREDENTIALS, ine, hashPassword(password))) {
 
-        ResultSet queryResult = statement.executeQuery(request);
+            ResultSet set = query.executeQuery();
 
-        return queryResult;
+            return set.next() ? new Utilisateur(set) : null;
+        }
     }
 
 
@@ -202,21 +220,11 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     private Boolean addUserGroupRelation(String ine, String group_label) throws SQLException {
-        String request = String.format(
-                "INSERT INTO %s (%s, %s) " +
-                        "SELECT DISTINCT %s.%s, %s.%s " +
-                        "FROM %s, %s " +
-                        "WHERE %s.%s = '%s' AND %s.%s = '%s'",
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(INSERT_USER_GROUP, ine, group_label)) {
 
-                TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID, APPARTENIR_GROUPE_ID,
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_ID, TABLE_NAME_GROUPE, GROUPE_ID,
-                TABLE_NAME_UTILISATEUR, TABLE_NAME_GROUPE,
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_INE, ine, TABLE_NAME_GROUPE, GROUPE_LABEL, group_label
-        );
-
-        PreparedStatement statement = databaseConnection.prepareStatement(request);
-
-        return statement.executeUpdate() > 0;
+            return query.executeUpdate() > 0;
+        }
     }
 
     /**
@@ -226,54 +234,56 @@ public class DatabaseManager {
      * @param name - Son nom
      * @param surname - Son prénom
      * @param type - Son type
-     * @return - Si la requête à réussi ou non
+     * @return - L'id du nouvel utilisateur, null si la requête a échoué
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public ResultSet registerNewUser(String ine, String password, String name, String surname, String type, String groups) throws SQLException {
+    public Long registerNewUser(String ine, String password, String name, String surname, String type, String groups) throws SQLException {
         if (containsNullOrEmpty(ine, password, name, surname, type, groups)) {
             return null;
         }
 
-        String request = String.format(
-                "INSERT INTO %s (%s, %s, %s, %s, %s) VALUES ('%s', '%s', '%s', '%s', '%s')",
-                TABLE_NAME_UTILISATEUR,
-                UTILISATEUR_INE, UTILISATEUR_MDP, UTILISATEUR_NOM, UTILISATEUR_PRENOM, UTILISATEUR_TYPE,
-                ine, hashPassword(password), name, surname, type
-        );
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            final Long id;
+            try (Query query = lease.prepareInsert(INSERT_USER, ine, hashPassword(password), name, surname, type)) {
+                Debugger.logMessage("DataBaseManager", "Executing following request: " + INSERT_USER);
 
-        PreparedStatement statement = databaseConnection.prepareStatement(request, Statement.RETURN_GENERATED_KEYS);
-
-        Debugger.logMessage("DataBaseManager", "Executing following request: " + request);
+                if (query.executeUpdate() != 1) {
+                    return null;
+                }
 
-        if (statement.executeUpdate() != 1) {
-            return null;
-        }
+                ResultSet generatedKeys = query.getGeneratedKeys();
+                id = generatedKeys.next() ? generatedKeys.getLong(1) : null;
+            }
 
-        ResultSet generatedKeys = statement.getGeneratedKeys();
+            System.out.println(groups);
+            for (String g : groups.split(";")) {
+                System.out.println("Relation : " + g);
+                try {
+                    if (!addUserGroupRelation(ine, g)) {
+                        createNewGroup(g);
+                        addUserGroupRelation(ine, g);
+                    }
 
-        System.out.println(groups);
-        for (String g : groups.split(";")) {
-            System.out.println("Relation : " + g);
-            try {
-                if (!addUserGroupRelation(ine, g)) {
-                    createNewGroup(g);
-                    addUserGroupRelation(ine, g);
-                }
+                } catch (SQLException e) {
+                    e.printStackTrace();
 
-            } catch (SQLException e) {
-                e.printStackTrace();
+                    try {
+                        createNewGroup(g);
+                        addUserGroupRelation(ine, g);
+                    } catch (SQLException f) {
+                        f.printStackTrace();
+                    }
 
-                try {
-                    createNewGroup(g);
-                    addUserGroupRelation(ine, g);
-                } catch (SQLException f) {
-                    f.printStackTrace();
                 }
+            }
 
+            if (id != null) {
+                journal.record(TABLE_NAME_UTILISATEUR, id, null, null, null);
+                journal.record(TABLE_NAME_APPARTENIR, id, null, null, null);
             }
-        }
 
-        return generatedKeys;
+            return id;
+        }
     }
 
 
@@ -289,148 +299,75 @@ public class DatabaseManager {
             return null;
         }
 
-        String request = String.format(
-                "INSERT INTO %s (%s) VALUES ('%s')",
-                TABLE_NAME_GROUPE,
-                GROUPE_LABEL,
-                label
-        );
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepareInsert(INSERT_GROUP, label)) {
 
-        PreparedStatement statement = databaseConnection.prepareStatement(request, Statement.RETURN_GENERATED_KEYS);
+            Debugger.logMessage("DataBaseManager", "Executing following request: " + INSERT_GROUP);
 
-        Debugger.logMessage("DataBaseManager", "Executing following request: " + request);
-
-        if (statement.executeUpdate() == 1) {
-            ResultSet set = statement.getGeneratedKeys();
-            if (set.next()) {
-                return new Groupe(set.getLong(1), label);
+            if (query.executeUpdate() == 1) {
+                ResultSet set = query.getGeneratedKeys();
+                if (set.next()) {
+                    journal.record(TABLE_NAME_GROUPE, set.getLong(1), null, null, null);
+                    return new Groupe(set.getLong(1), label);
+                }
             }
-        }
 
-        return null;
+            return null;
+        }
     }
 
 
     /**
-     * Ajoute la relation entre un message et un utilisateur pour la table VU
+     * Renvoie tous les utilisateur qui doivent lire le message en question
      *
-     * @param message_id - Le message correspondant
-     * @param ticketID   - Le ticket correspondant
+     * @param id - L'id du message
+     * @return - Les utilisateur qui doivent lire le message
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    private void addMessageVuRelation(long message_id, long ticketID) throws SQLException {
-        String request = String.format(
-                "INSERT INTO %s(%s, %s) " +
-                        "SELECT %s, %s.%s " +
-                        "FROM %s, %s, %s " +
-                        "WHERE %s.%s = %s " +
-                        "AND %s.%s = %s.%s " +
-                        "AND %s.%s = %s.%s",
-                TABLE_NAME_VU, VU_MESSAGE_ID, VU_UTILISATEUR_ID,
-                message_id, TABLE_NAME_UTILISATEUR, UTILISATEUR_ID,
-                TABLE_NAME_UTILISATEUR, TABLE_NAME_APPARTENIR, TABLE_NAME_TICKET,
-                TABLE_NAME_TICKET, TICKET_ID, ticketID,
-                TABLE_NAME_TICKET, TICKET_GROUP_ID, TABLE_NAME_APPARTENIR, APPARTENIR_GROUPE_ID,
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_ID, TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID
-        );
-
-        PreparedStatement statement = databaseConnection.prepareStatement(request);
-
-        statement.executeUpdate();
+    public ArrayList<String> getRemainingReadUsernames(Long id) throws SQLException {
+        return remainingUsernames(id, MessageStates.Kind.READ);
     }
 
 
     /**
-     * Ajouter la relation entre un message et un utilisateur pour la table RECU
-     *
-     * @param id       - L'id du message
-     * @param ticketid - Le ticket correspondant
-     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
-     */
-    private void addMessageRecuRelation(long id, long ticketid) throws SQLException {
-
-        String request = String.format(
-                "INSERT INTO %s(%s, %s) " +
-                        "SELECT %s, %s.%s " +
-                        "FROM %s, %s, %s " +
-                        "WHERE %s.%s = %s " +
-                        "AND %s.%s = %s.%s " +
-                        "AND %s.%s = %s.%s",
-                TABLE_NAME_RECU, RECU_MESSAGE_ID, RECU_UTILISATEUR_ID,
-                id, TABLE_NAME_UTILISATEUR, UTILISATEUR_ID,
-                TABLE_NAME_UTILISATEUR, TABLE_NAME_APPARTENIR, TABLE_NAME_TICKET,
-                TABLE_NAME_TICKET, TICKET_ID, ticketid,
-                TABLE_NAME_TICKET, TICKET_GROUP_ID, TABLE_NAME_APPARTENIR, APPARTENIR_GROUPE_ID,
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_ID, TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID
-        );
-
-        PreparedStatement statement = databaseConnection.prepareStatement(request);
-
-        statement.executeUpdate();
-
-    }
-
-    /**
-     * Renvoie tous les utilisateur qui doivent lire le message en question
+     * Renvoie tous les utilisateurs qui doivent recevoir ce message
      *
      * @param id - L'id du message
-     * @return - Les utilisateur qui doivent lire le message
+     * @return - Les utilisateurs qui doivent le recevoir
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public ArrayList<String> getRemainingReadUsernames(Long id) throws SQLException {
-        ArrayList<String> result = new ArrayList<>();
-
-        final Statement statement = databaseConnection.createStatement();
-        final String query = String.format(
-                "SELECT %s.* " +
-                        "FROM %s, %s " +
-                        "WHERE %s.%s = '%s' " +
-                        "AND %s.%s = %s.%s",
-                TABLE_NAME_UTILISATEUR,
-                TABLE_NAME_UTILISATEUR, TABLE_NAME_VU,
-                TABLE_NAME_VU, VU_MESSAGE_ID, id,
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_ID, TABLE_NAME_VU, VU_UTILISATEUR_ID
-        );
-
-        ResultSet set = statement.executeQuery(query);
-        while (set.next()) {
-            result.add(set.getString(UTILISATEUR_NOM) + " " + set.getString(UTILISATEUR_PRENOM));
-        }
+    public ArrayList<String> getRemainingReceiveUsernames(Long id) throws SQLException {
+        return remainingUsernames(id, MessageStates.Kind.RECEIVED);
+    }
 
-        return result;
+    private ArrayList<String> remainingUsernames(long id, MessageStates.Kind kind) throws SQLException {
+        MessageStates.State state = states.get(id);
+        receipts.mask(id, state);
 
+        return state.usernames(kind, states.names(Collections.singleton(state)));
     }
 
-
     /**
-     * Renvoie tous les utilisateurs qui doivent recevoir ce message
+     * Construit un message avec ceux qui doivent encore le lire et le recevoir
      *
-     * @param id - L'id du message
-     * @return - Les utilisateurs qui doivent le recevoir
+     * @param set   - La ligne du message
+     * @param state - Son état, sans les accusés pas encore écrits
+     * @param names - Nom et prénom des utilisateurs de l'état
+     * @return - Le message
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public ArrayList<String> getRemainingReceiveUsernames(Long id) throws SQLException {
-        ArrayList<String> result = new ArrayList<>();
-
-        final Statement statement = databaseConnection.createStatement();
-        final String query = String.format(
-                "SELECT %s.* " +
-                        "FROM %s, %s " +
-                        "WHERE %s.%s = '%s' " +
-                        "AND %s.%s = %s.%s",
-                TABLE_NAME_UTILISATEUR,
-                TABLE_NAME_UTILISATEUR, TABLE_NAME_RECU,
-                TABLE_NAME_RECU, RECU_MESSAGE_ID, id,
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_ID, TABLE_NAME_RECU, RECU_UTILISATEUR_ID
-        );
-
-        ResultSet set = statement.executeQuery(query);
-        while (set.next()) {
-            result.add(set.getString(UTILISATEUR_NOM) + " " + set.getString(UTILISATEUR_PRENOM));
-        }
+    private static Message newMessage(ResultSet set, MessageStates.State state, Map<Long, String> names) throws SQLException {
+        return new Message(set,
+                state.usernames(MessageStates.Kind.READ, names),
+                state.usernames(MessageStates.Kind.RECEIVED, names));
+    }
 
-        return result;
+    private Message newMessage(ResultSet set) throws SQLException {
+        final long id = set.getLong(MESSAGE_ID);
+        MessageStates.State state = states.get(id);
+        receipts.mask(id, state);
 
+        return newMessage(set, state, states.names(Collections.singleton(state)));
     }
 
 
@@ -444,41 +381,39 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Message insertNewMessage(final String contenu, final long ticketid, final long userID) throws SQLException {
-        // Message creation in the "message" table
-        final String messageRequest = String.format(
-                "INSERT INTO %s (%s, %s, %s) VALUES ('%s', '%s', '%s')",
-                TABLE_NAME_MESSAGE, MESSAGE_CONTENU, MESSAGE_TICKET_ID, MESSAGE_UTILISATEUR_ID,
-                contenu, ticketid, userID
-        );
-
-        Debugger.logMessage("DatabaseManager", "Request: " + messageRequest);
+        try (ConnectionPool.Lease lease = pool.borrow()) {
 
-        PreparedStatement statement = databaseConnection.prepareStatement(messageRequest, Statement.RETURN_GENERATED_KEYS);
-        Debugger.logMessage("DatabaseManager", "Affected rows: " + statement.executeUpdate());
+            // Message creation in the "message" table
+            final long id;
+            try (Query query = lease.prepareInsert(INSERT_MESSAGE, contenu, ticketid, userID)) {
+                Debugger.logMessage("DatabaseManager", "Affected rows: " + query.executeUpdate());
 
-        ResultSet result = statement.getGeneratedKeys();
-        if (!result.next()) {
-            Debugger.logMessage("DatabaseManager", "No key inserted after query ");
-            return null;
-        }
+                ResultSet result = query.getGeneratedKeys();
+                if (!result.next()) {
+                    Debugger.logMessage("DatabaseManager", "No key inserted after query ");
+                    return null;
+                }
 
-        final long id = result.getInt(1);
-        String query = String.format(
-                "SELECT * FROM %s WHERE %s.%s = '%s'",
-                TABLE_NAME_MESSAGE, TABLE_NAME_MESSAGE, MESSAGE_ID, id
-        );
+                id = result.getLong(1);
+            }
 
-        result = statement.executeQuery(query);
-        addMessageVuRelation(id, ticketid);
-        addMessageRecuRelation(id, ticketid);
+            final Date postDate;
+            try (Query query = lease.prepare(MESSAGE_BY_ID, id)) {
+                ResultSet result = query.executeQuery();
+                result.next();
+                postDate = result.getTimestamp(MESSAGE_HEURE_ENVOIE);
+            }
 
-        result.next();
-        final Date postDate = result.getTimestamp(MESSAGE_HEURE_ENVOIE);
+            MessageStates.State state = states.insert(id, ticketid);
+            recordTicket(ticketid);
 
-        Message resultingMessage = new Message(id, userID, ticketid, postDate, contenu, getRemainingReadUsernames(id), getRemainingReceiveUsernames(id));
-        Debugger.logMessage("DatabaseManager", "Resulting message: " + resultingMessage.toJSON());
+            final HashMap<Long, String> names = states.names(Collections.singleton(state));
+            Message resultingMessage = new Message(id, userID, ticketid, postDate, contenu,
+                    state.usernames(MessageStates.Kind.READ, names), state.usernames(MessageStates.Kind.RECEIVED, names));
+            Debugger.logMessage("DatabaseManager", "Resulting message: " + resultingMessage.toJSON());
 
-        return resultingMessage;
+            return resultingMessage;
+        }
     }
 
     /**
@@ -487,27 +422,19 @@ public class DatabaseManager {
      * @param userID      - L'utilisateur qui a créé le ticket
      * @param title       - Le titre du ticket
      * @param group_label - Le nom du groupe affilié
-     * @return - Les clés générés par la requête
+     * @return - L'id du ticket, null si le groupe n'existe pas
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    private ResultSet insertNewTicket(long userID, String title, String group_label) throws SQLException {
-        // Ticket creation in the "ticket" table
-        final String ticketRequest = String.format(
-                "INSERT INTO %s (%s, %s, %s) " +
-                        "SELECT DISTINCT '%s', '%s', %s.%s " +
-                        "FROM %s " +
-                        "WHERE %s.%s = '%s' ",
-                TABLE_NAME_TICKET, TICKET_TITRE, TICKET_UTILISATEUR_ID, TICKET_GROUP_ID,
-                title, userID, TABLE_NAME_GROUPE, GROUPE_ID,
-                TABLE_NAME_GROUPE,
-                TABLE_NAME_GROUPE, GROUPE_LABEL, group_label
-        );
-
-        PreparedStatement statement = databaseConnection.prepareStatement(ticketRequest, Statement.RETURN_GENERATED_KEYS);
-
-        // We execute the request and then get the resulting keys
-        statement.executeUpdate();
-        return statement.getGeneratedKeys();
+    private Long insertNewTicket(long userID, String title, String group_label) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepareInsert(INSERT_TICKET, title, userID, group_label)) {
+
+            // We execute the request and then get the resulting keys
+            query.executeUpdate();
+            ResultSet keys = query.getGeneratedKeys();
+
+            return keys.next() ? keys.getLong(1) : null;
+        }
     }
 
 
@@ -526,16 +453,13 @@ public class DatabaseManager {
             return null;
         }
 
-        final ResultSet ticketBDD = insertNewTicket(userID, title, groupLabel);
-        if (!ticketBDD.next()) {
+        final Long ticketID = insertNewTicket(userID, title, groupLabel);
+        if (ticketID == null) {
             Debugger.logMessage("DatabaseManager", "No next, returning null");
             return null;
         }
 
-        long ticketID = ticketBDD.getLong(1);
-        Groupe relatedGroup = relatedTicketGroup(ticketID);
-
-        final Message messageBDD = insertNewMessage(message, ticketBDD.getLong(1), userID);
+        final Message messageBDD = insertNewMessage(message, ticketID, userID);
         if (messageBDD != null) {
             TreeSet<Message> messages = new TreeSet<>();
             messages.add(messageBDD);
@@ -561,119 +485,146 @@ public class DatabaseManager {
             return false;
         }
 
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "SELECT groups FROM %s WHERE %s='%s'",
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_INE, ine
-        );
-
-        if (statement.execute(request)) {
-            request = String.format(
-                    "INSERT INTO %s (%s, %s, %s) VALUES ('%s', '%s', '%s')",
-                    TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, MESSAGE_UTILISATEUR_ID, MESSAGE_CONTENU,
-                    ticketid, ine, contents
-            );
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            try (Query query = lease.prepare(USER_GROUPS_COLUMN, ine)) {
+                query.executeQuery();
+            }
 
-            return statement.executeUpdate(request) > 0;
+            try (Query query = lease.prepare(INSERT_MESSAGE_FROM_TICKET, ticketid, ine, contents)) {
+                return query.executeUpdate() > 0;
+            }
         }
-
-
-        return false;
-
     }
 
 
     /**
-     * Retourne tous les utilisateurs de la base de donnée
+     * Retourne une page d'une table de l'administration, triée et filtrée par la base.
+     * Le nombre de lignes correspondant au filtre n'est compté que pour la première page.
      *
-     * @return - Tous les utilisateur de la base de donnée
+     * @param query - La demande
+     * @return - La page, null si la table ou la colonne de tri ne fait pas partie de l'administration
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public ArrayList<Utilisateur> retrieveAllUsers() throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "SELECT * FROM %s",
-                TABLE_NAME_UTILISATEUR
-        );
-
-        ArrayList<Utilisateur> result = new ArrayList<>();
-        ResultSet set = statement.executeQuery(request);
-        while (set.next()) {
-            result.add(new Utilisateur(set));
+    public TablePage queryTable(TableQuery query) throws SQLException {
+        final List<String> sortColumns = query.getTable() == null ? null : ADMIN_SORT_COLUMNS.get(query.getTable());
+        if (sortColumns == null) {
+            return null;
         }
 
-        return result;
-    }
+        final String sort = query.getSort() == null ? sortColumns.get(0) : query.getSort();
+        if (!sortColumns.contains(sort)) {
+            return null;
+        }
 
-    /**
-     * Retourne tous les groupes de la base de donnée
-     *
-     * @return - Tous les groupes de la base de donnée
-     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
-     */
-    public ArrayList<Groupe> retrieveAllGroups() throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-
-        String request = String.format(
-                "SELECT * FROM %s",
-                TABLE_NAME_GROUPE
-        );
-
-        ArrayList<Groupe> result = new ArrayList<>();
-        ResultSet set = statement.executeQuery(request);
-        while (set.next()) {
-            result.add(new Groupe(set));
+        final boolean filtered = !query.getFilter().isEmpty();
+        ArrayList<Object> params = new ArrayList<>();
+        if (filtered) {
+            final String pattern = query.getFilter()
+                    .replace("\\", "\\\\")
+                    .replace("%", "\\%")
+                    .replace("_", "\\_") + "%";
+            for (String ignored : ADMIN_FILTER_COLUMNS.get(query.getTable())) {
+                params.add(pattern);
+            }
         }
 
-        return result;
-    }
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            Integer total = null;
+            if (query.getOffset() == 0) {
+                try (Query count = lease.prepare(adminCount(query.getTable(), filtered), params.toArray())) {
+                    ResultSet set = count.executeQuery();
+                    total = set.next() ? set.getInt(1) : 0;
+                }
+            }
+
+            params.add(query.getLimit());
+            params.add(query.getOffset());
+
+            final ArrayList<ProjectTable> rows = new ArrayList<>(query.getLimit());
+            try (Query page = lease.prepare(adminPage(query.getTable(), sort, query.isDescending(), filtered), params.toArray())) {
+                ResultSet set = page.executeQuery();
+                while (set.next()) {
+                    switch (query.getTable()) {
+                        case TABLE_NAME_UTILISATEUR:
+                            rows.add(new Utilisateur(set));
+                            break;
+
+                        case TABLE_NAME_GROUPE:
+                            rows.add(new Groupe(set));
+                            break;
+
+                        case TABLE_NAME_TICKET:
+                            rows.add(new Ticket(set.getLong(TICKET_ID), set.getString(TICKET_TITRE), new TreeSet<>()));
+                            break;
+
+                        case TABLE_NAME_MESSAGE:
+                            rows.add(new Message(set, new ArrayList<>(), new ArrayList<>()));
+                            break;
+                    }
+                }
+            }
 
+            if (query.getTable().equals(TABLE_NAME_UTILISATEUR)) {
+                setGroupLabels(lease, rows);
+            }
+
+            Metrics.increment("database.admin.pages");
+            return new TablePage(query, rows, total);
+        }
+    }
 
     /**
-     * Retourne tous les ticket de la base de donnée
+     * Remplit les groupes d'utilisateurs, {@link Queries#IN_BATCH} utilisateurs par requête
      *
-     * @return - Tous les ticket de la base de donnée
+     * @param lease - La connexion empruntée
+     * @param users - Les utilisateurs
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public ArrayList<Ticket> retrieveAllTickets() throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-
-        String request = String.format(
-                "SELECT * FROM %s",
-                TABLE_NAME_TICKET
-        );
-
-        ArrayList<Ticket> result = new ArrayList<>();
-        ResultSet set = statement.executeQuery(request);
-        while (set.next()) {
-            result.add(new Ticket(set.getLong(TICKET_ID), set.getString(TICKET_TITRE), new TreeSet<>()));
+    private static void setGroupLabels(ConnectionPool.Lease lease, List<ProjectTable> users) throws SQLException {
+        ArrayList<Long> ids = new ArrayList<>(users.size());
+        for (ProjectTable user : users) {
+            ids.add(user.getID());
         }
 
-        return result;
+        HashMap<Long, ArrayList<String>> groups = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += IN_BATCH) {
+            try (Query query = lease.prepare(USER_GROUP_LABELS_BATCH, inParameters(ids, from))) {
+                ResultSet set = query.executeQuery();
+                while (set.next()) {
+                    groups.computeIfAbsent(set.getLong(1), k -> new ArrayList<>()).add(set.getString(2));
+                }
+            }
+        }
+
+        for (ProjectTable user : users) {
+            ((Utilisateur) user).setGroups(groups.getOrDefault(user.getID(), new ArrayList<>()).toArray(new String[0]));
+        }
     }
 
     /**
-     * Retourne tous les messages de la base de donnée
+     * Complète des messages lus sans leur état
      *
-     * @return Tous les messages de la base de donnée
+     * @param rows    - Les messages
+     * @param pending - L'état de ceux qui attendent encore quelqu'un, masqués par les accusés pas encore écrits
+     * @return - Les messages avec les utilisateurs qui doivent encore les lire ou les recevoir
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public ArrayList<Message> retrieveAllMessages() throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-
-        String request = String.format(
-                "SELECT * FROM %s",
-                TABLE_NAME_MESSAGE
-        );
-
-        ArrayList<Message> result = new ArrayList<>();
-        ResultSet set = statement.executeQuery(request);
-        while (set.next()) {
-            final Long id = set.getLong(MESSAGE_ID);
-            result.add(new Message(set, getRemainingReadUsernames(id), getRemainingReceiveUsernames(id)));
+    private ArrayList<Message> withStates(List<Message> rows, HashMap<Long, MessageStates.State> pending) throws SQLException {
+        for (Map.Entry<Long, MessageStates.State> entry : pending.entrySet()) {
+            receipts.mask(entry.getKey(), entry.getValue());
+        }
+        final HashMap<Long, String> names = states.names(pending.values());
+
+        ArrayList<Message> messages = new ArrayList<>(rows.size());
+        for (Message row : rows) {
+            final MessageStates.State state = pending.getOrDefault(row.getID(), new MessageStates.State());
+            messages.add(new Message(row.getID(), row.getUtilisateurID(), row.getTicketID(), row.getHeureEnvoie(),
+                    row.getContenu(),
+                    state.usernames(MessageStates.Kind.READ, names),
+                    state.usernames(MessageStates.Kind.RECEIVED, names)));
         }
 
-        return result;
+        return messages;
     }
 
 
@@ -685,15 +636,71 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Boolean deleteUser(Long id) throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "DELETE FROM %s where %s = '%s'",
-                TABLE_NAME_UTILISATEUR,
-                UTILISATEUR_ID,
-                id.toString()
-        );
-
-        return statement.executeUpdate(request) == 1;
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            final Utilisateur user = getUser(id);
+            if (user == null) {
+                return false;
+            }
+
+            // Ses tickets sont supprimés avec lui, ceux où il a écrit ou qu'il devait lire changent
+            TreeMap<Long, Long> createdTickets = new TreeMap<>();
+            try (Query query = lease.prepare(TICKETS_OF_CREATOR, id)) {
+                ResultSet set = query.executeQuery();
+                while (set.next()) {
+                    createdTickets.put(set.getLong(TICKET_ID), set.getLong(TICKET_GROUP_ID));
+                }
+            }
+
+            HashMap<Long, String> deletedTickets = new HashMap<>();
+            for (Long ticketID : createdTickets.keySet()) {
+                Ticket ticket = getTicket(ticketID);
+                if (ticket != null) {
+                    deletedTickets.put(ticketID, ticket.toJSON().toString());
+                }
+            }
+
+            TreeSet<Long> changedTickets = new TreeSet<>();
+            try (Query query = lease.prepare(TICKETS_WRITTEN_BY_USER, id)) {
+                ResultSet set = query.executeQuery();
+                while (set.next()) {
+                    changedTickets.add(set.getLong(MESSAGE_TICKET_ID));
+                }
+            }
+
+            // Il n'est plus attendu sur les messages qu'il devait lire ou recevoir
+            HashMap<Long, Long> pending = states.pendingFor(id);
+            HashMap<Long, MessageStates.State> cleared = new HashMap<>();
+            for (Long messageID : pending.keySet()) {
+                MessageStates.State state = new MessageStates.State();
+                state.set(MessageStates.Kind.READ, id);
+                state.set(MessageStates.Kind.RECEIVED, id);
+                cleared.put(messageID, state);
+            }
+            states.clear(cleared);
+            changedTickets.addAll(pending.values());
+            changedTickets.removeAll(createdTickets.keySet());
+
+            try (Query query = lease.prepare(DELETE_USER, id)) {
+                if (query.executeUpdate() != 1) {
+                    return false;
+                }
+            }
+            users.invalidate(id);
+            for (Long ticketID : createdTickets.keySet()) {
+                ticketOwners.invalidate(ticketID);
+            }
+            groupSnapshots.clear();
+
+            for (Map.Entry<Long, String> deleted : deletedTickets.entrySet()) {
+                journal.record(TABLE_NAME_TICKET, deleted.getKey(), createdTickets.get(deleted.getKey()), id, deleted.getValue());
+            }
+            for (Long ticketID : changedTickets) {
+                recordTicket(ticketID);
+            }
+            journal.record(TABLE_NAME_UTILISATEUR, id, null, null, user.toJSON().toString());
+
+            return true;
+        }
     }
 
     /**
@@ -704,15 +711,27 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Boolean deleteGroup(Long id) throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "DELETE FROM %s where %s = '%s'",
-                TABLE_NAME_GROUPE,
-                GROUPE_ID,
-                id.toString()
-        );
-
-        return statement.executeUpdate(request) == 1;
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            final Groupe groupe = getGroup(id);
+            if (groupe == null) {
+                return false;
+            }
+
+            try (Query query = lease.prepare(DELETE_GROUP, id)) {
+                if (query.executeUpdate() != 1) {
+                    return false;
+                }
+            }
+            groupLabels.invalidate(id);
+            groupSnapshots.invalidate(id);
+            // Ses tickets ne sont pas connus ici
+            ticketOwners.clear();
+
+            // Ses tickets sont supprimés avec lui
+            journal.record(TABLE_NAME_GROUPE, id, id, null, groupe.toJSON().toString());
+
+            return true;
+        }
     }
 
     /**
@@ -723,34 +742,49 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Boolean deleteTicket(Long id) throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "DELETE FROM %s where %s = '%s'",
-                TABLE_NAME_TICKET,
-                TICKET_ID,
-                id.toString()
-        );
-
-        return statement.executeUpdate(request) == 1;
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            final Ticket ticket = getTicket(id);
+            final Groupe groupe = relatedTicketGroup(id);
+            final Long creator = ticketCreator(id);
+
+            if (ticket == null || groupe == null) {
+                return false;
+            }
+
+            try (Query query = lease.prepare(DELETE_TICKET, id)) {
+                if (query.executeUpdate() != 1) {
+                    return false;
+                }
+            }
+            ticketOwners.invalidate(id);
+            groupSnapshots.invalidate(groupe.getID());
+
+            journal.record(TABLE_NAME_TICKET, id, groupe.getID(), creator, ticket.toJSON().toString());
+
+            return true;
+        }
     }
 
     /**
      * Supprime un message de la base de donnée
      *
-     * @param id - L'id du message
+     * @param id       - L'id du message
+     * @param ticketid - L'id de son ticket, déjà connu de l'appelant
      * @return - Si le message a bien été supprimé
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public Boolean deleteMessage(Long id) throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "DELETE FROM %s where %s = '%s'",
-                TABLE_NAME_MESSAGE,
-                MESSAGE_ID,
-                id.toString()
-        );
-
-        return statement.executeUpdate(request) == 1;
+    public Boolean deleteMessage(long id, long ticketid) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(DELETE_MESSAGE, id)) {
+
+            if (query.executeUpdate() != 1) {
+                return false;
+            }
+        }
+
+        recordTicket(ticketid);
+
+        return true;
     }
 
     /**
@@ -762,15 +796,20 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Boolean editExistingGroup(long id, String label) throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "UPDATE %s SET %s = '%s' WHERE %s = '%s'",
-                TABLE_NAME_GROUPE,
-                GROUPE_LABEL, label,
-                GROUPE_ID, id
-        );
-
-        return statement.executeUpdate(request) == 1;
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(UPDATE_GROUP, label, id)) {
+
+            final int updated = query.executeUpdate();
+            groupLabels.invalidate(id);
+            groupSnapshots.invalidate(id);
+            if (updated != 1) {
+                return false;
+            }
+
+            journal.record(TABLE_NAME_GROUPE, id, id, null, null);
+
+            return true;
+        }
     }
 
 
@@ -782,15 +821,11 @@ public class DatabaseManager {
      * @param groups - Les nouveaux groupes
      */
     private void updateExistingUserGroups(long id, String ine, String groups) {
-        try {
-            Statement statement = databaseConnection.createStatement();
-            String request = String.format(
-                    "DELETE FROM %s WHERE %s.%s = '%s'",
-                    TABLE_NAME_APPARTENIR, TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID, id
-            );
-
-            Debugger.logMessage("updateExistingUserGroup", "Request: " + request);
-            statement.executeUpdate(request);
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            try (Query query = lease.prepare(DELETE_USER_GROUPS, id)) {
+                Debugger.logMessage("updateExistingUserGroup", "Request: " + DELETE_USER_GROUPS);
+                query.executeUpdate();
+            }
 
 
             for (String g : groups.split(";")) {
@@ -805,6 +840,8 @@ public class DatabaseManager {
                     e.printStackTrace();
                 }
             }
+
+            journal.record(TABLE_NAME_APPARTENIR, id, null, null, null);
         } catch (SQLException e) {
             e.printStackTrace();
         }
@@ -824,27 +861,20 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Boolean editExistingUser(long id, String ine, String name, String surname, String type, String groups) throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "UPDATE %s "
-                        + "SET "
-                        + "%s = '%s', "
-                        + "%s = '%s', "
-                        + "%s = '%s', "
-                        + "%s = '%s' "
-                        + "WHERE %s = '%s'",
-                TABLE_NAME_UTILISATEUR,
-                UTILISATEUR_INE, ine,
-                UTILISATEUR_NOM, name,
-                UTILISATEUR_PRENOM, surname,
-                UTILISATEUR_TYPE, type,
-                UTILISATEUR_ID, id
-        );
-
-        Boolean result = statement.executeUpdate(request) == 1;
-        updateExistingUserGroups(id, ine, groups);
-
-        return result;
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            Boolean result;
+            try (Query query = lease.prepare(UPDATE_USER, ine, name, surname, type, id)) {
+                result = query.executeUpdate() == 1;
+            }
+            users.invalidate(id);
+
+            updateExistingUserGroups(id, ine, groups);
+            if (result) {
+                journal.record(TABLE_NAME_UTILISATEUR, id, null, null, null);
+            }
+
+            return result;
+        }
     }
 
 
@@ -869,65 +899,41 @@ public class DatabaseManager {
             return editExistingUser(id, ine, name, surname, type, groups);
         }
 
-        String request = String.format(
-                "UPDATE %s "
-                        + "SET "
-                        + "%s = '%s', "
-                        + "%s = '%s', "
-                        + "%s = '%s', "
-                        + "%s = '%s', "
-                        + "%s = '%s' "
-                        + "WHERE %s = '%s'",
-                TABLE_NAME_UTILISATEUR,
-                UTILISATEUR_INE, ine,
-                UTILISATEUR_NOM, name,
-                UTILISATEUR_PRENOM, surname,
-                UTILISATEUR_TYPE, type,
-                UTILISATEUR_MDP, hashPassword(password),
-                UTILISATEUR_ID, id
-        );
-
-        PreparedStatement statement = databaseConnection.prepareStatement(request);
-
-        Boolean result = statement.executeUpdate(request) == 1;
-        updateExistingUserGroups(id, ine, groups);
-
-        return result;
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            Boolean result;
+            try (Query query = lease.prepare(UPDATE_USER_WITH_PASSWORD, ine, name, surname, type, hashPassword(password), id)) {
+                result = query.executeUpdate() == 1;
+            }
+            users.invalidate(id);
+
+            updateExistingUserGroups(id, ine, groups);
+            if (result) {
+                journal.record(TABLE_NAME_UTILISATEUR, id, null, null, null);
+            }
+
+            return result;
+        }
     }
 
     /**
-     * Retourne tous les groupe relié à un utilisateur
+     * Retourne les groupes (identifiant et nom) auxquels appartient un utilisateur
      *
-     * @param ine - L'ine de l'utilisateur
-     * @return Tous les groupe liés à l'utilisateur
+     * @param userID - L'id de l'utilisateur
+     * @return Les groupes de l'utilisateur
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public String relatedUserGroup(String ine) throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        String request = String.format(
-                "SELECT %s.%s " +
-                        "FROM %s, %s, %s " +
-                        "WHERE %s.%s = '%s' " +
-                        "AND %s.%s = %s.%s " +
-                        "AND %s.%s = %s.%s ",
-                TABLE_NAME_GROUPE, GROUPE_LABEL,
-                TABLE_NAME_GROUPE, TABLE_NAME_APPARTENIR, TABLE_NAME_UTILISATEUR,
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_INE, ine,
-                TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID, TABLE_NAME_UTILISATEUR, UTILISATEUR_ID,
-                TABLE_NAME_GROUPE, GROUPE_ID, TABLE_NAME_APPARTENIR, APPARTENIR_GROUPE_ID
-        );
-
-        ResultSet result = statement.executeQuery(request);
-
-        StringBuilder groups = new StringBuilder();
-        while (result.next()) {
-            groups.append(result.getString(GROUPE_LABEL)).append(";");
-        }
+    public ArrayList<Groupe> relatedUserGroups(long userID) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(USER_GROUPS, userID)) {
+
+            ResultSet result = query.executeQuery();
 
-        if (groups.length() > 0) {
-            return groups.toString().substring(0, groups.length() - 1);
-        } else {
-            return "";
+            ArrayList<Groupe> groups = new ArrayList<>();
+            while (result.next()) {
+                groups.add(new Groupe(result.getLong(GROUPE_ID), result.getString(GROUPE_LABEL)));
+            }
+
+            return groups;
         }
     }
 
@@ -939,23 +945,26 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public TreeSet<Message> getAllMessagesForGivenTicket(long ticketid) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(MESSAGES_OF_TICKET, ticketid)) {
+
+            HashMap<Long, MessageStates.State> pending = states.ofTicket(ticketid);
+            for (Map.Entry<Long, MessageStates.State> entry : pending.entrySet()) {
+                receipts.mask(entry.getKey(), entry.getValue());
+            }
+            final HashMap<Long, String> names = states.names(pending.values());
 
-        final String messageRequest = String.format(
-                "SELECT * FROM %s WHERE %s = '%s'",
-                TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, ticketid
-        );
+            ResultSet result = query.executeQuery();
 
-        Statement statement = databaseConnection.createStatement();
-        ResultSet result = statement.executeQuery(messageRequest);
+            TreeSet<Message> messages = new TreeSet<>();
 
-        TreeSet<Message> messages = new TreeSet<>();
+            while (result.next()) {
+                final long id = result.getLong(MESSAGE_ID);
+                messages.add(newMessage(result, pending.getOrDefault(id, new MessageStates.State()), names));
+            }
 
-        while (result.next()) {
-            final Long id = result.getLong(MESSAGE_ID);
-            messages.add(new Message(result, getRemainingReadUsernames(id), getRemainingReceiveUsernames(id)));
+            return messages;
         }
-
-        return messages;
     }
 
 
@@ -967,26 +976,23 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public TreeSet<Ticket> getAllTicketForGivenGroup(long groupid) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(TICKETS_OF_GROUP, groupid)) {
 
-        final String ticketRequest = String.format(
-                "SELECT * FROM %s WHERE %s = '%s'",
-                TABLE_NAME_TICKET, TICKET_GROUP_ID, groupid
-        );
+            ResultSet result = query.executeQuery();
 
-        Statement statement = databaseConnection.createStatement();
-        ResultSet result = statement.executeQuery(ticketRequest);
+            TreeSet<Ticket> tickets = new TreeSet<>();
 
-        TreeSet<Ticket> tickets = new TreeSet<>();
+            while (result.next()) {
 
-        while (result.next()) {
+                final long id = result.getLong(TICKET_ID);
+                final String title = result.getString(TICKET_TITRE);
 
-            final long id = result.getLong(TICKET_ID);
-            final String title = result.getString(TICKET_TITRE);
+                tickets.add(new Ticket(id, title, getAllMessagesForGivenTicket(id)));
+            }
 
-            tickets.add(new Ticket(id, title, getAllMessagesForGivenTicket(id)));
+            return tickets;
         }
-
-        return tickets;
     }
 
     /**
@@ -997,82 +1003,100 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public TreeSet<Groupe> getRelatedGroups(Utilisateur user) throws SQLException {
+        return relatedGroupsLoader.load(user.getID());
+    }
 
-        TreeSet<Groupe> groupes = new TreeSet<>();
-        final String query = String.format(
-                "SELECT * FROM %s, %s " +
-                        "WHERE %s.%s = '%s' " +
-                        "AND %s.%s = %s.%s",
-                TABLE_NAME_GROUPE, TABLE_NAME_APPARTENIR,
-                TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID, user.getID(),
-                TABLE_NAME_GROUPE, GROUPE_ID, TABLE_NAME_APPARTENIR, APPARTENIR_GROUPE_ID
-        );
-
-        Statement statement = databaseConnection.createStatement();
-        ResultSet set = statement.executeQuery(query);
-
-        while (set.next()) {
-            final long id = set.getLong(GROUPE_ID);
-            final String label = set.getString(GROUPE_LABEL);
-            TreeSet<Ticket> tickets = getAllTicketForGivenGroup(id);
-
-            Groupe groupe = new Groupe(id, label, tickets);
-            groupes.add(groupe);
-        }
-
-        TreeSet<Groupe> others = getRelatedTickets(user);
-        groupes.addAll(others);
-
-        return groupes;
-
+    /**
+     * Traite une mise à jour locale
+     *
+     * @param user - L'utilisateur qui en fait la demande
+     * @return - Toutes les données liés à l'utilisateur
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    public TreeSet<Groupe> treatLocalUpdateMessage(Utilisateur user) throws SQLException {
+        return getRelatedGroups(user);
     }
 
     /**
-     * Retourne tous les ticket reliés à un utilisateur
+     * Traite une mise à jour locale à partir de la version des données du client :
+     * seuls les groupes, tickets et utilisateurs modifiés depuis sont renvoyés, avec les suppressions.
+     * Un ticket modifié est renvoyé en en-tête, ses messages sont redemandés par pages.
      *
-     * @param user - L'utilisateur en question
-     * @return - Tous les tickets reliés à un utilisateur
+     * @param user - L'utilisateur qui en fait la demande
+     * @param from - La version des données du client, 0 s'il n'en a pas
+     * @return - Les modifications, null si une mise à jour complète est nécessaire
+     * (première demande, journal trop ancien, ou groupes de l'utilisateur modifiés)
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    private TreeSet<Groupe> getRelatedTickets(Utilisateur user) throws SQLException {
+    public LocalUpdateDelta treatLocalUpdateMessage(Utilisateur user, long from) throws SQLException {
+        final long version = journal.currentVersion();
+        if (!journal.covers(from, version)) {
+            return null;
+        }
 
-        HashMap<Long, Groupe> groupes = new HashMap<>();
+        // Seul le dernier état de chaque entrée compte
+        LinkedHashMap<String, Journal.Entry> latest = new LinkedHashMap<>();
+        for (Journal.Entry entry : journal.entriesSince(from, version, user.getID())) {
+            if (entry.table.equals(TABLE_NAME_APPARTENIR)) {
+                return null;
+            }
 
-        Statement statement = databaseConnection.createStatement();
-        final String query = String.format(
-                "SELECT * FROM %s WHERE %s.%s = '%s'",
-                TABLE_NAME_TICKET, TABLE_NAME_TICKET, TICKET_UTILISATEUR_ID, user.getID()
-        );
+            final String key = entry.table + ":" + entry.entryID;
+            latest.remove(key);
+            latest.put(key, entry);
+        }
 
+        LocalUpdateDelta delta = new LocalUpdateDelta(version);
+        boolean groupsChanged = false;
 
-        ResultSet set = statement.executeQuery(query);
-        while (set.next()) {
-            final long id = set.getLong(TICKET_ID);
-            final String titre = set.getString(TICKET_TITRE);
+        for (Journal.Entry entry : latest.values()) {
+            if (entry.table.equals(TABLE_NAME_GROUPE)) {
+                groupsChanged = true;
+            }
 
-            Ticket ticket = new Ticket(id, titre, getAllMessagesForGivenTicket(id));
-            Groupe groupe = relatedTicketGroup(id);
+            if (entry.isDeletion()) {
+                delta.addDeletion(entry.table, entry.deletedEntry);
+                continue;
+            }
 
-            if (groupes.containsKey(groupe.getID())) {
-                groupes.get(groupe.getID()).addTicket(ticket);
-            } else {
-                groupe.addTicket(ticket);
-                groupes.put(groupe.getID(), groupe);
+            switch (entry.table) {
+                case TABLE_NAME_GROUPE:
+                    Groupe groupe = getGroup(entry.entryID);
+                    if (groupe != null) {
+                        delta.addGroup(groupe);
+                    }
+                    break;
+
+                case TABLE_NAME_UTILISATEUR:
+                    Utilisateur changedUser = getUser(entry.entryID);
+                    if (changedUser != null) {
+                        delta.addUser(changedUser);
+                    }
+                    break;
+
+                case TABLE_NAME_TICKET:
+                    Ticket ticket = getTicketHeader(entry.entryID);
+                    Groupe relatedGroup = relatedTicketGroup(entry.entryID);
+                    if (ticket != null && relatedGroup != null) {
+                        delta.addGroup(relatedGroup).addTicket(ticket);
+                    }
+                    break;
             }
         }
 
-        return new TreeSet<>(groupes.values());
+        if (groupsChanged) {
+            delta.setAllGroups(getAllGroups());
+        }
+
+        return delta;
     }
 
     /**
-     * Traite une mise à jour locale
-     *
-     * @param user - L'utilisateur qui en fait la demande
-     * @return - Toutes les données liés à l'utilisateur
+     * @return - La version courante des données, à envoyer avec une mise à jour complète
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public TreeSet<Groupe> treatLocalUpdateMessage(Utilisateur user) throws SQLException {
-        return getRelatedGroups(user);
+    public long getDataVersion() throws SQLException {
+        return journal.currentVersion();
     }
 
     /**
@@ -1082,23 +1106,20 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public TreeSet<String> getAllGroups() throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(ALL_GROUPS)) {
 
-        TreeSet<String> groups = new TreeSet<>();
-        final String groupRequest = String.format(
-                "SELECT * FROM %s", TABLE_NAME_GROUPE
-        );
+            TreeSet<String> groups = new TreeSet<>();
+            ResultSet result = query.executeQuery();
 
-        Statement statement = databaseConnection.createStatement();
-        ResultSet result = statement.executeQuery(groupRequest);
 
+            while (result.next()) {
+                final String label = result.getString(GROUPE_LABEL);
+                groups.add(label);
+            }
 
-        while (result.next()) {
-            final String label = result.getString(GROUPE_LABEL);
-            groups.add(label);
+            return groups;
         }
-
-        return groups;
-
     }
 
     /**
@@ -1109,27 +1130,45 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Groupe relatedTicketGroup(long ticketID) throws SQLException {
-        final String query = String.format(
-                "SELECT DISTINCT %s.* " +
-                        "FROM %s, %s " +
-                        "WHERE %s.%s = %s " +
-                        "AND %s.%s = %s.%s",
-                TABLE_NAME_GROUPE,
-                TABLE_NAME_GROUPE, TABLE_NAME_TICKET,
-                TABLE_NAME_TICKET, TICKET_ID, ticketID,
-                TABLE_NAME_TICKET, TICKET_GROUP_ID, TABLE_NAME_GROUPE, GROUPE_ID
-        );
-
-        Statement statement = databaseConnection.createStatement();
-        ResultSet set = statement.executeQuery(query);
-        if (set.next()) {
-            final Long id = set.getLong(GROUPE_ID);
-            final String label = set.getString(GROUPE_LABEL);
-
-            return new Groupe(id, label);
+        final TicketOwner owner = ticketOwner(ticketID);
+
+        return owner == null ? null : getGroup(owner.groupID);
+    }
+
+    /**
+     * Journalise un ticket modifié, après avoir oublié le groupe partagé qui le contient :
+     * un client qui lit la nouvelle version du journal relit le groupe.
+     *
+     * @param ticketID - Le ticket
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    private void recordTicket(long ticketID) throws SQLException {
+        final TicketOwner owner = ticketOwner(ticketID);
+        if (owner != null) {
+            groupSnapshots.invalidate(owner.groupID);
         }
 
-        return null;
+        journal.recordTicket(ticketID);
+    }
+
+    /**
+     * @param ticketID - Le ticket
+     * @return - Son groupe et son créateur, null si le ticket n'existe pas
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    private TicketOwner ticketOwner(long ticketID) throws SQLException {
+        return ticketOwners.get(ticketID, id -> {
+            try (ConnectionPool.Lease lease = pool.borrow();
+                 Query query = lease.prepare(TICKET_BY_ID, id)) {
+
+                ResultSet set = query.executeQuery();
+                if (set.next()) {
+                    return new TicketOwner(set.getLong(TICKET_GROUP_ID), set.getLong(TICKET_UTILISATEUR_ID));
+                }
+
+                return null;
+            }
+        });
     }
 
 
@@ -1141,19 +1180,85 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Ticket getTicket(long ticketid) throws SQLException {
-        final Statement statement = databaseConnection.createStatement();
-        final String query = String.format(
-                "SELECT * FROM %s WHERE %s = '%s'",
-                TABLE_NAME_TICKET, TICKET_ID, ticketid
-        );
-
-        ResultSet set = statement.executeQuery(query);
-        TreeSet<Message> messages = getAllMessagesForGivenTicket(ticketid);
-        if (set.next()) {
-            return new Ticket(set.getLong(TICKET_ID), set.getString(TICKET_TITRE), messages);
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(TICKET_BY_ID, ticketid)) {
+
+            ResultSet set = query.executeQuery();
+            if (set.next()) {
+                return new Ticket(set.getLong(TICKET_ID), set.getString(TICKET_TITRE), getAllMessagesForGivenTicket(ticketid));
+            }
+
+            return null;
         }
+    }
 
-        return null;
+    /**
+     * En-tête d'un ticket, sans ses messages : la date de son dernier message et ses compteurs
+     *
+     * @param ticketid - L'id
+     * @return - L'en-tête si dispo sinon null
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    public Ticket getTicketHeader(long ticketid) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(TICKET_HEADER, ticketid)) {
+
+            ResultSet set = query.executeQuery();
+            if (!set.next()) {
+                return null;
+            }
+
+            MessageStates.Counters counters = new MessageStates.Counters();
+            for (Map.Entry<Long, MessageStates.State> entry : states.ofTicket(ticketid).entrySet()) {
+                receipts.mask(entry.getKey(), entry.getValue());
+                counters.count(entry.getValue());
+            }
+
+            final Timestamp lastActivity = set.getTimestamp(3);
+            return new Ticket(set.getLong(1), set.getString(2),
+                    lastActivity == null ? null : new Date(lastActivity.getTime()),
+                    counters.mUnread, counters.mUnreceived);
+        }
+    }
+
+    /**
+     * Une page de messages d'un ticket, du plus récent au plus ancien
+     *
+     * @param userID   - L'utilisateur qui la demande
+     * @param ticketid - L'id du ticket
+     * @param before   - Le curseur de la page précédente, null pour les messages les plus récents
+     * @return - La page, null si l'utilisateur ne peut pas voir le ticket
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    public MessagePage getMessagePage(long userID, long ticketid, Long before) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow()) {
+            try (Query query = lease.prepare(TICKET_IS_VISIBLE, ticketid, userID, userID)) {
+                if (!query.executeQuery().next()) {
+                    return null;
+                }
+            }
+
+            // Une ligne de plus pour savoir s'il reste des messages plus anciens
+            ArrayList<Message> rows = new ArrayList<>(MessagePage.SIZE + 1);
+            try (Query query = lease.prepare(MESSAGE_PAGE, ticketid, before == null ? Long.MAX_VALUE : before, MessagePage.SIZE + 1)) {
+                ResultSet set = query.executeQuery();
+                while (set.next()) {
+                    rows.add(new Message(set, null, null));
+                }
+            }
+
+            Long nextPage = null;
+            if (rows.size() > MessagePage.SIZE) {
+                rows.remove(MessagePage.SIZE);
+                nextPage = rows.get(MessagePage.SIZE - 1).getID();
+            }
+
+            ArrayList<Message> messages = rows.isEmpty() ? rows : withStates(rows, states.load(ETAT_MESSAGES_OF_PAGE,
+                    ticketid, rows.get(rows.size() - 1).getID(), rows.get(0).getID()));
+
+            Metrics.increment("database.pages");
+            return new MessagePage(ticketid, messages, nextPage);
+        }
     }
 
     /**
@@ -1164,18 +1269,7 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Groupe retrieveGroupForGivenID(Long id) throws SQLException {
-        final Statement statement = databaseConnection.createStatement();
-        final String query = String.format(
-                "SELECT * FROM %s WHERE %s = '%s'",
-                TABLE_NAME_GROUPE, GROUPE_ID, id
-        );
-
-        ResultSet set = statement.executeQuery(query);
-        if (set.next()) {
-            return new Groupe(id, set.getString(GROUPE_LABEL));
-        }
-
-        return null;
+        return getGroup(id);
     }
 
     /**
@@ -1186,64 +1280,34 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Long ticketCreator(Long ticketID) throws SQLException {
-        Statement statement = databaseConnection.createStatement();
-        final String query = String.format(
-                "SELECT DISTINCT %s.%s " +
-                        "FROM %s, %s " +
-                        "WHERE %s.%s = '%s' " +
-                        "AND %s.%s = %s.%s",
-                TABLE_NAME_UTILISATEUR, UTILISATEUR_ID,
-                TABLE_NAME_UTILISATEUR, TABLE_NAME_TICKET,
-                TABLE_NAME_TICKET, TICKET_ID, ticketID,
-                TABLE_NAME_TICKET, TICKET_UTILISATEUR_ID, TABLE_NAME_UTILISATEUR, UTILISATEUR_ID
-        );
-
-        ResultSet set = statement.executeQuery(query);
-        if (set.next()) {
-            return set.getLong(UTILISATEUR_ID);
-        }
+        final TicketOwner owner = ticketOwner(ticketID);
 
-        return 0L;
+        return owner == null ? 0L : owner.creatorID;
     }
 
     /**
-     * Mets tous les message d'un ticket à LU pour un utilisateur donné
+     * Mets tous les message d'un ticket à LU pour un utilisateur donné.
+     * Les états des messages sont modifiés plus tard par le {@link ReceiptBuffer}.
      *
      * @param ticketID - L'id du ticket
      * @param userID   - L'id de l'utilisateur
+     * @return - Les ids des messages qui viennent d'être lus
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public int setMessagesFromTicketRead(Long ticketID, Long userID) throws SQLException {
-
-        Statement statement = databaseConnection.createStatement();
-
-        final String query = String.format(
-                "SELECT DISTINCT %s.%s FROM %s, %s, %s " +
-                        "WHERE %s.%s = '%s' " +
-                        "AND %s.%s = %s.%s AND " +
-                        "%s.%s = '%s'",
-                TABLE_NAME_VU, VU_MESSAGE_ID, TABLE_NAME_VU, TABLE_NAME_UTILISATEUR, TABLE_NAME_MESSAGE,
-                TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, ticketID,
-                TABLE_NAME_VU, VU_MESSAGE_ID, TABLE_NAME_MESSAGE, MESSAGE_ID,
-                TABLE_NAME_VU, UTILISATEUR_ID, userID
-        );
-
-        ResultSet set = statement.executeQuery(query);
-        Statement other = databaseConnection.createStatement();
-        int result = 0;
-        while (set.next()) {
-            Long messageID = set.getLong(VU_MESSAGE_ID);
-            final String update = String.format(
-                    "DELETE FROM %s WHERE %s.%s = '%s' AND %s.%s = '%s'",
-                    TABLE_NAME_VU, TABLE_NAME_VU, VU_MESSAGE_ID, messageID,
-                    TABLE_NAME_VU, VU_UTILISATEUR_ID, userID
-            );
-
-            result += other.executeUpdate(update);
+    public ArrayList<Long> setMessagesFromTicketRead(Long ticketID, Long userID) throws SQLException {
+        ArrayList<Long> unread = new ArrayList<>();
+        for (Map.Entry<Long, MessageStates.State> entry : states.ofTicket(ticketID).entrySet()) {
+            if (entry.getValue().has(MessageStates.Kind.READ, userID)) {
+                unread.add(entry.getKey());
+            }
         }
 
-        return result;
+        final ArrayList<Long> read = receipts.add(MessageStates.Kind.READ, userID, unread);
+        if (!read.isEmpty()) {
+            recordTicket(ticketID);
+        }
 
+        return read;
     }
 
     /**
@@ -1253,20 +1317,18 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public TreeSet<Utilisateur> getAllUsers() throws SQLException {
-        final TreeSet<Utilisateur> users = new TreeSet<>();
-        final String query = String.format(
-                "SELECT * FROM %s",
-                TABLE_NAME_UTILISATEUR
-        );
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(ALL_USERS)) {
 
-        Statement statement = databaseConnection.createStatement();
-        ResultSet set = statement.executeQuery(query);
+            final TreeSet<Utilisateur> users = new TreeSet<>();
+            ResultSet set = query.executeQuery();
 
-        while (set.next()) {
-            users.add(new Utilisateur(set));
-        }
+            while (set.next()) {
+                users.add(new Utilisateur(set));
+            }
 
-        return users;
+            return users;
+        }
     }
 
     /**
@@ -1277,69 +1339,113 @@ public class DatabaseManager {
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
     public Ticket relatedMessageTicket(Long id) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(MESSAGE_TICKET, id)) {
+
+            ResultSet set = query.executeQuery();
+            if (set.next()) {
+                final long ticketid = set.getLong(TICKET_ID);
+                final String title = set.getString(TICKET_TITRE);
 
-        final String query = String.format(
-                "SELECT DISTINCT %s.* " +
-                        "FROM %s, %s " +
-                        "WHERE %s.%s = '%s' " +
-                        "AND %s.%s = %s.%s",
-                TABLE_NAME_TICKET,
-                TABLE_NAME_TICKET, TABLE_NAME_MESSAGE,
-                TABLE_NAME_MESSAGE, MESSAGE_ID, id,
-                TABLE_NAME_TICKET, TICKET_ID, TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID
-        );
-
-        ResultSet set = databaseConnection.createStatement().executeQuery(query);
-        if (set.next()) {
-            final long ticketid = set.getLong(TICKET_ID);
-            final String title = set.getString(TICKET_TITRE);
-
-            return new Ticket(ticketid, title, getAllMessagesForGivenTicket(ticketid));
+                return new Ticket(ticketid, title, getAllMessagesForGivenTicket(ticketid));
+            }
+
+            return null;
         }
+    }
 
-        return null;
+    /**
+     * Marque des messages comme reçus. Les états des messages sont modifiés plus tard par le {@link ReceiptBuffer}.
+     *
+     * @param messageIDs - Les ids des messages
+     * @param userID     - L'utilisateur qui les a reçus
+     * @return - Pour chaque ticket modifié, les ids de ses messages qui viennent d'être reçus
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    public TreeMap<Long, ArrayList<Long>> setMessagesReceived(Collection<Long> messageIDs, long userID) throws SQLException {
+        TreeMap<Long, ArrayList<Long>> changed = new TreeMap<>();
+        if (messageIDs.isEmpty()) {
+            return changed;
+        }
+
+        final HashMap<Long, Long> tickets = states.pending(MessageStates.Kind.RECEIVED, userID, messageIDs);
+        for (Long messageID : receipts.add(MessageStates.Kind.RECEIVED, userID, tickets.keySet())) {
+            changed.computeIfAbsent(tickets.get(messageID), k -> new ArrayList<>()).add(messageID);
+        }
+
+        for (Long ticketID : changed.keySet()) {
+            recordTicket(ticketID);
+        }
 
+        return changed;
     }
 
     /**
-     * Marque un message comme reçu
+     * Retourne des messages, avec qui doit encore les lire ou les recevoir,
+     * par lots de {@link Queries#IN_BATCH} ids
      *
-     * @param message - Le message en question
-     * @param user    - L'utilisateur en question
+     * @param ids - Les ids des messages
+     * @return - Ces messages dans l'ordre des id, sauf ceux qui n'existent plus
      * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
      */
-    public int setMessageReceived(Message message, Utilisateur user) throws SQLException {
+    public ArrayList<Message> getMessages(Collection<Long> ids) throws SQLException {
+        final ArrayList<Long> sorted = new ArrayList<>(new TreeSet<>(ids));
+        ArrayList<Message> rows = new ArrayList<>(sorted.size());
+        if (sorted.isEmpty()) {
+            return rows;
+        }
 
-        String request = String.format(
-                "DELETE FROM %s " +
-                        "WHERE %s.%s = '%s' " +
-                        "AND %s.%s = '%s'",
-                TABLE_NAME_RECU,
-                TABLE_NAME_RECU, RECU_MESSAGE_ID, message.getID(),
-                TABLE_NAME_RECU, RECU_UTILISATEUR_ID, user.getID()
-        );
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(MESSAGES_BATCH)) {
 
-        Statement statement = databaseConnection.createStatement();
-        return statement.executeUpdate(request);
+            for (int from = 0; from < sorted.size(); from += IN_BATCH) {
+                ResultSet set = query.bind(inParameters(sorted, from)).executeQuery();
+                while (set.next()) {
+                    rows.add(new Message(set, null, null));
+                }
+            }
+        }
 
+        return rows.isEmpty() ? rows : withStates(rows, states.ofMessages(sorted));
     }
 
     public Message getMessage(Long id) throws SQLException {
+        try (ConnectionPool.Lease lease = pool.borrow();
+             Query query = lease.prepare(MESSAGE_BY_ID, id)) {
 
-        final String query = String.format(
-                "SELECT * FROM %s WHERE %s.%s = '%s'",
-                TABLE_NAME_MESSAGE, TABLE_NAME_MESSAGE, MESSAGE_ID, id
-        );
+            ResultSet set = query.executeQuery();
 
-        Statement statement = databaseConnection.createStatement();
-        ResultSet set = statement.executeQuery(query);
+            if (set.next()) {
+                return newMessage(set);
+            }
 
-        if (set.next()) {
-            return new Message(set, getRemainingReadUsernames(id), getRemainingReceiveUsernames(id));
+            return null;
         }
+    }
 
-        return null;
+    /**
+     * Retourne l'utilisateur passé en paramètre si présent
+     *
+     * @param id - L'id de l'utilisateur
+     * @return - L'utilisateur si présent sinon null
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    public Utilisateur getUser(Long id) throws SQLException {
+        final Utilisateur user = users.get(id, key -> {
+            try (ConnectionPool.Lease lease = pool.borrow();
+                 Query query = lease.prepare(USER_BY_ID, key)) {
 
+                ResultSet set = query.executeQuery();
+
+                if (set.next()) {
+                    return new Utilisateur(set);
+                }
+
+                return null;
+            }
+        });
+
+        return user == null ? null : new Utilisateur(user.getID(), user.getNom(), user.getPrenom(), user.getINE(), user.getType());
     }
 
     /**
@@ -1349,20 +1455,20 @@ public class DatabaseManager {
      * @return - Le groupe si présent sinon null
      */
     public Groupe getGroup(Long id) throws SQLException {
+        final String label = groupLabels.get(id, key -> {
+            try (ConnectionPool.Lease lease = pool.borrow();
+                 Query query = lease.prepare(GROUP_BY_ID, key)) {
 
-        final String query = String.format(
-                "SELECT * FROM %s WHERE %s.%s = '%s'",
-                TABLE_NAME_GROUPE, TABLE_NAME_GROUPE, GROUPE_ID, id
-        );
+                ResultSet set = query.executeQuery();
 
-        Statement statement = databaseConnection.createStatement();
-        ResultSet set = statement.executeQuery(query);
-
-        if (set.next()) {
-            return new Groupe(set);
-        }
+                if (set.next()) {
+                    return set.getString(GROUPE_LABEL);
+                }
 
-        return null;
+                return null;
+            }
+        });
 
+        return label == null ? null : new Groupe(id, label);
     }
 }
@@ -0,0 +1,89 @@
+package backend.database;
+
+import debug.Metrics;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache en lecture d'entrées de la base, les moins utilisées sont oubliées au delà de {@link #SIZE}.
+ * Une entrée absente de la base n'est pas gardée.
+ * <p>
+ * Les valeurs gardées ne doivent pas être modifiées : DatabaseManager construit un nouvel objet
+ * à chaque lecture. Toute écriture sur une entrée doit l'invalider, une lecture commencée avant
+ * l'invalidation ne remet pas l'ancienne valeur dans le cache.
+ *
+ * @param <K> - La clé, en général l'id
+ * @param <V> - La valeur gardée
+ */
+final class EntityCache<K, V> {
+
+    /**
+     * Nombre d'entrées gardées par cache
+     */
+    static final int SIZE = Integer.getInteger("database.entityCache", 1024);
+
+    interface Loader<K, V> {
+        /**
+         * @return - La valeur lue dans la base, null si absente
+         */
+        V load(K key) throws SQLException;
+    }
+
+    private final String mName;
+    private final LinkedHashMap<K, V> mEntries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > SIZE;
+        }
+    };
+    // Incrémenté à chaque invalidation
+    private long mGeneration = 0;
+
+    /**
+     * @param name - Nom des compteurs, database.cache.name.hit et .miss
+     */
+    EntityCache(String name) {
+        mName = "database.cache." + name;
+    }
+
+    /**
+     * @param key    - La clé
+     * @param loader - Lecture dans la base si la clé n'est pas dans le cache
+     * @return - La valeur, null si absente de la base
+     * @throws SQLException - Peut être lancée par loader
+     */
+    V get(K key, Loader<K, V> loader) throws SQLException {
+        final long generation;
+        synchronized (this) {
+            V value = mEntries.get(key);
+            if (value != null) {
+                Metrics.increment(mName + ".hit");
+                return value;
+            }
+            generation = mGeneration;
+        }
+
+        Metrics.increment(mName + ".miss");
+        V value = loader.load(key);
+
+        synchronized (this) {
+            if (value != null && generation == mGeneration) {
+                mEntries.put(key, value);
+            }
+        }
+
+        return value;
+    }
+
+    synchronized void invalidate(K key) {
+        mGeneration++;
+        mEntries.remove(key);
+    }
+
+    synchronized void clear() {
+        mGeneration++;
+        mEntries.clear();
+    }
+}
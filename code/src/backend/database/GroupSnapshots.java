@@ -0,0 +1,167 @@
+package backend.database;
+
+import backend.data.EncodedEntry;
+import backend.data.Groupe;
+import backend.data.Ticket;
+import debug.Metrics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Groupes tels que les voient tous leurs membres : le groupe et les en-têtes de tous ses tickets,
+ * avec leur JSON déjà encodé. Les mises à jour complètes des membres d'un groupe partagent le même
+ * objet et le même texte, le groupe n'est relu dans la base qu'après une modification.
+ * <p>
+ * Toute écriture sur un ticket du groupe (ticket, message, lu, reçu) doit l'invalider avant d'être
+ * journalisée : un client qui lit la nouvelle version du journal ne trouve plus l'ancien groupe.
+ * Un groupe demandé pendant sa lecture attend cette lecture au lieu d'en lancer une autre,
+ * une lecture commencée avant une invalidation n'est pas gardée.
+ */
+final class GroupSnapshots {
+
+    /**
+     * Nombre de groupes gardés
+     */
+    static final int SIZE = Integer.getInteger("database.groupSnapshots", 256);
+
+    /**
+     * Groupe partagé entre plusieurs réponses : il ne doit pas être modifié.
+     * Ses encodages sont recopiés tels quels dans les messages.
+     */
+    static final class Snapshot extends Groupe implements EncodedEntry {
+
+        private final String mJSON;
+        private volatile byte[] mBinary;
+
+        /**
+         * @param id      - L'id du groupe
+         * @param label   - Son nom
+         * @param tickets - Les en-têtes de tous ses tickets
+         */
+        Snapshot(long id, String label, TreeSet<Ticket> tickets) {
+            super(id, label, tickets);
+            mJSON = toJSON().toString();
+        }
+
+        @Override
+        public String toJSONString() {
+            return mJSON;
+        }
+
+        @Override
+        public byte[] getBinary() {
+            return mBinary;
+        }
+
+        @Override
+        public void setBinary(byte[] binary) {
+            mBinary = binary;
+        }
+    }
+
+    interface Loader {
+        /**
+         * @param groups - Les groupes à lire, sans leurs tickets
+         * @return - Chacun de ces groupes avec ses tickets, par id
+         */
+        HashMap<Long, Snapshot> load(List<Groupe> groups) throws SQLException;
+    }
+
+    private final LinkedHashMap<Long, CompletableFuture<Snapshot>> mEntries =
+            new LinkedHashMap<Long, CompletableFuture<Snapshot>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CompletableFuture<Snapshot>> eldest) {
+                    return size() > SIZE;
+                }
+            };
+
+    /**
+     * @param groups - Des groupes, sans leurs tickets
+     * @param loader - Lecture dans la base de ceux qui ne sont ni gardés ni en cours de lecture
+     * @return - Chacun de ces groupes avec ses tickets
+     * @throws SQLException - Peut être lancée par loader, y compris celui d'un autre thread dont la lecture est attendue
+     */
+    ArrayList<Snapshot> get(List<Groupe> groups, Loader loader) throws SQLException {
+        ArrayList<CompletableFuture<Snapshot>> entries = new ArrayList<>(groups.size());
+        ArrayList<Groupe> missing = new ArrayList<>();
+        HashMap<Long, CompletableFuture<Snapshot>> claimed = new HashMap<>();
+
+        synchronized (this) {
+            for (Groupe groupe : groups) {
+                CompletableFuture<Snapshot> entry = mEntries.get(groupe.getID());
+                if (entry == null) {
+                    entry = new CompletableFuture<>();
+                    mEntries.put(groupe.getID(), entry);
+                    claimed.put(groupe.getID(), entry);
+                    missing.add(groupe);
+                }
+
+                entries.add(entry);
+            }
+        }
+
+        Metrics.add("database.snapshot.hit", groups.size() - missing.size());
+        Metrics.add("database.snapshot.miss", missing.size());
+
+        if (!missing.isEmpty()) {
+            try {
+                HashMap<Long, Snapshot> loaded = loader.load(missing);
+                for (Groupe groupe : missing) {
+                    final CompletableFuture<Snapshot> entry = claimed.get(groupe.getID());
+                    final Snapshot snapshot = loaded.get(groupe.getID());
+                    if (snapshot == null) {
+                        // Supprimé depuis, il n'est pas gardé
+                        synchronized (this) {
+                            mEntries.remove(groupe.getID(), entry);
+                        }
+                    }
+                    entry.complete(snapshot);
+                }
+            } catch (SQLException | RuntimeException e) {
+                synchronized (this) {
+                    for (Map.Entry<Long, CompletableFuture<Snapshot>> entry : claimed.entrySet()) {
+                        mEntries.remove(entry.getKey(), entry.getValue());
+                    }
+                }
+
+                for (CompletableFuture<Snapshot> entry : claimed.values()) {
+                    entry.completeExceptionally(e);
+                }
+                throw e;
+            }
+        }
+
+        ArrayList<Snapshot> snapshots = new ArrayList<>(entries.size());
+        for (CompletableFuture<Snapshot> entry : entries) {
+            try {
+                final Snapshot snapshot = entry.join();
+                if (snapshot != null) {
+                    snapshots.add(snapshot);
+                }
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        return snapshots;
+    }
+
+    synchronized void invalidate(long groupID) {
+        mEntries.remove(groupID);
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,290 @@
+package backend.database;
+
+import debug.Debugger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+import static backend.database.Keys.*;
+
+/**
+ * Journal des modifications visibles par les clients.
+ * L'identifiant croissant de chaque ligne sert de version : un client qui
+ * connait la version de ses données ne récupère que ce qui a changé depuis.
+ * <p>
+ * Un ticket est journalisé en entier dès qu'un de ses messages change (ajout, suppression, lu, reçu).
+ * Une suppression garde l'entrée supprimée au format JSON pour être rejouée chez le client.
+ * Une ligne APPARTENIR signale que les groupes d'un utilisateur ont changé.
+ * <p>
+ * Les versions sont tirées de la ligne unique de JOURNAL_SEQUENCE, verrouillée par la base
+ * jusqu'à la validation de la ligne du journal : les lignes sont validées dans l'ordre
+ * de leurs versions sans verrou dans le serveur.
+ */
+class Journal {
+
+    /**
+     * Nombre de lignes gardées au démarrage, un client plus ancien refait une mise à jour complète.
+     */
+    static final long RETENTION = Long.getLong("database.journalRetention", 100000L);
+
+    private static final String CREATE_TABLE = String.format(
+            "CREATE TABLE IF NOT EXISTS %s (" +
+                    "%s BIGINT NOT NULL AUTO_INCREMENT, " +
+                    "%s VARCHAR(20) NOT NULL, " +
+                    "%s INT NOT NULL, " +
+                    "%s INT NULL, " +
+                    "%s INT NULL, " +
+                    "%s LONGTEXT NULL, " +
+                    "PRIMARY KEY(%s))",
+            TABLE_NAME_JOURNAL,
+            JOURNAL_ID, JOURNAL_TABLE, JOURNAL_ENTREE_ID, JOURNAL_GROUPE_ID, JOURNAL_UTILISATEUR_ID, JOURNAL_SUPPRESSION,
+            JOURNAL_ID
+    );
+
+    private static final String CREATE_SEQUENCE = String.format(
+            "CREATE TABLE IF NOT EXISTS %s (%s BIGINT NOT NULL)",
+            TABLE_NAME_JOURNAL_SEQUENCE, JOURNAL_SEQUENCE_VERSION
+    );
+
+    /**
+     * Crée la ligne de la séquence si elle n'existe pas, à partir de la dernière version du journal
+     */
+    private static final String INIT_SEQUENCE = String.format(
+            "INSERT INTO %s (%s) SELECT COALESCE(MAX(%s), 0) FROM %s " +
+                    "WHERE NOT EXISTS (SELECT * FROM %s)",
+            TABLE_NAME_JOURNAL_SEQUENCE, JOURNAL_SEQUENCE_VERSION, JOURNAL_ID, TABLE_NAME_JOURNAL,
+            TABLE_NAME_JOURNAL_SEQUENCE
+    );
+
+    /**
+     * Prend la version suivante, lue ensuite par LAST_INSERT_ID() sur la même connexion.
+     * La ligne reste verrouillée jusqu'à la fin de la transaction.
+     */
+    private static final String NEXT_VERSION = String.format(
+            "UPDATE %s SET %s = LAST_INSERT_ID(%s + 1)",
+            TABLE_NAME_JOURNAL_SEQUENCE, JOURNAL_SEQUENCE_VERSION, JOURNAL_SEQUENCE_VERSION
+    );
+
+    private static final String MAX_VERSION = String.format(
+            "SELECT MAX(%s) FROM %s", JOURNAL_ID, TABLE_NAME_JOURNAL
+    );
+
+    private static final String MIN_VERSION = String.format(
+            "SELECT MIN(%s) FROM %s", JOURNAL_ID, TABLE_NAME_JOURNAL
+    );
+
+    /**
+     * version la plus ancienne gardée
+     */
+    private static final String PRUNE = String.format(
+            "DELETE FROM %s WHERE %s <= ?", TABLE_NAME_JOURNAL, JOURNAL_ID
+    );
+
+    /**
+     * id du ticket
+     */
+    private static final String INSERT_TICKET = String.format(
+            "INSERT INTO %s (%s, %s, %s, %s, %s) " +
+                    "SELECT LAST_INSERT_ID(), '%s', %s, %s, %s FROM %s WHERE %s = ?",
+            TABLE_NAME_JOURNAL, JOURNAL_ID, JOURNAL_TABLE, JOURNAL_ENTREE_ID, JOURNAL_GROUPE_ID, JOURNAL_UTILISATEUR_ID,
+            TABLE_NAME_TICKET, TICKET_ID, TICKET_GROUP_ID, TICKET_UTILISATEUR_ID, TABLE_NAME_TICKET,
+            TICKET_ID
+    );
+
+    /**
+     * table, id de l'entrée, id du groupe, id du créateur, entrée supprimée
+     */
+    private static final String INSERT = String.format(
+            "INSERT INTO %s (%s, %s, %s, %s, %s, %s) VALUES (LAST_INSERT_ID(), ?, ?, ?, ?, ?)",
+            TABLE_NAME_JOURNAL, JOURNAL_ID, JOURNAL_TABLE, JOURNAL_ENTREE_ID, JOURNAL_GROUPE_ID, JOURNAL_UTILISATEUR_ID, JOURNAL_SUPPRESSION
+    );
+
+    /**
+     * version exclue, version incluse, puis l'id de l'utilisateur trois fois
+     */
+    private static final String ENTRIES_SINCE = String.format(
+            "SELECT * FROM %s " +
+                    "WHERE %s > ? AND %s <= ? " +
+                    "AND (%s IN ('%s', '%s') " +
+                    "OR (%s = '%s' AND %s = ?) " +
+                    "OR (%s = '%s' AND (%s = ? OR %s IN (SELECT %s FROM %s WHERE %s = ?)))) " +
+                    "ORDER BY %s",
+            TABLE_NAME_JOURNAL,
+            JOURNAL_ID, JOURNAL_ID,
+            JOURNAL_TABLE, TABLE_NAME_GROUPE, TABLE_NAME_UTILISATEUR,
+            JOURNAL_TABLE, TABLE_NAME_APPARTENIR, JOURNAL_ENTREE_ID,
+            JOURNAL_TABLE, TABLE_NAME_TICKET, JOURNAL_UTILISATEUR_ID, JOURNAL_GROUPE_ID,
+            APPARTENIR_GROUPE_ID, TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID,
+            JOURNAL_ID
+    );
+
+    private final ConnectionPool mPool;
+
+    /**
+     * @param pool - Le pool du DatabaseManager
+     */
+    Journal(ConnectionPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Crée la table si besoin, y compris sur une base créée avant le journal,
+     * puis ne garde que les {@link #RETENTION} dernières lignes.
+     *
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    void init() throws SQLException {
+        try (ConnectionPool.Lease lease = mPool.borrow()) {
+            try (Query query = lease.prepare(CREATE_TABLE)) {
+                query.executeUpdate();
+            }
+            try (Query query = lease.prepare(CREATE_SEQUENCE)) {
+                query.executeUpdate();
+            }
+            try (Query query = lease.prepare(INIT_SEQUENCE)) {
+                query.executeUpdate();
+            }
+
+            final long version = currentVersion();
+            if (version > RETENTION) {
+                try (Query query = lease.prepare(PRUNE, version - RETENTION)) {
+                    Debugger.logMessage("Journal", query.executeUpdate() + " old entries pruned");
+                }
+            }
+        }
+    }
+
+    /**
+     * @return - La version courante, 0 si le journal est vide
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    long currentVersion() throws SQLException {
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(MAX_VERSION)) {
+            ResultSet set = query.executeQuery();
+
+            return set.next() ? set.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * @param from    - La version du client
+     * @param version - La version courante
+     * @return - Si toutes les modifications depuis from sont encore dans le journal
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    boolean covers(long from, long version) throws SQLException {
+        if (from <= 0 || from > version) {
+            // Premier chargement, ou base remise à zéro depuis
+            return false;
+        }
+
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(MIN_VERSION)) {
+            ResultSet set = query.executeQuery();
+
+            return set.next() && set.getLong(1) <= from + 1;
+        }
+    }
+
+    /**
+     * Journalise un ticket existant, avec son groupe et son créateur.
+     *
+     * @param ticketID - L'id du ticket
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    void recordTicket(long ticketID) throws SQLException {
+        insert(INSERT_TICKET, ticketID);
+    }
+
+    /**
+     * Ajoute une ligne au journal.
+     *
+     * @param table        - La table modifiée
+     * @param entryID      - L'id de l'entrée
+     * @param groupID      - Le groupe concerné, null si aucun
+     * @param userID       - Le créateur de l'entrée, null si aucun
+     * @param deletedEntry - L'entrée supprimée au format JSON, null si ce n'est pas une suppression
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    void record(String table, long entryID, Long groupID, Long userID, String deletedEntry) throws SQLException {
+        insert(INSERT, table, entryID, groupID, userID, deletedEntry);
+    }
+
+    /**
+     * Ajoute une ligne avec la version suivante, dans la même transaction que la prise de version :
+     * sur des connexions différentes, une ligne validée avant une autre de version plus petite
+     * ferait manquer cette dernière au client qui lirait la version entre les deux.
+     */
+    private void insert(String sql, Object... params) throws SQLException {
+        try (ConnectionPool.Lease lease = mPool.borrow()) {
+            final Connection connection = lease.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                try (Query query = lease.prepare(NEXT_VERSION)) {
+                    query.executeUpdate();
+                }
+                try (Query query = lease.prepare(sql, params)) {
+                    query.executeUpdate();
+                }
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Retourne les lignes qui concernent un utilisateur, dans l'ordre du journal :
+     * les groupes et utilisateurs, ses propres groupes, et les tickets de ses groupes ou qu'il a créés.
+     *
+     * @param from   - La version du client, exclue
+     * @param to     - La version courante, incluse
+     * @param userID - L'utilisateur
+     * @return - Les lignes du journal
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    ArrayList<Entry> entriesSince(long from, long to, long userID) throws SQLException {
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(ENTRIES_SINCE, from, to, userID, userID, userID)) {
+            ResultSet set = query.executeQuery();
+
+            ArrayList<Entry> entries = new ArrayList<>();
+            while (set.next()) {
+                entries.add(new Entry(
+                        set.getString(JOURNAL_TABLE),
+                        set.getLong(JOURNAL_ENTREE_ID),
+                        set.getString(JOURNAL_SUPPRESSION)
+                ));
+            }
+
+            return entries;
+        }
+    }
+
+    /**
+     * Une ligne du journal
+     */
+    static class Entry {
+        final String table;
+        final long entryID;
+        // null si l'entrée n'a pas été supprimée
+        final String deletedEntry;
+
+        Entry(String table, long entryID, String deletedEntry) {
+            this.table = table;
+            this.entryID = entryID;
+            this.deletedEntry = deletedEntry;
+        }
+
+        boolean isDeletion() {
+            return deletedEntry != null;
+        }
+    }
+}
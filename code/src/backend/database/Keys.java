@@ -40,4 +40,29 @@ public class Keys {
     public static final String TABLE_NAME_RECU = "RECU";
     public static final String RECU_MESSAGE_ID = "id_message";
     public static final String RECU_UTILISATEUR_ID = "id_util";
+
+    public static final String TABLE_NAME_ETAT_MESSAGE = "ETAT_MESSAGE";
+    public static final String ETAT_MESSAGE_ID = "id_message";
+    public static final String ETAT_MESSAGE_A_LIRE = "a_lire";
+    public static final String ETAT_MESSAGE_NB_A_LIRE = "nb_a_lire";
+    public static final String ETAT_MESSAGE_A_RECEVOIR = "a_recevoir";
+    public static final String ETAT_MESSAGE_NB_A_RECEVOIR = "nb_a_recevoir";
+
+    public static final String TABLE_NAME_ETAT_MESSAGE_BITSET = "ETAT_MESSAGE_BITSET";
+
+    public static final String TABLE_NAME_JOURNAL = "JOURNAL";
+    public static final String JOURNAL_ID = "id_journal";
+    public static final String JOURNAL_TABLE = "nom_table";
+    public static final String JOURNAL_ENTREE_ID = "id_entree";
+    public static final String JOURNAL_GROUPE_ID = "id_groupe";
+    public static final String JOURNAL_UTILISATEUR_ID = "id_util";
+    public static final String JOURNAL_SUPPRESSION = "entree_supprimee";
+
+    public static final String TABLE_NAME_JOURNAL_SEQUENCE = "JOURNAL_SEQUENCE";
+    public static final String JOURNAL_SEQUENCE_VERSION = "version";
+
+    public static final String TABLE_NAME_SCHEMA_VERSION = "SCHEMA_VERSION";
+    public static final String SCHEMA_VERSION_ID = "version";
+    public static final String SCHEMA_VERSION_SCRIPT = "script";
+    public static final String SCHEMA_VERSION_DATE = "date_application";
 }
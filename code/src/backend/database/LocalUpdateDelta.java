@@ -0,0 +1,105 @@
+package backend.database;
+
+import backend.data.Groupe;
+import backend.data.Utilisateur;
+
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Ce qui a changé pour un utilisateur depuis la version de ses données locales.
+ * Les tickets modifiés sont rangés dans leur groupe, les suppressions
+ * sont les entrées telles qu'elles étaient au moment de leur suppression.
+ */
+public class LocalUpdateDelta {
+
+    private final long mVersion;
+    private final TreeMap<Long, Groupe> mGroups = new TreeMap<>();
+    private final TreeSet<Utilisateur> mUsers = new TreeSet<>();
+    private final ArrayList<Deletion> mDeletions = new ArrayList<>();
+    private TreeSet<String> mAllGroups;
+
+    /**
+     * @param version - La version des données une fois le delta appliqué
+     */
+    LocalUpdateDelta(long version) {
+        mVersion = version;
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return - Les groupes modifiés ou contenant des tickets modifiés, avec seulement ces tickets
+     */
+    public TreeSet<Groupe> getGroups() {
+        return new TreeSet<>(mGroups.values());
+    }
+
+    /**
+     * @return - Les utilisateurs ajoutés ou modifiés
+     */
+    public TreeSet<Utilisateur> getUsers() {
+        return mUsers;
+    }
+
+    /**
+     * @return - Les entrées supprimées, dans l'ordre du journal
+     */
+    public ArrayList<Deletion> getDeletions() {
+        return mDeletions;
+    }
+
+    /**
+     * @return - Les noms de tous les groupes, null si aucun groupe n'a changé
+     */
+    public TreeSet<String> getAllGroups() {
+        return mAllGroups;
+    }
+
+    void setAllGroups(TreeSet<String> allGroups) {
+        mAllGroups = allGroups;
+    }
+
+    /**
+     * @param groupe - Le groupe, ajouté s'il n'est pas déjà présent
+     * @return - Le groupe du delta qui a le même id
+     */
+    Groupe addGroup(Groupe groupe) {
+        return mGroups.computeIfAbsent(groupe.getID(), id -> groupe);
+    }
+
+    void addUser(Utilisateur user) {
+        mUsers.add(user);
+    }
+
+    void addDeletion(String table, String entry) {
+        mDeletions.add(new Deletion(table, entry));
+    }
+
+    /**
+     * Une entrée supprimée
+     */
+    public static class Deletion {
+        private final String mTable;
+        private final String mEntry;
+
+        Deletion(String table, String entry) {
+            mTable = table;
+            mEntry = entry;
+        }
+
+        public String getTable() {
+            return mTable;
+        }
+
+        /**
+         * @return - L'entrée au format JSON
+         */
+        public String getEntry() {
+            return mEntry;
+        }
+    }
+}
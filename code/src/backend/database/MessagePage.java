@@ -0,0 +1,47 @@
+package backend.database;
+
+import backend.data.Message;
+
+import java.util.ArrayList;
+
+/**
+ * Une page de messages d'un ticket, du plus récent au plus ancien.
+ * La page suivante contient les messages plus anciens que son curseur.
+ */
+public class MessagePage {
+
+    /**
+     * Nombre de messages par page
+     */
+    public static final int SIZE = Integer.getInteger("database.messagePage", 50);
+
+    private final long mTicketID;
+    private final ArrayList<Message> mMessages;
+    private final Long mNextPage;
+
+    /**
+     * @param ticketID - Le ticket
+     * @param messages - Ses messages, du plus récent au plus ancien
+     * @param nextPage - Le curseur de la page suivante, null si c'est la dernière
+     */
+    MessagePage(long ticketID, ArrayList<Message> messages, Long nextPage) {
+        mTicketID = ticketID;
+        mMessages = messages;
+        mNextPage = nextPage;
+    }
+
+    public long getTicketID() {
+        return mTicketID;
+    }
+
+    public ArrayList<Message> getMessages() {
+        return mMessages;
+    }
+
+    /**
+     * @return - Le curseur à envoyer pour la page suivante, null s'il n'y a pas de message plus ancien
+     */
+    public Long getNextPage() {
+        return mNextPage;
+    }
+}
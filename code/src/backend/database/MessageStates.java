@@ -0,0 +1,553 @@
+package backend.database;
+
+import debug.Debugger;
+import debug.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static backend.database.Keys.*;
+import static backend.database.Queries.*;
+
+/**
+ * Qui doit encore lire ou recevoir chaque message, en une ligne de ETAT_MESSAGE par message :
+ * les ids triés des utilisateurs en attente, chacun codé par son écart au précédent en varint,
+ * avec leur nombre à côté. La taille d'un état suit celle du groupe, pas la valeur des ids.
+ * Un message posté dans un groupe de n membres écrit une ligne au lieu de 2n lignes dans VU et RECU,
+ * et un accusé modifie cette ligne sur place.
+ * <p>
+ * Un message sans ligne n'attend plus personne.
+ */
+class MessageStates {
+
+    enum Kind {
+        READ(ETAT_MESSAGE_A_LIRE),
+        RECEIVED(ETAT_MESSAGE_A_RECEVOIR);
+
+        private final String mColumn;
+
+        Kind(String column) {
+            mColumn = column;
+        }
+    }
+
+    /**
+     * Les utilisateurs en attente d'un message
+     */
+    static final class State {
+        private final TreeSet<Long> mToRead;
+        private final TreeSet<Long> mToReceive;
+
+        State() {
+            this(new TreeSet<>(), new TreeSet<>());
+        }
+
+        private State(TreeSet<Long> toRead, TreeSet<Long> toReceive) {
+            mToRead = toRead;
+            mToReceive = toReceive;
+        }
+
+        /**
+         * @param set - Une ligne de ETAT_MESSAGE
+         */
+        State(ResultSet set) throws SQLException {
+            this(decode(set.getBytes(Kind.READ.mColumn)), decode(set.getBytes(Kind.RECEIVED.mColumn)));
+        }
+
+        TreeSet<Long> get(Kind kind) {
+            return kind == Kind.READ ? mToRead : mToReceive;
+        }
+
+        /**
+         * @param kind   - Lu ou reçu
+         * @param userID - L'utilisateur
+         * @return - Vrai s'il doit encore lire ou recevoir ce message
+         */
+        boolean has(Kind kind, long userID) {
+            return get(kind).contains(userID);
+        }
+
+        void set(Kind kind, long userID) {
+            get(kind).add(userID);
+        }
+
+        /**
+         * Retire les utilisateurs de other
+         */
+        void andNot(State other) {
+            mToRead.removeAll(other.mToRead);
+            mToReceive.removeAll(other.mToReceive);
+        }
+
+        /**
+         * Ajoute les utilisateurs de other
+         */
+        void or(State other) {
+            mToRead.addAll(other.mToRead);
+            mToReceive.addAll(other.mToReceive);
+        }
+
+        /**
+         * @return - Le nombre de couples (utilisateur, lu ou reçu)
+         */
+        int cardinality() {
+            return mToRead.size() + mToReceive.size();
+        }
+
+        /**
+         * @param names - Nom et prénom par id, voir {@link #names(Collection)}
+         * @return - Nom et prénom des utilisateurs en attente, dans l'ordre de leurs ids
+         */
+        ArrayList<String> usernames(Kind kind, Map<Long, String> names) {
+            final TreeSet<Long> users = get(kind);
+            ArrayList<String> result = new ArrayList<>(users.size());
+            for (Long id : users) {
+                final String name = names.get(id);
+                if (name != null) {
+                    result.add(name);
+                }
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Compteurs d'un ticket : ses messages que quelqu'un doit encore lire ou recevoir,
+     * et ceux que quelqu'un doit encore recevoir
+     */
+    static final class Counters {
+        int mUnread = 0;
+        int mUnreceived = 0;
+
+        void count(State state) {
+            if (!state.mToReceive.isEmpty()) {
+                ++mUnread;
+                ++mUnreceived;
+            } else if (!state.mToRead.isEmpty()) {
+                ++mUnread;
+            }
+        }
+    }
+
+    private final ConnectionPool mPool;
+
+    /**
+     * @param pool - Le pool du DatabaseManager
+     */
+    MessageStates(ConnectionPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * @param ids - Des ids positifs
+     * @return - Leurs écarts successifs en varint, 7 bits par octet
+     */
+    static byte[] encode(TreeSet<Long> ids) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(ids.size() * 2);
+        long previous = 0;
+        for (long id : ids) {
+            long gap = id - previous;
+            previous = id;
+            while ((gap & ~0x7FL) != 0) {
+                out.write((int) (gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            out.write((int) gap);
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * @param bytes - Une colonne encodée par {@link #encode(TreeSet)}, peut être null
+     * @return - Les ids
+     */
+    static TreeSet<Long> decode(byte[] bytes) {
+        TreeSet<Long> ids = new TreeSet<>();
+        if (bytes == null) {
+            return ids;
+        }
+
+        long previous = 0;
+        long gap = 0;
+        int shift = 0;
+        for (byte b : bytes) {
+            gap |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) != 0) {
+                shift += 7;
+                continue;
+            }
+
+            previous += gap;
+            ids.add(previous);
+            gap = 0;
+            shift = 0;
+        }
+
+        return ids;
+    }
+
+    /**
+     * Insère l'état d'un nouveau message : tous les membres du groupe du ticket doivent le lire et le recevoir
+     *
+     * @param messageID - Le message
+     * @param ticketID  - Son ticket
+     * @return - L'état inséré
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    State insert(long messageID, long ticketID) throws SQLException {
+        try (ConnectionPool.Lease lease = mPool.borrow()) {
+            State state = new State();
+            try (Query query = lease.prepare(TICKET_MEMBERS, ticketID)) {
+                ResultSet set = query.executeQuery();
+                while (set.next()) {
+                    state.set(Kind.READ, set.getLong(1));
+                    state.set(Kind.RECEIVED, set.getLong(1));
+                }
+            }
+
+            try (Query query = lease.prepare(INSERT_ETAT_MESSAGE, messageID,
+                    encode(state.mToRead), state.mToRead.size(),
+                    encode(state.mToReceive), state.mToReceive.size())) {
+                query.executeUpdate();
+            }
+
+            return state;
+        }
+    }
+
+    /**
+     * @param messageID - Le message
+     * @return - Son état, vide s'il n'attend plus personne
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    State get(long messageID) throws SQLException {
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(ETAT_MESSAGE_BY_ID, messageID)) {
+
+            ResultSet set = query.executeQuery();
+            return set.next() ? new State(set) : new State();
+        }
+    }
+
+    /**
+     * @param ticketID - Le ticket
+     * @return - L'état de chacun de ses messages qui attend encore quelqu'un
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    HashMap<Long, State> ofTicket(long ticketID) throws SQLException {
+        return load(ETAT_MESSAGES_OF_TICKET, ticketID);
+    }
+
+    /**
+     * @param messageIDs - Des messages
+     * @return - L'état de chacun d'eux qui en a un
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    HashMap<Long, State> ofMessages(Collection<Long> messageIDs) throws SQLException {
+        HashMap<Long, State> states = new HashMap<>();
+        final ArrayList<Long> ids = new ArrayList<>(new TreeSet<>(messageIDs));
+
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(ETAT_MESSAGES_BATCH)) {
+
+            for (int from = 0; from < ids.size(); from += IN_BATCH) {
+                ResultSet set = query.bind(inParameters(ids, from)).executeQuery();
+                while (set.next()) {
+                    states.put(set.getLong(ETAT_MESSAGE_ID), new State(set));
+                }
+            }
+        }
+
+        return states;
+    }
+
+    /**
+     * @param sql    - Une requête qui renvoie des lignes de ETAT_MESSAGE
+     * @param params - Ses paramètres
+     * @return - Les états par id de message
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    HashMap<Long, State> load(String sql, Object... params) throws SQLException {
+        HashMap<Long, State> states = new HashMap<>();
+
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(sql, params).streamed()) {
+
+            ResultSet set = query.executeQuery();
+            while (set.next()) {
+                states.put(set.getLong(ETAT_MESSAGE_ID), new State(set));
+            }
+        }
+
+        return states;
+    }
+
+    /**
+     * @param kind       - Lu ou reçu
+     * @param userID     - L'utilisateur
+     * @param messageIDs - Les messages
+     * @return - Le ticket de chacun de ces messages que l'utilisateur n'a pas encore lu ou reçu
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    HashMap<Long, Long> pending(Kind kind, long userID, Collection<Long> messageIDs) throws SQLException {
+        HashMap<Long, Long> tickets = new HashMap<>();
+        final ArrayList<Long> ids = new ArrayList<>(new TreeSet<>(messageIDs));
+
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(ETAT_MESSAGES_BATCH)) {
+
+            for (int from = 0; from < ids.size(); from += IN_BATCH) {
+                ResultSet set = query.bind(inParameters(ids, from)).executeQuery();
+                while (set.next()) {
+                    if (new State(set).has(kind, userID)) {
+                        tickets.put(set.getLong(ETAT_MESSAGE_ID), set.getLong(MESSAGE_TICKET_ID));
+                    }
+                }
+            }
+        }
+
+        return tickets;
+    }
+
+    /**
+     * Parcourt tous les états qui attendent encore quelqu'un, à réserver aux opérations rares
+     *
+     * @param userID - L'utilisateur
+     * @return - Le ticket de chaque message que l'utilisateur doit encore lire ou recevoir
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    HashMap<Long, Long> pendingFor(long userID) throws SQLException {
+        HashMap<Long, Long> tickets = new HashMap<>();
+
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(PENDING_ETAT_MESSAGES).streamed()) {
+
+            ResultSet set = query.executeQuery();
+            while (set.next()) {
+                State state = new State(set);
+                if (state.has(Kind.READ, userID) || state.has(Kind.RECEIVED, userID)) {
+                    tickets.put(set.getLong(ETAT_MESSAGE_ID), set.getLong(MESSAGE_TICKET_ID));
+                }
+            }
+        }
+
+        return tickets;
+    }
+
+    /**
+     * Retire des utilisateurs des états, en une transaction.
+     * Chaque état est verrouillé entre sa lecture et son écriture.
+     *
+     * @param cleared - Par message, les utilisateurs qui ont lu ou reçu
+     * @return - Le nombre d'états modifiés
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête, rien n'est modifié
+     */
+    int clear(Map<Long, State> cleared) throws SQLException {
+        if (cleared.isEmpty()) {
+            return 0;
+        }
+
+        final ArrayList<Long> ids = new ArrayList<>(new TreeSet<>(cleared.keySet()));
+        int updated = 0;
+
+        try (ConnectionPool.Lease lease = mPool.borrow()) {
+            final Connection connection = lease.getConnection();
+            connection.setAutoCommit(false);
+            try (Query select = lease.prepare(ETAT_MESSAGES_BATCH_FOR_UPDATE);
+                 Query update = lease.prepare(UPDATE_ETAT_MESSAGE)) {
+
+                for (int from = 0; from < ids.size(); from += IN_BATCH) {
+                    HashMap<Long, State> current = new HashMap<>();
+                    ResultSet set = select.bind(inParameters(ids, from)).executeQuery();
+                    while (set.next()) {
+                        current.put(set.getLong(ETAT_MESSAGE_ID), new State(set));
+                    }
+
+                    for (Map.Entry<Long, State> entry : current.entrySet()) {
+                        State state = entry.getValue();
+                        final int before = state.cardinality();
+                        state.andNot(cleared.get(entry.getKey()));
+                        if (state.cardinality() == before) {
+                            continue;
+                        }
+
+                        update.bind(encode(state.mToRead), state.mToRead.size(),
+                                encode(state.mToReceive), state.mToReceive.size(),
+                                entry.getKey()).executeUpdate();
+                        updated++;
+                    }
+                }
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+
+        Metrics.add("database.states.updated", updated);
+        return updated;
+    }
+
+    /**
+     * @param states - Des états
+     * @return - Nom et prénom de tous leurs utilisateurs en attente, par id
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    HashMap<Long, String> names(Collection<State> states) throws SQLException {
+        TreeSet<Long> users = new TreeSet<>();
+        for (State state : states) {
+            users.addAll(state.mToRead);
+            users.addAll(state.mToReceive);
+        }
+
+        HashMap<Long, String> names = new HashMap<>();
+        if (users.isEmpty()) {
+            return names;
+        }
+
+        final ArrayList<Long> ids = new ArrayList<>(users);
+
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query query = lease.prepare(USER_NAMES_BATCH)) {
+
+            for (int from = 0; from < ids.size(); from += IN_BATCH) {
+                ResultSet set = query.bind(inParameters(ids, from)).executeQuery();
+                while (set.next()) {
+                    names.put(set.getLong(UTILISATEUR_ID), set.getString(UTILISATEUR_NOM) + " " + set.getString(UTILISATEUR_PRENOM));
+                }
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * Convertit les états restants de ETAT_MESSAGE_BITSET, indexés par id d'utilisateur,
+     * puis les supprime, en une transaction.
+     * Ne fait rien une fois la conversion faite.
+     *
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête, rien n'est modifié
+     */
+    void importBitsets() throws SQLException {
+        try (ConnectionPool.Lease lease = mPool.borrow()) {
+            final Connection connection = lease.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                HashMap<Long, State> states = new HashMap<>();
+                try (Query query = lease.prepare(LEGACY_ETAT_MESSAGE_BITSET).streamed()) {
+                    ResultSet set = query.executeQuery();
+                    while (set.next()) {
+                        states.put(set.getLong(ETAT_MESSAGE_ID), new State(
+                                fromBitSet(set.getBytes(ETAT_MESSAGE_A_LIRE)),
+                                fromBitSet(set.getBytes(ETAT_MESSAGE_A_RECEVOIR))));
+                    }
+                }
+
+                if (states.isEmpty()) {
+                    connection.commit();
+                    return;
+                }
+
+                insertAll(lease, states);
+
+                try (Query query = lease.prepare(DELETE_LEGACY_ETAT_MESSAGE_BITSET)) {
+                    query.executeUpdate();
+                }
+
+                connection.commit();
+                Debugger.logMessage("MessageStates", String.format("Converted %d bitset message states", states.size()));
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static TreeSet<Long> fromBitSet(byte[] bytes) {
+        TreeSet<Long> ids = new TreeSet<>();
+        if (bytes == null) {
+            return ids;
+        }
+
+        final BitSet bits = BitSet.valueOf(bytes);
+        for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+            ids.add((long) id);
+        }
+
+        return ids;
+    }
+
+    private static void insertAll(ConnectionPool.Lease lease, Map<Long, State> states) throws SQLException {
+        try (Query insert = lease.prepare(INSERT_ETAT_MESSAGE)) {
+            for (Map.Entry<Long, State> entry : states.entrySet()) {
+                State state = entry.getValue();
+                insert.bind(entry.getKey(),
+                        encode(state.mToRead), state.mToRead.size(),
+                        encode(state.mToReceive), state.mToReceive.size()).executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Convertit les lignes restantes de VU et RECU en états, puis les supprime, en une transaction.
+     * Ne fait rien une fois la conversion faite.
+     *
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête, rien n'est modifié
+     */
+    void importRelations() throws SQLException {
+        try (ConnectionPool.Lease lease = mPool.borrow()) {
+            final Connection connection = lease.getConnection();
+            connection.setAutoCommit(false);
+            try {
+                HashMap<Long, State> states = new HashMap<>();
+                int rows = 0;
+                for (Kind kind : Kind.values()) {
+                    try (Query query = lease.prepare(kind == Kind.READ ? LEGACY_VU : LEGACY_RECU).streamed()) {
+                        ResultSet set = query.executeQuery();
+                        while (set.next()) {
+                            states.computeIfAbsent(set.getLong(1), k -> new State()).set(kind, set.getLong(2));
+                            rows++;
+                        }
+                    }
+                }
+
+                if (rows == 0) {
+                    connection.commit();
+                    return;
+                }
+
+                insertAll(lease, states);
+
+                try (Query query = lease.prepare(DELETE_LEGACY_VU)) {
+                    query.executeUpdate();
+                }
+                try (Query query = lease.prepare(DELETE_LEGACY_RECU)) {
+                    query.executeUpdate();
+                }
+
+                connection.commit();
+                Debugger.logMessage("MessageStates", String.format("Converted %d VU/RECU rows into %d message states", rows, states.size()));
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+}
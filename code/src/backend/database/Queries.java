@@ -0,0 +1,635 @@
+package backend.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static backend.database.Keys.*;
+
+/**
+ * Requêtes du DatabaseManager, construites une seule fois.
+ * Les valeurs sont des paramètres '?' : le texte ne change jamais et
+ * chaque requête n'est préparée qu'une fois par connexion ({@link StatementCache}).
+ */
+final class Queries {
+
+    private Queries() {
+    }
+
+    // UTILISATEUR
+
+    /**
+     * ine
+     */
+    static final String USER_BY_INE = String.format(
+            "SELECT * FROM %s WHERE %s = ?",
+            TABLE_NAME_UTILISATEUR, UTILISATEUR_INE
+    );
+
+    /**
+     * ine, mot de passe hashé
+     */
+    static final String USER_BY_CREDENTIALS = String.format(
+            "SELECT * FROM %s WHERE %s = ? AND %s = ?",
+            TABLE_NAME_UTILISATEUR, UTILISATEUR_INE, UTILISATEUR_MDP
+    );
+
+    /**
+     * id
+     */
+    static final String USER_BY_ID = String.format(
+            "SELECT * FROM %s WHERE %s.%s = ?",
+            TABLE_NAME_UTILISATEUR, TABLE_NAME_UTILISATEUR, UTILISATEUR_ID
+    );
+
+    static final String ALL_USERS = String.format(
+            "SELECT * FROM %s",
+            TABLE_NAME_UTILISATEUR
+    );
+
+    /**
+     * ine, mot de passe hashé, nom, prénom, type
+     */
+    static final String INSERT_USER = String.format(
+            "INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?)",
+            TABLE_NAME_UTILISATEUR,
+            UTILISATEUR_INE, UTILISATEUR_MDP, UTILISATEUR_NOM, UTILISATEUR_PRENOM, UTILISATEUR_TYPE
+    );
+
+    /**
+     * ine, nom, prénom, type, id
+     */
+    static final String UPDATE_USER = String.format(
+            "UPDATE %s SET %s = ?, %s = ?, %s = ?, %s = ? WHERE %s = ?",
+            TABLE_NAME_UTILISATEUR,
+            UTILISATEUR_INE, UTILISATEUR_NOM, UTILISATEUR_PRENOM, UTILISATEUR_TYPE,
+            UTILISATEUR_ID
+    );
+
+    /**
+     * ine, nom, prénom, type, mot de passe hashé, id
+     */
+    static final String UPDATE_USER_WITH_PASSWORD = String.format(
+            "UPDATE %s SET %s = ?, %s = ?, %s = ?, %s = ?, %s = ? WHERE %s = ?",
+            TABLE_NAME_UTILISATEUR,
+            UTILISATEUR_INE, UTILISATEUR_NOM, UTILISATEUR_PRENOM, UTILISATEUR_TYPE, UTILISATEUR_MDP,
+            UTILISATEUR_ID
+    );
+
+    /**
+     * id
+     */
+    static final String DELETE_USER = String.format(
+            "DELETE FROM %s WHERE %s = ?",
+            TABLE_NAME_UTILISATEUR, UTILISATEUR_ID
+    );
+
+    /**
+     * ine (colonne absente du schéma actuel, gardée telle quelle pour {@code addNewMessage})
+     */
+    static final String USER_GROUPS_COLUMN = String.format(
+            "SELECT groups FROM %s WHERE %s = ?",
+            TABLE_NAME_UTILISATEUR, UTILISATEUR_INE
+    );
+
+    // GROUPE et APPARTENIR
+
+    static final String ALL_GROUPS = String.format(
+            "SELECT * FROM %s",
+            TABLE_NAME_GROUPE
+    );
+
+    /**
+     * id
+     */
+    static final String GROUP_BY_ID = String.format(
+            "SELECT * FROM %s WHERE %s.%s = ?",
+            TABLE_NAME_GROUPE, TABLE_NAME_GROUPE, GROUPE_ID
+    );
+
+    /**
+     * label
+     */
+    static final String INSERT_GROUP = String.format(
+            "INSERT INTO %s (%s) VALUES (?)",
+            TABLE_NAME_GROUPE, GROUPE_LABEL
+    );
+
+    /**
+     * label, id
+     */
+    static final String UPDATE_GROUP = String.format(
+            "UPDATE %s SET %s = ? WHERE %s = ?",
+            TABLE_NAME_GROUPE, GROUPE_LABEL, GROUPE_ID
+    );
+
+    /**
+     * id
+     */
+    static final String DELETE_GROUP = String.format(
+            "DELETE FROM %s WHERE %s = ?",
+            TABLE_NAME_GROUPE, GROUPE_ID
+    );
+
+    /**
+     * ine, label du groupe
+     */
+    static final String INSERT_USER_GROUP = String.format(
+            "INSERT INTO %s (%s, %s) " +
+                    "SELECT DISTINCT %s.%s, %s.%s " +
+                    "FROM %s, %s " +
+                    "WHERE %s.%s = ? AND %s.%s = ?",
+            TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID, APPARTENIR_GROUPE_ID,
+            TABLE_NAME_UTILISATEUR, UTILISATEUR_ID, TABLE_NAME_GROUPE, GROUPE_ID,
+            TABLE_NAME_UTILISATEUR, TABLE_NAME_GROUPE,
+            TABLE_NAME_UTILISATEUR, UTILISATEUR_INE, TABLE_NAME_GROUPE, GROUPE_LABEL
+    );
+
+    /**
+     * id de l'utilisateur
+     */
+    static final String DELETE_USER_GROUPS = String.format(
+            "DELETE FROM %s WHERE %s.%s = ?",
+            TABLE_NAME_APPARTENIR, TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID
+    );
+
+    /**
+     * id de l'utilisateur
+     */
+    static final String USER_GROUPS = String.format(
+            "SELECT %s.* " +
+                    "FROM %s, %s " +
+                    "WHERE %s.%s = ? " +
+                    "AND %s.%s = %s.%s",
+            TABLE_NAME_GROUPE,
+            TABLE_NAME_GROUPE, TABLE_NAME_APPARTENIR,
+            TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID,
+            TABLE_NAME_GROUPE, GROUPE_ID, TABLE_NAME_APPARTENIR, APPARTENIR_GROUPE_ID
+    );
+
+    // TICKET
+
+    /**
+     * id
+     */
+    static final String TICKET_BY_ID = String.format(
+            "SELECT * FROM %s WHERE %s = ?",
+            TABLE_NAME_TICKET, TICKET_ID
+    );
+
+    /**
+     * id du groupe
+     */
+    static final String TICKETS_OF_GROUP = String.format(
+            "SELECT * FROM %s WHERE %s = ?",
+            TABLE_NAME_TICKET, TICKET_GROUP_ID
+    );
+
+    /**
+     * id du créateur
+     */
+    static final String TICKETS_OF_CREATOR = String.format(
+            "SELECT * FROM %s WHERE %s.%s = ?",
+            TABLE_NAME_TICKET, TABLE_NAME_TICKET, TICKET_UTILISATEUR_ID
+    );
+
+    /**
+     * titre, id du créateur, label du groupe
+     */
+    static final String INSERT_TICKET = String.format(
+            "INSERT INTO %s (%s, %s, %s) " +
+                    "SELECT DISTINCT ?, ?, %s.%s " +
+                    "FROM %s " +
+                    "WHERE %s.%s = ?",
+            TABLE_NAME_TICKET, TICKET_TITRE, TICKET_UTILISATEUR_ID, TICKET_GROUP_ID,
+            TABLE_NAME_GROUPE, GROUPE_ID,
+            TABLE_NAME_GROUPE,
+            TABLE_NAME_GROUPE, GROUPE_LABEL
+    );
+
+    /**
+     * id
+     */
+    static final String DELETE_TICKET = String.format(
+            "DELETE FROM %s WHERE %s = ?",
+            TABLE_NAME_TICKET, TICKET_ID
+    );
+
+    /**
+     * id du message
+     */
+    static final String MESSAGE_TICKET = String.format(
+            "SELECT DISTINCT %s.* " +
+                    "FROM %s, %s " +
+                    "WHERE %s.%s = ? " +
+                    "AND %s.%s = %s.%s",
+            TABLE_NAME_TICKET,
+            TABLE_NAME_TICKET, TABLE_NAME_MESSAGE,
+            TABLE_NAME_MESSAGE, MESSAGE_ID,
+            TABLE_NAME_TICKET, TICKET_ID, TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID
+    );
+
+    // Données d'un utilisateur (RelatedGroupsLoader)
+
+    /**
+     * Tickets visibles par un utilisateur : ceux de ses groupes et ceux qu'il a créés.
+     * id de l'utilisateur, deux fois
+     */
+    private static final String VISIBLE_TICKET = String.format(
+            "(%s.%s IN (SELECT %s FROM %s WHERE %s = ?) OR %s.%s = ?)",
+            TABLE_NAME_TICKET, TICKET_GROUP_ID, APPARTENIR_GROUPE_ID, TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID,
+            TABLE_NAME_TICKET, TICKET_UTILISATEUR_ID
+    );
+
+    /**
+     * Tickets créés par un utilisateur dans des groupes dont il n'est pas membre.
+     * id de l'utilisateur, deux fois
+     */
+    private static final String OWN_TICKET_OUTSIDE_GROUPS = String.format(
+            "(%s.%s NOT IN (SELECT %s FROM %s WHERE %s = ?) AND %s.%s = ?)",
+            TABLE_NAME_TICKET, TICKET_GROUP_ID, APPARTENIR_GROUPE_ID, TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID,
+            TABLE_NAME_TICKET, TICKET_UTILISATEUR_ID
+    );
+
+    /**
+     * id de l'utilisateur, deux fois : les tickets qu'il a créés hors de ses groupes, leur groupe et la date de leur dernier message
+     */
+    static final String OWN_TICKETS_OUTSIDE_GROUPS = ticketHeaders(OWN_TICKET_OUTSIDE_GROUPS);
+
+    /**
+     * id de l'utilisateur, deux fois : états des messages des tickets qu'il a créés hors de ses groupes
+     * qui attendent encore quelqu'un, et leur ticket
+     */
+    static final String OWN_ETAT_MESSAGES_OUTSIDE_GROUPS = pendingEtatMessages(OWN_TICKET_OUTSIDE_GROUPS);
+
+    /**
+     * id du ticket, id de l'utilisateur deux fois : une ligne si l'utilisateur peut voir le ticket
+     */
+    static final String TICKET_IS_VISIBLE = String.format(
+            "SELECT %s.%s FROM %s WHERE %s.%s = ? AND %s",
+            TABLE_NAME_TICKET, TICKET_ID, TABLE_NAME_TICKET, TABLE_NAME_TICKET, TICKET_ID, VISIBLE_TICKET
+    );
+
+    /**
+     * id du ticket : son titre et la date de son dernier message
+     */
+    static final String TICKET_HEADER = String.format(
+            "SELECT %s.%s, %s.%s, MAX(%s.%s) " +
+                    "FROM %s LEFT JOIN %s ON %s.%s = %s.%s " +
+                    "WHERE %s.%s = ? " +
+                    "GROUP BY %s.%s, %s.%s",
+            TABLE_NAME_TICKET, TICKET_ID, TABLE_NAME_TICKET, TICKET_TITRE, TABLE_NAME_MESSAGE, MESSAGE_HEURE_ENVOIE,
+            TABLE_NAME_TICKET, TABLE_NAME_MESSAGE, TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, TABLE_NAME_TICKET, TICKET_ID,
+            TABLE_NAME_TICKET, TICKET_ID,
+            TABLE_NAME_TICKET, TICKET_ID, TABLE_NAME_TICKET, TICKET_TITRE
+    );
+
+    // MESSAGE
+
+    /**
+     * id
+     */
+    static final String MESSAGE_BY_ID = String.format(
+            "SELECT * FROM %s WHERE %s.%s = ?",
+            TABLE_NAME_MESSAGE, TABLE_NAME_MESSAGE, MESSAGE_ID
+    );
+
+    /**
+     * id du ticket
+     */
+    static final String MESSAGES_OF_TICKET = String.format(
+            "SELECT * FROM %s WHERE %s = ?",
+            TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID
+    );
+
+    /**
+     * id du ticket, curseur (id exclu), nombre de lignes : les messages plus anciens que le curseur, du plus récent au plus ancien
+     */
+    static final String MESSAGE_PAGE = String.format(
+            "SELECT * FROM %s WHERE %s = ? AND %s < ? ORDER BY %s DESC LIMIT ?",
+            TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, MESSAGE_ID, MESSAGE_ID
+    );
+
+    /**
+     * contenu, id du ticket, id de l'auteur
+     */
+    static final String INSERT_MESSAGE = String.format(
+            "INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?)",
+            TABLE_NAME_MESSAGE, MESSAGE_CONTENU, MESSAGE_TICKET_ID, MESSAGE_UTILISATEUR_ID
+    );
+
+    /**
+     * id du ticket, id de l'auteur, contenu
+     */
+    static final String INSERT_MESSAGE_FROM_TICKET = String.format(
+            "INSERT INTO %s (%s, %s, %s) VALUES (?, ?, ?)",
+            TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, MESSAGE_UTILISATEUR_ID, MESSAGE_CONTENU
+    );
+
+    /**
+     * id
+     */
+    static final String DELETE_MESSAGE = String.format(
+            "DELETE FROM %s WHERE %s = ?",
+            TABLE_NAME_MESSAGE, MESSAGE_ID
+    );
+
+    /**
+     * id de l'auteur : tickets où il a écrit
+     */
+    static final String TICKETS_WRITTEN_BY_USER = String.format(
+            "SELECT DISTINCT %s FROM %s WHERE %s = ?",
+            MESSAGE_TICKET_ID, TABLE_NAME_MESSAGE, MESSAGE_UTILISATEUR_ID
+    );
+
+    // ETAT_MESSAGE (MessageStates)
+
+    /**
+     * Nombre d'ids par liste "IN (?, ...)" : le texte reste fixe, une liste plus courte est complétée par null.
+     */
+    static final int IN_BATCH = 32;
+
+    private static final String IN_PARAMETERS = "(" + String.join(", ", Collections.nCopies(IN_BATCH, "?")) + ")";
+
+    /**
+     * id du ticket : les membres du groupe du ticket
+     */
+    static final String TICKET_MEMBERS = String.format(
+            "SELECT %s.%s FROM %s, %s " +
+                    "WHERE %s.%s = ? AND %s.%s = %s.%s",
+            TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID, TABLE_NAME_APPARTENIR, TABLE_NAME_TICKET,
+            TABLE_NAME_TICKET, TICKET_ID, TABLE_NAME_TICKET, TICKET_GROUP_ID, TABLE_NAME_APPARTENIR, APPARTENIR_GROUPE_ID
+    );
+
+    /**
+     * id du message, à lire, nombre, à recevoir, nombre
+     */
+    static final String INSERT_ETAT_MESSAGE = String.format(
+            "INSERT INTO %s (%s, %s, %s, %s, %s) VALUES (?, ?, ?, ?, ?)",
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID,
+            ETAT_MESSAGE_A_LIRE, ETAT_MESSAGE_NB_A_LIRE, ETAT_MESSAGE_A_RECEVOIR, ETAT_MESSAGE_NB_A_RECEVOIR
+    );
+
+    /**
+     * à lire, nombre, à recevoir, nombre, id du message
+     */
+    static final String UPDATE_ETAT_MESSAGE = String.format(
+            "UPDATE %s SET %s = ?, %s = ?, %s = ?, %s = ? WHERE %s = ?",
+            TABLE_NAME_ETAT_MESSAGE,
+            ETAT_MESSAGE_A_LIRE, ETAT_MESSAGE_NB_A_LIRE, ETAT_MESSAGE_A_RECEVOIR, ETAT_MESSAGE_NB_A_RECEVOIR,
+            ETAT_MESSAGE_ID
+    );
+
+    /**
+     * id du message
+     */
+    static final String ETAT_MESSAGE_BY_ID = String.format(
+            "SELECT * FROM %s WHERE %s = ?",
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID
+    );
+
+    /**
+     * id du ticket : états des messages du ticket qui attendent encore quelqu'un
+     */
+    static final String ETAT_MESSAGES_OF_TICKET = String.format(
+            "SELECT %s.* FROM %s, %s " +
+                    "WHERE %s.%s = ? AND %s.%s = %s.%s " +
+                    "AND (%s.%s > 0 OR %s.%s > 0)",
+            TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_MESSAGE,
+            TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID, TABLE_NAME_MESSAGE, MESSAGE_ID,
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_NB_A_LIRE, TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_NB_A_RECEVOIR
+    );
+
+    /**
+     * id du ticket, plus petit et plus grand id de message : états de ces messages qui attendent encore quelqu'un
+     */
+    static final String ETAT_MESSAGES_OF_PAGE = String.format(
+            "SELECT %s.* FROM %s, %s " +
+                    "WHERE %s.%s = ? AND %s.%s = %s.%s AND %s.%s BETWEEN ? AND ? " +
+                    "AND (%s.%s > 0 OR %s.%s > 0)",
+            TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_MESSAGE,
+            TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID, TABLE_NAME_MESSAGE, MESSAGE_ID,
+            TABLE_NAME_MESSAGE, MESSAGE_ID,
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_NB_A_LIRE, TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_NB_A_RECEVOIR
+    );
+
+    /**
+     * {@link #IN_BATCH} ids de message : leurs états et leur ticket
+     */
+    static final String ETAT_MESSAGES_BATCH = String.format(
+            "SELECT %s.*, %s.%s FROM %s, %s " +
+                    "WHERE %s.%s = %s.%s AND %s.%s IN %s",
+            TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_MESSAGE,
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID, TABLE_NAME_MESSAGE, MESSAGE_ID,
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID, IN_PARAMETERS
+    );
+
+    /**
+     * {@link #IN_BATCH} ids de message : ces messages, dans l'ordre des id
+     */
+    static final String MESSAGES_BATCH = String.format(
+            "SELECT * FROM %s WHERE %s IN %s ORDER BY %s",
+            TABLE_NAME_MESSAGE, MESSAGE_ID, IN_PARAMETERS, MESSAGE_ID
+    );
+
+    /**
+     * {@link #IN_BATCH} ids de groupe : tous leurs tickets, leur groupe et la date de leur dernier message
+     */
+    static final String GROUP_TICKETS_BATCH = ticketHeaders(String.format(
+            "%s.%s IN %s", TABLE_NAME_TICKET, TICKET_GROUP_ID, IN_PARAMETERS
+    ));
+
+    /**
+     * {@link #IN_BATCH} ids de groupe : états des messages de leurs tickets qui attendent encore quelqu'un, et leur ticket
+     */
+    static final String GROUP_ETAT_MESSAGES_BATCH = pendingEtatMessages(String.format(
+            "%s.%s IN %s", TABLE_NAME_TICKET, TICKET_GROUP_ID, IN_PARAMETERS
+    ));
+
+    /**
+     * {@link #IN_BATCH} ids de message : leurs états, verrouillés jusqu'à la fin de la transaction
+     */
+    static final String ETAT_MESSAGES_BATCH_FOR_UPDATE = String.format(
+            "SELECT * FROM %s WHERE %s IN %s FOR UPDATE",
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID, IN_PARAMETERS
+    );
+
+    /**
+     * États qui attendent encore quelqu'un, avec le ticket du message
+     */
+    static final String PENDING_ETAT_MESSAGES = String.format(
+            "SELECT %s.*, %s.%s FROM %s, %s " +
+                    "WHERE %s.%s = %s.%s " +
+                    "AND (%s.%s > 0 OR %s.%s > 0)",
+            TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_MESSAGE,
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID, TABLE_NAME_MESSAGE, MESSAGE_ID,
+            TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_NB_A_LIRE, TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_NB_A_RECEVOIR
+    );
+
+    /**
+     * {@link #IN_BATCH} ids d'utilisateur : id, nom et prénom
+     */
+    static final String USER_NAMES_BATCH = String.format(
+            "SELECT %s, %s, %s FROM %s WHERE %s IN %s",
+            UTILISATEUR_ID, UTILISATEUR_NOM, UTILISATEUR_PRENOM, TABLE_NAME_UTILISATEUR, UTILISATEUR_ID, IN_PARAMETERS
+    );
+
+    /**
+     * {@link #IN_BATCH} ids d'utilisateur : id de l'utilisateur et nom de chacun de ses groupes
+     */
+    static final String USER_GROUP_LABELS_BATCH = String.format(
+            "SELECT %s.%s, %s.%s FROM %s, %s " +
+                    "WHERE %s.%s IN %s AND %s.%s = %s.%s",
+            TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID, TABLE_NAME_GROUPE, GROUPE_LABEL,
+            TABLE_NAME_GROUPE, TABLE_NAME_APPARTENIR,
+            TABLE_NAME_APPARTENIR, APPARTENIR_UTILISATEUR_ID, IN_PARAMETERS,
+            TABLE_NAME_GROUPE, GROUPE_ID, TABLE_NAME_APPARTENIR, APPARTENIR_GROUPE_ID
+    );
+
+    // ADMINISTRATION
+
+    /**
+     * Colonnes de tri de chaque table de l'administration, l'id en premier.
+     * Toutes sont indexées (res/migrations/004_index_administration.sql).
+     */
+    static final Map<String, List<String>> ADMIN_SORT_COLUMNS = Map.of(
+            TABLE_NAME_UTILISATEUR, List.of(UTILISATEUR_ID, UTILISATEUR_INE, UTILISATEUR_NOM, UTILISATEUR_PRENOM, UTILISATEUR_TYPE),
+            TABLE_NAME_GROUPE, List.of(GROUPE_ID, GROUPE_LABEL),
+            TABLE_NAME_TICKET, List.of(TICKET_ID, TICKET_TITRE),
+            TABLE_NAME_MESSAGE, List.of(MESSAGE_ID, MESSAGE_HEURE_ENVOIE, MESSAGE_TICKET_ID, MESSAGE_UTILISATEUR_ID)
+    );
+
+    /**
+     * Colonnes dont le début est comparé au texte cherché, indexées elles aussi
+     */
+    static final Map<String, List<String>> ADMIN_FILTER_COLUMNS = Map.of(
+            TABLE_NAME_UTILISATEUR, List.of(UTILISATEUR_INE, UTILISATEUR_NOM, UTILISATEUR_PRENOM),
+            TABLE_NAME_GROUPE, List.of(GROUPE_LABEL),
+            TABLE_NAME_TICKET, List.of(TICKET_TITRE),
+            TABLE_NAME_MESSAGE, List.of(MESSAGE_CONTENU)
+    );
+
+    /**
+     * Le texte ne dépend que de la table, du tri et de la présence d'un filtre :
+     * chaque combinaison n'est préparée qu'une fois par connexion.
+     * Paramètres : le motif du filtre pour chaque colonne filtrée s'il y en a un, nombre de lignes, indice de la première
+     *
+     * @param table      - Une table de {@link #ADMIN_SORT_COLUMNS}
+     * @param sort       - Une de ses colonnes de tri
+     * @param descending - Si le tri est décroissant
+     * @param filtered   - Si les lignes sont filtrées
+     * @return - La requête d'une page
+     */
+    static String adminPage(String table, String sort, boolean descending, boolean filtered) {
+        final String id = ADMIN_SORT_COLUMNS.get(table).get(0);
+        final String order = descending ? " DESC" : "";
+
+        // L'id départage les lignes de même valeur, l'ordre reste le même d'une page à l'autre
+        return String.format("SELECT * FROM %s%s ORDER BY %s%s, %s%s LIMIT ? OFFSET ?",
+                table, filtered ? adminFilter(table) : "", sort, order, id, order);
+    }
+
+    /**
+     * Paramètres : le motif du filtre pour chaque colonne filtrée s'il y en a un
+     *
+     * @param table    - Une table de {@link #ADMIN_SORT_COLUMNS}
+     * @param filtered - Si les lignes sont filtrées
+     * @return - La requête qui compte les lignes
+     */
+    static String adminCount(String table, boolean filtered) {
+        return String.format("SELECT COUNT(*) FROM %s%s", table, filtered ? adminFilter(table) : "");
+    }
+
+    private static String adminFilter(String table) {
+        ArrayList<String> conditions = new ArrayList<>();
+        for (String column : ADMIN_FILTER_COLUMNS.get(table)) {
+            conditions.add(column + " LIKE ?");
+        }
+
+        return " WHERE " + String.join(" OR ", conditions);
+    }
+
+    /**
+     * Anciennes lignes de VU, à convertir en états
+     */
+    static final String LEGACY_VU = String.format(
+            "SELECT %s, %s FROM %s",
+            VU_MESSAGE_ID, VU_UTILISATEUR_ID, TABLE_NAME_VU
+    );
+
+    /**
+     * Anciennes lignes de RECU, à convertir en états
+     */
+    static final String LEGACY_RECU = String.format(
+            "SELECT %s, %s FROM %s",
+            RECU_MESSAGE_ID, RECU_UTILISATEUR_ID, TABLE_NAME_RECU
+    );
+
+    static final String DELETE_LEGACY_VU = "DELETE FROM " + TABLE_NAME_VU;
+
+    static final String DELETE_LEGACY_RECU = "DELETE FROM " + TABLE_NAME_RECU;
+
+    /**
+     * Anciens états en bitset, à convertir
+     */
+    static final String LEGACY_ETAT_MESSAGE_BITSET = String.format(
+            "SELECT %s, %s, %s FROM %s",
+            ETAT_MESSAGE_ID, ETAT_MESSAGE_A_LIRE, ETAT_MESSAGE_A_RECEVOIR, TABLE_NAME_ETAT_MESSAGE_BITSET
+    );
+
+    static final String DELETE_LEGACY_ETAT_MESSAGE_BITSET = "DELETE FROM " + TABLE_NAME_ETAT_MESSAGE_BITSET;
+
+    /**
+     * @param where - Les tickets à lire
+     * @return - Pour chaque ticket : id, titre, id et nom de son groupe, date de son dernier message
+     */
+    private static String ticketHeaders(String where) {
+        return String.format(
+                "SELECT %s.%s, %s.%s, %s.%s, %s.%s, MAX(%s.%s) " +
+                        "FROM %s JOIN %s ON %s.%s = %s.%s " +
+                        "LEFT JOIN %s ON %s.%s = %s.%s " +
+                        "WHERE %s " +
+                        "GROUP BY %s.%s, %s.%s, %s.%s, %s.%s",
+                TABLE_NAME_TICKET, TICKET_ID, TABLE_NAME_TICKET, TICKET_TITRE, TABLE_NAME_GROUPE, GROUPE_ID, TABLE_NAME_GROUPE, GROUPE_LABEL,
+                TABLE_NAME_MESSAGE, MESSAGE_HEURE_ENVOIE,
+                TABLE_NAME_TICKET, TABLE_NAME_GROUPE, TABLE_NAME_TICKET, TICKET_GROUP_ID, TABLE_NAME_GROUPE, GROUPE_ID,
+                TABLE_NAME_MESSAGE, TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, TABLE_NAME_TICKET, TICKET_ID,
+                where,
+                TABLE_NAME_TICKET, TICKET_ID, TABLE_NAME_TICKET, TICKET_TITRE, TABLE_NAME_GROUPE, GROUPE_ID, TABLE_NAME_GROUPE, GROUPE_LABEL
+        );
+    }
+
+    /**
+     * @param where - Les tickets dont les états sont lus
+     * @return - Les états de leurs messages qui attendent encore quelqu'un, avec le ticket du message
+     */
+    private static String pendingEtatMessages(String where) {
+        return String.format(
+                "SELECT %s.*, %s.%s " +
+                        "FROM %s, %s, %s " +
+                        "WHERE %s.%s = %s.%s " +
+                        "AND %s.%s = %s.%s " +
+                        "AND (%s.%s > 0 OR %s.%s > 0) AND %s",
+                TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID,
+                TABLE_NAME_ETAT_MESSAGE, TABLE_NAME_MESSAGE, TABLE_NAME_TICKET,
+                TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_ID, TABLE_NAME_MESSAGE, MESSAGE_ID,
+                TABLE_NAME_MESSAGE, MESSAGE_TICKET_ID, TABLE_NAME_TICKET, TICKET_ID,
+                TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_NB_A_LIRE, TABLE_NAME_ETAT_MESSAGE, ETAT_MESSAGE_NB_A_RECEVOIR, where
+        );
+    }
+
+    /**
+     * @param ids  - Tous les ids
+     * @param from - L'indice du premier id de ce lot
+     * @return - {@link #IN_BATCH} ids, complétés par null
+     */
+    static Object[] inParameters(List<Long> ids, int from) {
+        Object[] params = new Object[IN_BATCH];
+        for (int i = 0; i < IN_BATCH && from + i < ids.size(); ++i) {
+            params[i] = ids.get(from + i);
+        }
+
+        return params;
+    }
+}
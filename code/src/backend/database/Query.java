@@ -0,0 +1,158 @@
+package backend.database;
+
+import debug.Debugger;
+import debug.Metrics;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+
+/**
+ * Une requête paramétrée empruntée au cache de la connexion, à fermer
+ * avec try-with-resources : ses résultats sont fermés et la requête
+ * retourne dans le cache. Une requête non fermée à la fin du bail est comptée comme fuite.
+ * <p>
+ * Les valeurs ne sont jamais insérées dans le texte SQL, seulement passées en paramètre.
+ */
+final class Query implements AutoCloseable {
+
+    /**
+     * Durée en ms au delà de laquelle une exécution est signalée comme lente.
+     */
+    static final long SLOW_THRESHOLD = Long.getLong("database.slowQuery", 200L);
+
+    private final ConnectionPool.Lease mLease;
+    private final StatementCache mCache;
+    private final String mSql;
+    private final boolean mGeneratedKeys;
+    private final PreparedStatement mStatement;
+    private final ArrayList<ResultSet> mResults = new ArrayList<>(1);
+    private boolean mStreamed = false;
+    private boolean mClosed = false;
+
+    Query(ConnectionPool.Lease lease, StatementCache cache, String sql, boolean generatedKeys) throws SQLException {
+        mLease = lease;
+        mCache = cache;
+        mSql = sql;
+        mGeneratedKeys = generatedKeys;
+        mStatement = cache.take(sql, generatedKeys);
+    }
+
+    /**
+     * Remplace les paramètres, pour exécuter la même requête plusieurs fois.
+     *
+     * @param params - Les valeurs des '?', dans l'ordre
+     * @return - Cette requête
+     * @throws SQLException - Si un paramètre ne peut pas être affecté
+     */
+    Query bind(Object... params) throws SQLException {
+        for (int i = 0; i < params.length; ++i) {
+            if (params[i] == null) {
+                mStatement.setNull(i + 1, Types.NULL);
+            } else {
+                mStatement.setObject(i + 1, params[i]);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Les lignes des prochains résultats arrivent une à une au lieu d'être toutes chargées en mémoire.
+     * Avec MySQL aucune autre requête ne peut tourner sur la connexion avant leur fermeture.
+     *
+     * @return - Cette requête
+     * @throws SQLException - Si le driver refuse
+     */
+    Query streamed() throws SQLException {
+        mStatement.setFetchSize(Integer.MIN_VALUE);
+        mStreamed = true;
+        return this;
+    }
+
+    /**
+     * @return - Les résultats, fermés avec la requête
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    ResultSet executeQuery() throws SQLException {
+        final long start = System.nanoTime();
+        ResultSet set = mStatement.executeQuery();
+        mResults.add(set);
+        executed(start);
+
+        return set;
+    }
+
+    /**
+     * @return - Le nombre de lignes modifiées
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    int executeUpdate() throws SQLException {
+        final long start = System.nanoTime();
+        final int count = mStatement.executeUpdate();
+        executed(start);
+
+        return count;
+    }
+
+    /**
+     * @return - Les clés générées par la dernière exécution, fermées avec la requête
+     * @throws SQLException - Si la requête n'a pas été préparée pour les renvoyer
+     */
+    ResultSet getGeneratedKeys() throws SQLException {
+        ResultSet set = mStatement.getGeneratedKeys();
+        mResults.add(set);
+
+        return set;
+    }
+
+    private void executed(long start) {
+        final long elapsed = System.nanoTime() - start;
+        Metrics.increment("database.statement.executed");
+        Metrics.add("database.statement.nanos", elapsed);
+
+        if (elapsed / 1_000_000 >= SLOW_THRESHOLD) {
+            Metrics.increment("database.statement.slow");
+            Debugger.logMessage("Query", String.format("Slow statement (%d ms): %s", elapsed / 1_000_000, mSql));
+        }
+    }
+
+    /**
+     * @return - Le texte SQL, pour les messages de fuite
+     */
+    String getSql() {
+        return mSql;
+    }
+
+    @Override
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        mLease.closed(this);
+
+        for (ResultSet set : mResults) {
+            try {
+                set.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        mResults.clear();
+
+        try {
+            mStatement.clearParameters();
+            if (mStreamed) {
+                // La requête retourne dans le cache : sa prochaine exécution ne doit pas être streamée
+                mStatement.setFetchSize(0);
+            }
+            mCache.give(mSql, mGeneratedKeys, mStatement);
+        } catch (SQLException e) {
+            // Connexion probablement cassée, elle sera remplacée par le pool
+            StatementCache.closeQuietly(mStatement);
+        }
+    }
+}
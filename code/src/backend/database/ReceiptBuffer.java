@@ -0,0 +1,208 @@
+package backend.database;
+
+import debug.Debugger;
+import debug.Metrics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Garde en mémoire les messages lus et reçus avant de les retirer par lots
+ * des états de ETAT_MESSAGE, toutes les {@link #FLUSH_INTERVAL} ms ou dès que
+ * {@link #FLUSH_SIZE} couples (utilisateur, message) sont en attente.
+ * <p>
+ * Un couple déjà en attente n'est écrit qu'une fois, et chaque état n'est modifié
+ * qu'une fois par écriture quel que soit le nombre d'utilisateurs. Tant qu'ils ne sont pas écrits,
+ * les lectures des états doivent les ignorer avec {@link #mask}.
+ * {@link #close()} écrit tout ce qui reste avant la fermeture du pool. Les accusés
+ * arrivés ensuite sont refusés : leurs messages restent non lus ou non reçus dans la base.
+ */
+class ReceiptBuffer {
+
+    /**
+     * Délai maximal en ms avant l'écriture d'un accusé
+     */
+    static final long FLUSH_INTERVAL = Long.getLong("database.receipts.flushInterval", 250L);
+
+    /**
+     * Nombre de couples en attente qui déclenche une écriture sans attendre le délai
+     */
+    static final int FLUSH_SIZE = Integer.getInteger("database.receipts.flushSize", 512);
+
+    private final MessageStates mStates;
+    private final Timer mTimer = new Timer("receipts", true);
+    private final Object mFlushLock = new Object();
+
+    /**
+     * Par message, les utilisateurs à retirer de son état et ceux en cours d'écriture
+     */
+    private HashMap<Long, MessageStates.State> mPending = new HashMap<>();
+    private HashMap<Long, MessageStates.State> mFlushing = new HashMap<>();
+    private int mSize = 0;
+    private boolean mFlushRequested = false;
+    private boolean mClosed = false;
+
+    /**
+     * @param states - Les états des messages du DatabaseManager
+     */
+    ReceiptBuffer(MessageStates states) {
+        mStates = states;
+
+        mTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL, FLUSH_INTERVAL);
+    }
+
+    /**
+     * Met des messages en attente pour un utilisateur
+     *
+     * @param kind       - Lu ou reçu
+     * @param userID     - L'utilisateur
+     * @param messageIDs - Les messages dont l'état attend encore cet utilisateur
+     * @return - Ceux qui n'étaient pas déjà en attente, aucun une fois le buffer fermé
+     */
+    ArrayList<Long> add(MessageStates.Kind kind, long userID, Collection<Long> messageIDs) {
+        ArrayList<Long> added = new ArrayList<>(messageIDs.size());
+        boolean flushNow;
+
+        synchronized (this) {
+            if (mClosed) {
+                Metrics.add("database.receipts.rejected", messageIDs.size());
+                return added;
+            }
+
+            for (Long messageID : messageIDs) {
+                MessageStates.State flushing = mFlushing.get(messageID);
+                if (flushing != null && flushing.has(kind, userID)) {
+                    continue;
+                }
+
+                MessageStates.State pending = mPending.computeIfAbsent(messageID, k -> new MessageStates.State());
+                if (!pending.has(kind, userID)) {
+                    pending.set(kind, userID);
+                    added.add(messageID);
+                }
+            }
+
+            mSize += added.size();
+            flushNow = mSize >= FLUSH_SIZE && !mFlushRequested;
+            if (flushNow) {
+                mFlushRequested = true;
+            }
+        }
+
+        Metrics.add("database.receipts.buffered", added.size());
+        Metrics.add("database.receipts.coalesced", messageIDs.size() - added.size());
+
+        if (flushNow) {
+            try {
+                mTimer.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                }, 0);
+            } catch (IllegalStateException e) {
+                // Timer arrêté par close() entre-temps, qui écrit aussi ces couples
+                Debugger.logMessage("ReceiptBuffer", "Timer already cancelled, receipts left to close()");
+            }
+        }
+
+        return added;
+    }
+
+    /**
+     * Retire d'un état lu dans la base les utilisateurs pas encore écrits
+     *
+     * @param messageID - Le message
+     * @param state     - Son état, modifié
+     */
+    synchronized void mask(long messageID, MessageStates.State state) {
+        MessageStates.State pending = mPending.get(messageID);
+        if (pending != null) {
+            state.andNot(pending);
+        }
+
+        MessageStates.State flushing = mFlushing.get(messageID);
+        if (flushing != null) {
+            state.andNot(flushing);
+        }
+    }
+
+    /**
+     * Écrit tous les couples en attente.
+     * En cas d'erreur ils restent en attente pour la prochaine écriture,
+     * et le timer n'est pas arrêté par l'exception.
+     */
+    void flush() {
+        synchronized (mFlushLock) {
+            final HashMap<Long, MessageStates.State> flushing;
+            final int size;
+            synchronized (this) {
+                mFlushRequested = false;
+                if (mSize == 0) {
+                    return;
+                }
+
+                flushing = mPending;
+                size = mSize;
+                mFlushing = flushing;
+                mPending = new HashMap<>();
+                mSize = 0;
+            }
+
+            final long start = System.nanoTime();
+            try {
+                final int updated = mStates.clear(flushing);
+
+                Metrics.increment("database.receipts.flushes");
+                Metrics.add("database.receipts.flushed", size);
+                Debugger.logMessage("ReceiptBuffer", String.format("Flushed %d receipts into %d message states in %d ms",
+                        size, updated, (System.nanoTime() - start) / 1_000_000));
+            } catch (SQLException | RuntimeException e) {
+                Metrics.increment("database.receipts.failed");
+                e.printStackTrace();
+
+                synchronized (this) {
+                    for (Map.Entry<Long, MessageStates.State> entry : flushing.entrySet()) {
+                        MessageStates.State pending = mPending.computeIfAbsent(entry.getKey(), k -> new MessageStates.State());
+                        final int before = pending.cardinality();
+                        pending.or(entry.getValue());
+                        mSize += pending.cardinality() - before;
+                    }
+                }
+            } finally {
+                synchronized (this) {
+                    mFlushing = new HashMap<>();
+                }
+            }
+        }
+    }
+
+    /**
+     * Arrête le timer et écrit ce qui reste, avant la fermeture du pool.
+     * Les couples ajoutés ensuite sont refusés par {@link #add}.
+     */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+
+        mTimer.cancel();
+        flush();
+
+        synchronized (this) {
+            if (mSize > 0) {
+                Debugger.logMessage("ReceiptBuffer", mSize + " receipts could not be written before closing");
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package backend.database;
+
+import backend.data.Groupe;
+import backend.data.Ticket;
+import debug.Metrics;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+
+import static backend.database.Queries.*;
+
+/**
+ * Charge tout ce qu'un utilisateur peut voir : ses groupes, leurs tickets et les tickets
+ * qu'il a créés ailleurs, en quelques requêtes quel que soit le nombre de tickets et de messages.
+ * <p>
+ * Les tickets ne sont que des en-têtes : la date de leur dernier message et le nombre de messages
+ * que quelqu'un doit encore lire ou recevoir. Les messages sont demandés par pages à l'ouverture d'un ticket.
+ * <p>
+ * Ces en-têtes ne dépendent pas de l'utilisateur : les groupes dont il est membre viennent des
+ * {@link GroupSnapshots}, partagés avec les autres membres. Seuls les tickets qu'il a créés
+ * dans d'autres groupes sont lus pour lui.
+ */
+class RelatedGroupsLoader {
+
+    private static final MessageStates.Counters NONE = new MessageStates.Counters();
+
+    private final ConnectionPool mPool;
+    private final ReceiptBuffer mReceipts;
+    private final GroupSnapshots mSnapshots;
+
+    /**
+     * @param pool      - Le pool du DatabaseManager
+     * @param receipts  - Les accusés pas encore écrits, à ne pas compter comme en attente
+     * @param snapshots - Les groupes déjà lus
+     */
+    RelatedGroupsLoader(ConnectionPool pool, ReceiptBuffer receipts, GroupSnapshots snapshots) {
+        mPool = pool;
+        mReceipts = receipts;
+        mSnapshots = snapshots;
+    }
+
+    /**
+     * @param userID - L'utilisateur
+     * @return - Ses groupes avec tous leurs tickets, et les groupes des tickets qu'il a créés avec seulement ceux-ci
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    TreeSet<Groupe> load(long userID) throws SQLException {
+        ArrayList<Groupe> memberOf = new ArrayList<>();
+        HashMap<Long, Groupe> others = new HashMap<>();
+
+        try (ConnectionPool.Lease lease = mPool.borrow()) {
+            try (Query query = lease.prepare(USER_GROUPS, userID).streamed()) {
+                ResultSet set = query.executeQuery();
+                while (set.next()) {
+                    memberOf.add(new Groupe(set));
+                }
+            }
+
+            HashMap<Long, MessageStates.Counters> counters = new HashMap<>();
+            try (Query query = lease.prepare(OWN_ETAT_MESSAGES_OUTSIDE_GROUPS, userID, userID).streamed()) {
+                readCounters(query.executeQuery(), counters);
+            }
+
+            try (Query query = lease.prepare(OWN_TICKETS_OUTSIDE_GROUPS, userID, userID).streamed()) {
+                readTickets(query.executeQuery(), counters, others);
+            }
+        }
+
+        // Hors de la connexion : on peut attendre la lecture d'un autre membre
+        TreeSet<Groupe> groups = new TreeSet<>(others.values());
+        groups.addAll(mSnapshots.get(memberOf, this::loadSnapshots));
+
+        return groups;
+    }
+
+    /**
+     * @param groups - Des groupes, sans leurs tickets
+     * @return - Chacun avec les en-têtes de tous ses tickets, par id
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    private HashMap<Long, GroupSnapshots.Snapshot> loadSnapshots(List<Groupe> groups) throws SQLException {
+        ArrayList<Long> ids = new ArrayList<>();
+        HashMap<Long, Groupe> withTickets = new HashMap<>();
+        for (Groupe groupe : groups) {
+            ids.add(groupe.getID());
+            withTickets.put(groupe.getID(), new Groupe(groupe.getID(), groupe.getLabel()));
+        }
+
+        try (ConnectionPool.Lease lease = mPool.borrow();
+             Query states = lease.prepare(GROUP_ETAT_MESSAGES_BATCH);
+             Query tickets = lease.prepare(GROUP_TICKETS_BATCH)) {
+
+            for (int from = 0; from < ids.size(); from += IN_BATCH) {
+                HashMap<Long, MessageStates.Counters> counters = new HashMap<>();
+                readCounters(states.bind(inParameters(ids, from)).executeQuery(), counters);
+                readTickets(tickets.bind(inParameters(ids, from)).executeQuery(), counters, withTickets);
+            }
+        }
+
+        HashMap<Long, GroupSnapshots.Snapshot> snapshots = new HashMap<>();
+        for (Groupe groupe : withTickets.values()) {
+            snapshots.put(groupe.getID(), new GroupSnapshots.Snapshot(groupe.getID(), groupe.getLabel(), groupe.getTickets()));
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * @param set      - Des états de messages avec leur ticket
+     * @param counters - Les messages en attente, comptés par ticket
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    private void readCounters(ResultSet set, HashMap<Long, MessageStates.Counters> counters) throws SQLException {
+        while (set.next()) {
+            final MessageStates.State state = new MessageStates.State(set);
+            mReceipts.mask(set.getLong(Keys.ETAT_MESSAGE_ID), state);
+
+            counters.computeIfAbsent(set.getLong(Keys.MESSAGE_TICKET_ID), k -> new MessageStates.Counters())
+                    .count(state);
+        }
+    }
+
+    /**
+     * @param set      - Des en-têtes de tickets avec leur groupe
+     * @param counters - Les messages en attente de ces tickets
+     * @param groups   - Les groupes où ajouter les tickets, par id, complétés si besoin
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    private void readTickets(ResultSet set, HashMap<Long, MessageStates.Counters> counters,
+                             HashMap<Long, Groupe> groups) throws SQLException {
+        int ticketCount = 0;
+        while (set.next()) {
+            final long ticketID = set.getLong(1);
+            final long groupID = set.getLong(3);
+            final Timestamp lastActivity = set.getTimestamp(5);
+
+            Groupe groupe = groups.get(groupID);
+            if (groupe == null) {
+                // Ticket créé dans un groupe dont l'utilisateur n'est pas membre
+                groupe = new Groupe(groupID, set.getString(4));
+                groups.put(groupID, groupe);
+            }
+
+            final MessageStates.Counters ticketCounters = counters.getOrDefault(ticketID, NONE);
+            groupe.addTicket(new Ticket(ticketID, set.getString(2),
+                    lastActivity == null ? null : new Date(lastActivity.getTime()),
+                    ticketCounters.mUnread, ticketCounters.mUnreceived));
+            ticketCount++;
+        }
+
+        Metrics.add("database.loader.tickets", ticketCount);
+    }
+}
@@ -0,0 +1,167 @@
+package backend.database;
+
+import debug.Debugger;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static backend.database.Keys.*;
+
+/**
+ * Met le schéma de la base à jour au démarrage.
+ * Chaque script de {@link #DIRECTORY} est nommé "version_description.sql" et n'est exécuté
+ * qu'une fois, dans l'ordre des versions. La table SCHEMA_VERSION garde celles déjà appliquées :
+ * une base existante est mise à jour sur place, une nouvelle base passe par les mêmes scripts
+ * après sa création par database.sql.
+ * <p>
+ * MySQL valide chaque instruction de structure immédiatement, un script interrompu
+ * doit donc pouvoir être relancé sans perdre de données.
+ */
+class SchemaMigrator {
+
+    static final String DIRECTORY = "res/migrations";
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("^(\\d+)_.*\\.sql$");
+
+    private static final String CREATE_TABLE = String.format(
+            "CREATE TABLE IF NOT EXISTS %s (" +
+                    "%s INT NOT NULL, " +
+                    "%s VARCHAR(255) NOT NULL, " +
+                    "%s DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP, " +
+                    "PRIMARY KEY(%s))",
+            TABLE_NAME_SCHEMA_VERSION,
+            SCHEMA_VERSION_ID, SCHEMA_VERSION_SCRIPT, SCHEMA_VERSION_DATE,
+            SCHEMA_VERSION_ID
+    );
+
+    private static final String CURRENT_VERSION = String.format(
+            "SELECT MAX(%s) FROM %s", SCHEMA_VERSION_ID, TABLE_NAME_SCHEMA_VERSION
+    );
+
+    /**
+     * version, nom du script
+     */
+    private static final String INSERT_VERSION = String.format(
+            "INSERT INTO %s (%s, %s) VALUES (?, ?)",
+            TABLE_NAME_SCHEMA_VERSION, SCHEMA_VERSION_ID, SCHEMA_VERSION_SCRIPT
+    );
+
+    private final ConnectionPool mPool;
+
+    /**
+     * @param pool - Le pool du DatabaseManager
+     */
+    SchemaMigrator(ConnectionPool pool) {
+        mPool = pool;
+    }
+
+    /**
+     * Applique les scripts plus récents que la version de la base.
+     *
+     * @throws SQLException - Si un script échoue, le serveur ne doit pas démarrer sur un schéma incomplet
+     * @throws IOException  - Si un script ne peut pas être lu
+     */
+    void migrate() throws SQLException, IOException {
+        TreeMap<Integer, File> scripts = scripts();
+
+        try (ConnectionPool.Lease lease = mPool.borrow()) {
+            try (Query query = lease.prepare(CREATE_TABLE)) {
+                query.executeUpdate();
+            }
+
+            int version;
+            try (Query query = lease.prepare(CURRENT_VERSION)) {
+                ResultSet set = query.executeQuery();
+                version = set.next() ? set.getInt(1) : 0;
+            }
+
+            for (Map.Entry<Integer, File> script : scripts.tailMap(version, false).entrySet()) {
+                Debugger.logMessage("SchemaMigrator", "Applying " + script.getValue().getName());
+                runScript(lease.getConnection(), script.getValue());
+
+                try (Query query = lease.prepare(INSERT_VERSION, script.getKey(), script.getValue().getName())) {
+                    query.executeUpdate();
+                }
+                version = script.getKey();
+            }
+
+            Debugger.logMessage("SchemaMigrator", "Schema version " + version);
+        }
+    }
+
+    /**
+     * @return - Les scripts par version
+     */
+    private static TreeMap<Integer, File> scripts() throws IOException {
+        TreeMap<Integer, File> scripts = new TreeMap<>();
+
+        File[] files = new File(DIRECTORY).listFiles();
+        if (files == null) {
+            Debugger.logMessage("SchemaMigrator", "No migration directory " + DIRECTORY);
+            return scripts;
+        }
+
+        for (File file : files) {
+            Matcher matcher = SCRIPT_NAME.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+
+            File previous = scripts.put(Integer.parseInt(matcher.group(1)), file);
+            if (previous != null) {
+                throw new IOException("Two migrations with the same version: " + previous.getName() + ", " + file.getName());
+            }
+        }
+
+        return scripts;
+    }
+
+    /**
+     * Exécute un script SQL instruction par instruction.
+     * Une instruction se termine par ';' en fin de ligne, les lignes commençant par "--" sont ignorées.
+     *
+     * @param connection - La connexion
+     * @param file       - Le script
+     * @throws SQLException - Si une instruction échoue, les suivantes ne sont pas exécutées
+     * @throws IOException  - Si le script ne peut pas être lu
+     */
+    static void runScript(Connection connection, File file) throws SQLException, IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file));
+             Statement statement = connection.createStatement()) {
+
+            String line;
+            StringBuilder builder = new StringBuilder();
+            while ((line = reader.readLine()) != null) {
+                final String trimmed = line.trim();
+                if (trimmed.startsWith("--")) {
+                    continue;
+                }
+
+                builder.append(line).append(' ');
+                if (trimmed.endsWith(";")) {
+                    String query = builder.toString().replaceAll("\\s+", " ").trim();
+                    Debugger.logMessage("SchemaMigrator", "Executing " + query);
+                    try {
+                        statement.executeUpdate(query.substring(0, query.length() - 1));
+                    } catch (SQLException e) {
+                        // Ne pas rendre au pool une connexion au milieu d'une transaction du script
+                        statement.executeUpdate("ROLLBACK");
+                        throw e;
+                    }
+
+                    builder = new StringBuilder();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package backend.database;
+
+import debug.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Requêtes préparées d'une connexion, gardées d'un emprunt à l'autre :
+ * MySQL n'analyse chaque requête qu'une fois par connexion.
+ * <p>
+ * Une requête en cours d'utilisation est retirée du cache, une méthode qui exécute
+ * la même requête pendant qu'elle parcourt ses résultats en prépare donc une autre.
+ * N'est utilisé que par le thread qui a emprunté la connexion.
+ */
+class StatementCache {
+
+    /**
+     * Nombre de requêtes préparées gardées par connexion, les moins utilisées sont fermées au delà.
+     */
+    static final int SIZE = Integer.getInteger("database.statementCache", 64);
+
+    private final Connection mConnection;
+    private final LinkedHashMap<String, PreparedStatement> mStatements = new LinkedHashMap<>(16, 0.75f, true);
+
+    StatementCache(Connection connection) {
+        mConnection = connection;
+    }
+
+    /**
+     * @param sql           - La requête
+     * @param generatedKeys - Si les clés générées doivent être récupérables
+     * @return - La requête préparée, à rendre avec {@link #give(String, boolean, PreparedStatement)}
+     * @throws SQLException - Si la requête ne peut pas être préparée
+     */
+    PreparedStatement take(String sql, boolean generatedKeys) throws SQLException {
+        PreparedStatement statement = mStatements.remove(key(sql, generatedKeys));
+        if (statement != null) {
+            Metrics.increment("database.statement.reused");
+            return statement;
+        }
+
+        Metrics.increment("database.statement.prepared");
+        return generatedKeys
+                ? mConnection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                : mConnection.prepareStatement(sql);
+    }
+
+    /**
+     * Remet une requête dans le cache une fois ses résultats fermés.
+     */
+    void give(String sql, boolean generatedKeys, PreparedStatement statement) {
+        PreparedStatement previous = mStatements.put(key(sql, generatedKeys), statement);
+        if (previous != null) {
+            closeQuietly(previous);
+        }
+
+        if (mStatements.size() > SIZE) {
+            Iterator<Map.Entry<String, PreparedStatement>> eldest = mStatements.entrySet().iterator();
+            closeQuietly(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Ferme toutes les requêtes, avant de fermer la connexion.
+     */
+    void close() {
+        for (PreparedStatement statement : mStatements.values()) {
+            closeQuietly(statement);
+        }
+        mStatements.clear();
+    }
+
+    private static String key(String sql, boolean generatedKeys) {
+        return generatedKeys ? "+" + sql : sql;
+    }
+
+    static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package backend.database;
+
+import backend.data.ProjectTable;
+
+import java.util.List;
+
+/**
+ * Réponse à une {@link TableQuery} : les lignes de la page et, pour la première page,
+ * le nombre de lignes de la table une fois filtrée.
+ */
+public class TablePage {
+
+    private final TableQuery mQuery;
+    private final List<? extends ProjectTable> mRows;
+    private final Integer mTotal;
+
+    /**
+     * @param query - La demande
+     * @param rows  - Ses lignes, dans l'ordre demandé
+     * @param total - Le nombre de lignes correspondant au filtre, null s'il n'a pas été compté
+     */
+    public TablePage(TableQuery query, List<? extends ProjectTable> rows, Integer total) {
+        mQuery = query;
+        mRows = rows;
+        mTotal = total;
+    }
+
+    public TableQuery getQuery() {
+        return mQuery;
+    }
+
+    public List<? extends ProjectTable> getRows() {
+        return mRows;
+    }
+
+    /**
+     * @return - Le nombre de lignes correspondant au filtre, null s'il n'a pas été compté
+     */
+    public Integer getTotal() {
+        return mTotal;
+    }
+}
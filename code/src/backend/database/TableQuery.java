@@ -0,0 +1,75 @@
+package backend.database;
+
+import java.util.Objects;
+
+/**
+ * Demande d'une page d'une table de l'administration : la base trie, filtre et découpe,
+ * l'interface ne garde que les pages qu'elle affiche.
+ */
+public class TableQuery {
+
+    /**
+     * Nombre maximal de lignes par page, quelle que soit la limite demandée
+     */
+    public static final int MAX_LIMIT = 500;
+
+    private final String mTable;
+    private final String mFilter;
+    private final String mSort;
+    private final boolean mDescending;
+    private final int mOffset;
+    private final int mLimit;
+
+    /**
+     * @param table      - Le nom de la table
+     * @param filter     - Le début du texte cherché, vide pour toute la table
+     * @param sort       - La colonne de tri, null pour l'id
+     * @param descending - Si le tri est décroissant
+     * @param offset     - L'indice de la première ligne
+     * @param limit      - Le nombre de lignes
+     */
+    public TableQuery(String table, String filter, String sort, boolean descending, int offset, int limit) {
+        mTable = table;
+        mFilter = filter == null ? "" : filter;
+        mSort = sort;
+        mDescending = descending;
+        mOffset = Math.max(0, offset);
+        mLimit = Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+
+    public String getTable() {
+        return mTable;
+    }
+
+    public String getFilter() {
+        return mFilter;
+    }
+
+    public String getSort() {
+        return mSort;
+    }
+
+    public boolean isDescending() {
+        return mDescending;
+    }
+
+    public int getOffset() {
+        return mOffset;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * @param other - Une autre demande
+     * @return - Si les deux demandes portent sur les mêmes lignes dans le même ordre, à la page près
+     */
+    public boolean sameView(TableQuery other) {
+        return other != null
+                && mTable.equals(other.mTable)
+                && mFilter.equals(other.mFilter)
+                && Objects.equals(mSort, other.mSort)
+                && mDescending == other.mDescending;
+    }
+}
@@ -1,13 +1,8 @@
 package backend.modele;
 
 import backend.data.Groupe;
-import com.mysql.jdbc.StringUtils;
 
-import javax.swing.event.TableModelListener;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Iterator;
-import java.util.List;
+import static backend.database.Keys.*;
 
 public class GroupModel extends SearchableModel<Groupe> {
 
@@ -16,25 +11,14 @@ public class GroupModel extends SearchableModel<Groupe> {
             "LABEL"
     };
 
+    private static final String[] sortKeys = {
+            GROUPE_ID,
+            GROUPE_LABEL
+    };
 
-    public GroupModel(ResultSet set) {
-        try {
-            for (; set.next(); ) {
-                elements.add(new Groupe(set));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private GroupModel() {
-
-    }
 
-    public GroupModel(List<Groupe> groups) {
-        for (Groupe groupe : groups) {
-            addRow(groupe);
-        }
+    public GroupModel(PageRequester requester) {
+        super(TABLE_NAME_GROUPE, requester);
     }
 
     @Override
@@ -67,9 +51,7 @@ public class GroupModel extends SearchableModel<Groupe> {
     }
 
     @Override
-    public Object getValueAt(int ligne, int colonne) {
-        Groupe u = elements.get(ligne);
-
+    protected Object getColumnValue(Groupe u, int colonne) {
         if (colonne == 0) {
             return u.getID();
         } else {
@@ -78,53 +60,7 @@ public class GroupModel extends SearchableModel<Groupe> {
     }
 
     @Override
-    public void setValueAt(Object o, int ligne, int colonne) {
-        Groupe g = elements.get(ligne);
-
-        if (colonne == 0) {
-            g.setID((Long) o);
-        } else {
-            g.setLabel((String) o);
-        }
-    }
-
-    @Override
-    public void addTableModelListener(TableModelListener tableModelListener) {
-
-    }
-
-    @Override
-    public void removeTableModelListener(TableModelListener tableModelListener) {
-
-    }
-
-    @Override
-    public SearchableModel<Groupe> retrieveSearchModel(String searched) {
-        if (StringUtils.isEmptyOrWhitespaceOnly(searched)) {
-            return this;
-        }
-
-        GroupModel groupModel = new GroupModel();
-
-        Iterator<Groupe> ite = elements.iterator();
-        for (; ite.hasNext(); ) {
-            Groupe g = ite.next();
-            final String label = g.getLabel();
-
-            int i = 0, j = 0;
-            while (i < label.length() && j < searched.length()) {
-                if (label.charAt(i) == searched.charAt(j)) {
-                    ++j;
-                }
-
-                ++i;
-            }
-
-            if (j == searched.length()) {
-                groupModel.addRow(g);
-            }
-        }
-
-        return groupModel;
+    protected String getSortKey(int colonne) {
+        return colonne < sortKeys.length ? sortKeys[colonne] : null;
     }
 }
@@ -1,14 +1,8 @@
 package backend.modele;
 
 import backend.data.Message;
-import com.mysql.jdbc.StringUtils;
 
-import javax.swing.event.TableModelListener;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import static backend.database.Keys.*;
 
 public class MessageModel extends SearchableModel<Message> {
     private static final String[] columnNames = {
@@ -19,23 +13,18 @@ public class MessageModel extends SearchableModel<Message> {
             "ID USER"
     };
 
+    // Le contenu n'est pas trié : seul son début est indexé
+    private static final String[] sortKeys = {
+            MESSAGE_ID,
+            null,
+            MESSAGE_HEURE_ENVOIE,
+            MESSAGE_TICKET_ID,
+            MESSAGE_UTILISATEUR_ID
+    };
 
-    public MessageModel(ResultSet set) {
-        try {
-            for (; set.next(); ) {
-                elements.add(new Message(set, new ArrayList<>(), new ArrayList<>()));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private MessageModel() {
-
-    }
 
-    public MessageModel(List<Message> messages) {
-        elements.addAll(messages);
+    public MessageModel(PageRequester requester) {
+        super(TABLE_NAME_MESSAGE, requester);
     }
 
     @Override
@@ -68,9 +57,7 @@ public class MessageModel extends SearchableModel<Message> {
     }
 
     @Override
-    public Object getValueAt(int ligne, int colonne) {
-        Message m = elements.get(ligne);
-
+    protected Object getColumnValue(Message m, int colonne) {
         switch (colonne) {
             case 0:
                 return m.getID();
@@ -97,50 +84,7 @@ public class MessageModel extends SearchableModel<Message> {
     }
 
     @Override
-    public void setValueAt(Object o, int ligne, int colonne) {
-
-    }
-
-    @Override
-    public void addTableModelListener(TableModelListener tableModelListener) {
-
-    }
-
-    @Override
-    public void removeTableModelListener(TableModelListener tableModelListener) {
-
-    }
-
-    @Override
-    public SearchableModel<Message> retrieveSearchModel(String searched) {
-        if (StringUtils.isEmptyOrWhitespaceOnly(searched)) {
-            return this;
-        }
-
-        MessageModel messageModel = new MessageModel();
-
-        Iterator<Message> ite = elements.iterator();
-        for (; ite.hasNext(); ) {
-            Message m = ite.next();
-            final String[] strs = {m.getUtilisateurID().toString(), m.getTicketID().toString(), m.getHeureEnvoie().toString(), m.getContenu()};
-
-            for (String s : strs) {
-                int i = 0, j = 0;
-                while (i < s.length() && j < searched.length()) {
-                    if (s.charAt(i) == searched.charAt(j)) {
-                        ++j;
-                    }
-
-                    ++i;
-                }
-
-                if (j == searched.length()) {
-                    messageModel.addRow(m);
-                    break;
-                }
-            }
-        }
-
-        return messageModel;
+    protected String getSortKey(int colonne) {
+        return colonne < sortKeys.length ? sortKeys[colonne] : null;
     }
 }
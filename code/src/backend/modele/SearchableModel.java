@@ -1,78 +1,349 @@
 package backend.modele;
 
 import backend.data.ProjectTable;
+import backend.database.TableQuery;
 
-import javax.swing.table.DefaultTableModel;
-import javax.swing.table.TableModel;
-import java.util.ArrayList;
-import java.util.ListIterator;
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
-public abstract class SearchableModel<T extends ProjectTable> implements TableModel {
+/**
+ * Vue d'une table de la base pour l'interface d'administration.
+ * La base trie, filtre et découpe la table en pages de {@link #PAGE_SIZE} lignes :
+ * seules les {@link #CACHED_PAGES} dernières pages affichées sont gardées, les autres
+ * sont demandées à l'hôte quand la JTable en a besoin.
+ * <p>
+ * Les pages arrivent sur le thread de lecture du client, les évènements
+ * de la table sont envoyés sur le thread Swing.
+ * <p>
+ * Les lignes ajoutées ou supprimées ailleurs sur le serveur ne rechargent pas la vue à chaque fois :
+ * au plus toutes les {@link #STALE_DELAY} ms, les pages gardées sont marquées périmées et restent
+ * affichées jusqu'à l'arrivée de leur nouvelle version, demandée quand la JTable les affiche.
+ *
+ * @param <T> - Le type des lignes
+ */
+public abstract class SearchableModel<T extends ProjectTable> extends AbstractTableModel {
 
-    protected ArrayList<T> elements = new ArrayList<T>();
+    /**
+     * Nombre de lignes par page
+     */
+    public static final int PAGE_SIZE = Math.min(Integer.getInteger("admin.pageSize", 100), TableQuery.MAX_LIMIT);
 
-    public abstract SearchableModel<T> retrieveSearchModel(final String searched);
+    /**
+     * Nombre de pages gardées par table
+     */
+    static final int CACHED_PAGES = Integer.getInteger("admin.cachedPages", 8);
+
+    /**
+     * Délai en ms pendant lequel les ajouts et suppressions sont regroupés avant de recompter la vue
+     */
+    static final int STALE_DELAY = Integer.getInteger("admin.refreshDelay", 2000);
+
+    public interface PageRequester {
+        /**
+         * Demande une page à l'hôte, la réponse est donnée à {@link #addPage}
+         *
+         * @param query - La page
+         */
+        void requestPage(TableQuery query);
+    }
+
+    private final String mTable;
+    private final PageRequester mRequester;
+
+    private final LinkedHashMap<Integer, List<T>> mPages = new LinkedHashMap<Integer, List<T>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+            if (size() <= CACHED_PAGES) {
+                return false;
+            }
+
+            mStale.remove(eldest.getKey());
+            return true;
+        }
+    };
+    private final HashSet<Integer> mRequested = new HashSet<>();
+    // Pages gardées dont une version plus récente doit être demandée
+    private final HashSet<Integer> mStale = new HashSet<>();
+    private final Timer mStaleTimer;
+    private String mFilter = "";
+    private String mSort = null;
+    private boolean mDescending = false;
+    private int mRowCount = 0;
+    private boolean mCounted = false;
+
+    /**
+     * @param table     - Le nom de la table
+     * @param requester - Qui envoie les demandes de page
+     */
+    protected SearchableModel(String table, PageRequester requester) {
+        mTable = table;
+        mRequester = requester;
+
+        mStaleTimer = new Timer(STALE_DELAY, e -> invalidate());
+        mStaleTimer.setRepeats(false);
+    }
+
+    /**
+     * @param row    - Une ligne
+     * @param column - Une colonne
+     * @return - Ce qu'affiche la cellule
+     */
+    protected abstract Object getColumnValue(T row, int column);
+
+    /**
+     * @param column - Une colonne
+     * @return - La colonne de la base sur laquelle trier, null si elle n'est pas triable
+     */
+    protected abstract String getSortKey(int column);
+
+    public String getTable() {
+        return mTable;
+    }
 
     @Override
     public int getRowCount() {
-        return elements.size();
+        TableQuery query;
+        synchronized (this) {
+            // Le nombre de lignes arrive avec la première page
+            query = mCounted ? null : request(0);
+        }
+
+        send(query);
+
+        synchronized (this) {
+            return mRowCount;
+        }
     }
 
-    public final boolean removeEntry(Long id) {
-        ListIterator<T> ite = elements.listIterator();
-        boolean deleted = false;
+    @Override
+    public Object getValueAt(int ligne, int colonne) {
+        final T row = getReferenceTo(ligne);
 
-        for (; ite.hasNext() && !deleted; ) {
-            T t = ite.next();
-            if (t.getID().equals(id)) {
-                ite.previous();
-                ite.remove();
+        return row == null ? null : getColumnValue(row, colonne);
+    }
+
+    /**
+     * @param index - L'indice de la ligne dans la vue
+     * @return - La ligne, null si sa page n'est pas encore arrivée. Elle est alors demandée.
+     */
+    public final T getReferenceTo(int index) {
+        TableQuery query = null;
+        T row = null;
 
-                deleted = true;
+        synchronized (this) {
+            final int page = index / PAGE_SIZE;
+            final List<T> rows = mPages.get(page);
+            if (rows == null || mStale.contains(page)) {
+                query = request(page);
+            }
+            if (rows != null && index % PAGE_SIZE < rows.size()) {
+                row = rows.get(index % PAGE_SIZE);
             }
         }
 
-        DefaultTableModel model = new DefaultTableModel();
-        model.addRow(new String[]{});
-
-        return deleted;
+        send(query);
+        return row;
     }
 
-    public final T getReferenceTo(Long id) {
-        for (T t : elements) {
-            if (t.getID().equals(id)) {
-                return t;
+    /**
+     * @param id - Un id
+     * @return - La ligne si elle est dans une page gardée, null sinon
+     */
+    public final synchronized T getReferenceTo(Long id) {
+        for (List<T> rows : mPages.values()) {
+            for (T row : rows) {
+                if (row.getID().equals(id)) {
+                    return row;
+                }
             }
         }
 
         return null;
     }
 
-    public final T getReferenceTo(int index) {
-        return elements.get(index);
+    /**
+     * Ne garde que les lignes qui commencent par un texte, dans une des colonnes de recherche de la table
+     *
+     * @param filter - Le texte, vide pour toute la table
+     */
+    public void setFilter(String filter) {
+        final String trimmed = filter == null ? "" : filter.trim();
+        synchronized (this) {
+            if (trimmed.equals(mFilter)) {
+                return;
+            }
+
+            mFilter = trimmed;
+        }
+
+        refresh();
+    }
+
+    /**
+     * Trie la vue sur une colonne, un deuxième appel sur la même colonne inverse l'ordre
+     *
+     * @param column - La colonne
+     */
+    public void sortBy(int column) {
+        final String key = getSortKey(column);
+        if (key == null) {
+            return;
+        }
+
+        synchronized (this) {
+            mDescending = key.equals(mSort) && !mDescending;
+            mSort = key;
+        }
+
+        refresh();
+    }
+
+    /**
+     * Oublie les pages gardées et redemande la première avec le nombre de lignes
+     */
+    public void refresh() {
+        final TableQuery query;
+        synchronized (this) {
+            mPages.clear();
+            mRequested.clear();
+            mStale.clear();
+            mCounted = false;
+            query = request(0);
+        }
+
+        send(query);
+    }
+
+    /**
+     * Marque les pages gardées comme périmées sans les oublier, le nombre de lignes sera recompté.
+     * Appelée sur le thread Swing par {@link #mStaleTimer}.
+     */
+    private void invalidate() {
+        final int rowCount;
+        synchronized (this) {
+            mStale.addAll(mPages.keySet());
+            mCounted = false;
+            rowCount = mRowCount;
+        }
+
+        // Seules les lignes affichées sont redessinées, et donc redemandées
+        if (rowCount > 0) {
+            fireTableRowsUpdated(0, rowCount - 1);
+        }
     }
 
+    /**
+     * Regroupe les ajouts et suppressions reçus pendant {@link #STALE_DELAY} ms
+     */
+    private void scheduleInvalidate() {
+        if (!mStaleTimer.isRunning()) {
+            mStaleTimer.start();
+        }
+    }
+
+    /**
+     * Ajoute une page reçue de l'hôte, ignorée si le filtre ou le tri a changé depuis sa demande
+     *
+     * @param query - La demande de la page
+     * @param rows  - Ses lignes
+     * @param total - Le nombre de lignes de la vue, null s'il n'a pas été compté
+     */
+    public void addPage(TableQuery query, List<T> rows, Integer total) {
+        final int page = query.getOffset() / PAGE_SIZE;
+        final boolean countChanged;
+
+        synchronized (this) {
+            if (!query.sameView(view(0)) || !mRequested.remove(page)) {
+                return;
+            }
+
+            mPages.put(page, rows);
+            mStale.remove(page);
+            countChanged = total != null && (!mCounted || total != mRowCount);
+            if (total != null) {
+                mRowCount = total;
+                mCounted = true;
+            }
+        }
+
+        final int first = page * PAGE_SIZE;
+        final int last = first + rows.size() - 1;
+        SwingUtilities.invokeLater(() -> {
+            if (countChanged) {
+                fireTableDataChanged();
+            } else if (last >= first) {
+                fireTableRowsUpdated(first, last);
+            }
+        });
+    }
+
+    /**
+     * Remplace une ligne si sa page est gardée
+     *
+     * @param updatedEntry - La ligne modifiée
+     */
     public void updateEntry(T updatedEntry) {
-        removeEntry(updatedEntry.getID());
-        addRow(updatedEntry);
+        int updated = -1;
+
+        synchronized (this) {
+            for (Map.Entry<Integer, List<T>> page : mPages.entrySet()) {
+                final List<T> rows = page.getValue();
+                for (int i = 0; i < rows.size(); ++i) {
+                    if (rows.get(i).getID().equals(updatedEntry.getID())) {
+                        rows.set(i, updatedEntry);
+                        updated = page.getKey() * PAGE_SIZE + i;
+                    }
+                }
+            }
+        }
+
+        if (updated >= 0) {
+            final int row = updated;
+            SwingUtilities.invokeLater(() -> fireTableRowsUpdated(row, row));
+        }
     }
 
+    /**
+     * Une ligne ajoutée décale les suivantes : les pages seront redemandées
+     *
+     * @param ts - La ligne ajoutée
+     */
     public void addRow(T ts) {
-        ListIterator<T> iterator = elements.listIterator();
-
-        boolean inserted = false;
-        for (; iterator.hasNext() && !inserted; ) {
-            T t = iterator.next();
-            if (t.getID() > ts.getID()) {
-                iterator.previous();
-                iterator.add(ts);
-            }
+        scheduleInvalidate();
+    }
+
+    /**
+     * Une ligne supprimée décale les suivantes : les pages seront redemandées
+     *
+     * @param id - L'id de la ligne supprimée
+     */
+    public void removeEntry(Long id) {
+        scheduleInvalidate();
+    }
 
-            inserted = t.getID() >= ts.getID();
+    /**
+     * @param page - L'indice de la page
+     * @return - La demande à envoyer, null si elle est déjà en cours
+     */
+    private TableQuery request(int page) {
+        if (!mRequested.add(page)) {
+            return null;
         }
 
-        if (!inserted) {
-            elements.add(ts);
+        return view(page);
+    }
+
+    private TableQuery view(int page) {
+        return new TableQuery(mTable, mFilter, mSort, mDescending, page * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    private void send(TableQuery query) {
+        if (query != null && mRequester != null) {
+            mRequester.requestPage(query);
         }
     }
 }
@@ -1,13 +1,8 @@
 package backend.modele;
 
 import backend.data.Ticket;
-import com.mysql.jdbc.StringUtils;
 
-import javax.swing.event.TableModelListener;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Iterator;
-import java.util.List;
+import static backend.database.Keys.*;
 
 public class TicketModel extends SearchableModel<Ticket> {
     private static final String[] columnNames = {
@@ -15,23 +10,14 @@ public class TicketModel extends SearchableModel<Ticket> {
             "TITRE"
     };
 
+    private static final String[] sortKeys = {
+            TICKET_ID,
+            TICKET_TITRE
+    };
 
-    public TicketModel(ResultSet set) {
-        try {
-            for (; set.next(); ) {
-                //tickets.add(new Ticket(set));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private TicketModel() {
-
-    }
 
-    public TicketModel(List<Ticket> tickets) {
-        elements.addAll(tickets);
+    public TicketModel(PageRequester requester) {
+        super(TABLE_NAME_TICKET, requester);
     }
 
     @Override
@@ -64,9 +50,7 @@ public class TicketModel extends SearchableModel<Ticket> {
     }
 
     @Override
-    public Object getValueAt(int ligne, int colonne) {
-        Ticket t = elements.get(ligne);
-
+    protected Object getColumnValue(Ticket t, int colonne) {
         switch (colonne) {
             case 0 : return t.getID();
             case 1 :
@@ -77,47 +61,7 @@ public class TicketModel extends SearchableModel<Ticket> {
     }
 
     @Override
-    public void setValueAt(Object o, int ligne, int colonne) {
-
-    }
-
-    @Override
-    public void addTableModelListener(TableModelListener tableModelListener) {
-
-    }
-
-    @Override
-    public void removeTableModelListener(TableModelListener tableModelListener) {
-
-    }
-
-    @Override
-    public SearchableModel<Ticket> retrieveSearchModel(String searched) {
-        if (StringUtils.isEmptyOrWhitespaceOnly(searched)) {
-            return this;
-        }
-
-        TicketModel ticketModel = new TicketModel();
-
-        Iterator<Ticket> ite = elements.iterator();
-        for (; ite.hasNext(); ) {
-            Ticket t = ite.next();
-            final String titre = t.getTitre();
-
-            int i = 0, j = 0;
-            while (i < titre.length() && j < searched.length()) {
-                if (titre.charAt(i) == searched.charAt(j)) {
-                    ++j;
-                }
-
-                ++i;
-            }
-
-            if (j == searched.length()) {
-                ticketModel.addRow(t);
-            }
-        }
-
-        return ticketModel;
+    protected String getSortKey(int colonne) {
+        return colonne < sortKeys.length ? sortKeys[colonne] : null;
     }
 }
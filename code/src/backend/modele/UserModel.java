@@ -1,13 +1,8 @@
 package backend.modele;
 
 import backend.data.Utilisateur;
-import com.mysql.jdbc.StringUtils;
 
-import javax.swing.event.TableModelListener;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.util.Iterator;
-import java.util.List;
+import static backend.database.Keys.*;
 
 public class UserModel extends SearchableModel<Utilisateur> {
 
@@ -19,28 +14,17 @@ public class UserModel extends SearchableModel<Utilisateur> {
             "TYPE"
     };
 
+    private static final String[] sortKeys = {
+            UTILISATEUR_ID,
+            UTILISATEUR_INE,
+            UTILISATEUR_NOM,
+            UTILISATEUR_PRENOM,
+            UTILISATEUR_TYPE
+    };
 
-    public UserModel(ResultSet set) {
-        try {
-            for (; set.next(); ) {
-                elements.add(new Utilisateur(set));
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-    }
-
-    public UserModel(List<Utilisateur> users) {
-        elements.addAll(users);
-    }
-
-    private UserModel() {
-
-    }
 
-    @Override
-    public int getRowCount() {
-        return elements.size();
+    public UserModel(PageRequester requester) {
+        super(TABLE_NAME_UTILISATEUR, requester);
     }
 
     @Override
@@ -73,9 +57,7 @@ public class UserModel extends SearchableModel<Utilisateur> {
     }
 
     @Override
-    public Object getValueAt(int ligne, int colonne) {
-        Utilisateur u = elements.get(ligne);
-
+    protected Object getColumnValue(Utilisateur u, int colonne) {
         switch (colonne) {
             case 0:
                 return u.getID();
@@ -87,87 +69,13 @@ public class UserModel extends SearchableModel<Utilisateur> {
                 return u.getPrenom();
             case 4:
                 return u.getType();
-            case 5:
-                return "ohohoh";
             default:
                 return null;
         }
     }
 
     @Override
-    public void setValueAt(Object o, int ligne, int colonne) {
-        Utilisateur u = elements.get(ligne);
-
-        switch (colonne) {
-            case 0:
-                u.setINE((String) o);
-                break;
-            case 1:
-                u.setNom((String) o);
-                break;
-            case 2:
-                u.setPrenom((String) o);
-                break;
-
-            case 4:
-                u.setType((String) o);
-                break;
-
-            default:
-                break;
-        }
-    }
-
-    @Override
-    public void addTableModelListener(TableModelListener tableModelListener) {
-
-    }
-
-    @Override
-    public void removeTableModelListener(TableModelListener tableModelListener) {
-
-    }
-
-    @Override
-    public SearchableModel<Utilisateur> retrieveSearchModel(String searched) {
-        if (StringUtils.isEmptyOrWhitespaceOnly(searched)) {
-            return this;
-        }
-
-        UserModel userModel = new UserModel();
-
-        Iterator<Utilisateur> ite = elements.iterator();
-        for (; ite.hasNext(); ) {
-            Utilisateur u = ite.next();
-            final String[] strs = {u.getPrenom(), u.getNom(), u.getINE(), u.getType()};
-
-            for (String s : strs) {
-                int i = 0, j = 0;
-                while (i < s.length() && j < searched.length()) {
-                    if (s.charAt(i) == searched.charAt(j)) {
-                        ++j;
-                    }
-
-                    ++i;
-                }
-
-                if (j == searched.length()) {
-                    userModel.addRow(u);
-                    break;
-                }
-            }
-        }
-
-        return userModel;
-    }
-
-    public Utilisateur getReferenceTo(String ine) {
-        for (Utilisateur user : elements) {
-            if (user.getINE().equals(ine)) {
-                return user;
-            }
-        }
-
-        return null;
+    protected String getSortKey(int colonne) {
+        return colonne < sortKeys.length ? sortKeys[colonne] : null;
     }
 }
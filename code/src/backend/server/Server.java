@@ -1,11 +1,13 @@
 package backend.server;
 
 import backend.server.communication.CommunicationMessage;
+import backend.server.communication.FrameCompressor;
+import backend.server.communication.FrameReader;
+import backend.server.communication.WireFormat;
 import debug.Debugger;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.SocketTimeoutException;
 
 
@@ -16,9 +18,22 @@ public interface Server {
     String ERROR_MESSAGE_SERVER_ERROR = "Le serveur a recontré une erreur.";
     String ERROR_MESSAGE_EMPTY_FIELD = "Tous les champs doivent être correctement remplis !";
 
-    BufferedWriter getSocketWriter();
+    /**
+     * @return - Le flux de la socket, les messages y sont écrits encodés en UTF-8
+     */
+    OutputStream getSocketOutput();
+
+    /**
+     * @return - Le format dans lequel les messages sont envoyés
+     */
+    WireFormat getWireFormat();
+
+    /**
+     * @return - La compression négociée sur la connexion, null si aucune
+     */
+    FrameCompressor getCompressor();
 
-    BufferedReader getSocketReader();
+    FrameReader getFrameReader();
 
     void addPendingMessage(CommunicationMessage message);
 
@@ -30,14 +45,17 @@ public interface Server {
     default boolean sendData(CommunicationMessage communicationMessage) {
         try {
 
-            BufferedWriter socketWriter = getSocketWriter();
-            if (socketWriter == null) {
+            OutputStream socketOutput = getSocketOutput();
+            if (socketOutput == null) {
                 throw new IOException();
             }
 
-            Debugger.logMessage("Server sendData", "Sending following data: " + communicationMessage.toFormattedString());
-            socketWriter.write(communicationMessage.toString());
-            socketWriter.flush();
+            if (Debugger.isDebugging) {
+                Debugger.logMessage("Server sendData", "Sending following data: " + communicationMessage.toFormattedString());
+            }
+
+            socketOutput.write(communicationMessage.getEncodedFrame(getWireFormat(), getCompressor()));
+            socketOutput.flush();
 
             return true;
 
@@ -58,24 +76,29 @@ public interface Server {
     default CommunicationMessage readData()
             throws IOException, CommunicationMessage.InvalidMessageException, SocketDisconnectedException {
 
-        String line;
-        BufferedReader socketReader = getSocketReader();
+        FrameReader frameReader = getFrameReader();
 
-        if (socketReader == null) {
+        if (frameReader == null) {
             return null;
         }
 
         try {
-            line = socketReader.readLine();
-            if (line == null) {
+            CommunicationMessage message = frameReader.read();
+            if (message == null) {
                 throw new SocketDisconnectedException();
             }
 
-            CommunicationMessage message = new CommunicationMessage(line);
-            Debugger.logColorMessage(Debugger.GREEN, "Server", "Received data: \n" + message.toFormattedString());
+            if (Debugger.isDebugging) {
+                Debugger.logColorMessage(Debugger.GREEN, "Server", "Received data: \n" + message.toFormattedString());
+            }
+
             return message;
         } catch (SocketTimeoutException e) {
             System.out.println("Socket read timeout !");
+        } catch (FrameReader.FrameTooLargeException e) {
+            // Le reste du flux ne peut plus être découpé
+            Debugger.logColorMessage(Debugger.RED, "Server", e.getMessage());
+            throw new SocketDisconnectedException(e.getMessage());
         }
 
         return null;
@@ -3,11 +3,17 @@ package backend.server.client;
 
 import backend.data.Groupe;
 import backend.data.Message;
+import backend.data.ProjectTable;
 import backend.data.Ticket;
 import backend.data.Utilisateur;
-import backend.modele.UserModel;
+import backend.database.TablePage;
+import backend.database.TableQuery;
 import backend.server.Server;
 import backend.server.communication.CommunicationMessage;
+import backend.server.communication.FrameCompressor;
+import backend.server.communication.FrameReader;
+import backend.server.communication.MESSAGE_TYPE;
+import backend.server.communication.WireFormat;
 import debug.Debugger;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -22,6 +28,10 @@ import java.io.*;
 import java.net.SocketException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static backend.database.Keys.*;
 import static utils.Utils.HOST;
@@ -36,11 +46,14 @@ public class Client extends Thread implements Server {
 
     private final static String DBG_COLOR = Debugger.YELLOW;
     private final static int SOCKET_TIMEOUT = 5000;
+    private final static long REQUEST_TIMEOUT = 60000;
 
     private SSLSocket mSocket;
 
-    private BufferedWriter mWriteStream;
-    private BufferedReader mReadStream;
+    private OutputStream mWriteStream;
+    private FrameReader mFrameReader;
+    private volatile WireFormat mWireFormat = WireFormat.LINE;
+    private volatile FrameCompressor mCompressor;
 
     private InteractiveUI ui;
     private Boolean running = false;
@@ -49,8 +62,15 @@ public class Client extends Thread implements Server {
 
     private Utilisateur myUser;
 
+    // Version des données locales renvoyée par la dernière mise à jour, 0 tant qu'il n'y en a pas eu
+    private volatile long mDataVersion = 0;
+
     private Stack<CommunicationMessage> pendingMessages = new Stack<>();
 
+    // Requêtes envoyées dont on attend la réponse, par identifiant
+    private final ConcurrentHashMap<Long, CompletableFuture<CommunicationMessage>> mPendingRequests = new ConcurrentHashMap<>();
+    private final AtomicLong mNextRequestID = new AtomicLong();
+
     /**
      * This class is used on the client side.
      * It's used to communicate with the host.
@@ -64,8 +84,8 @@ public class Client extends Thread implements Server {
 
             mSocket.setSoTimeout(SOCKET_TIMEOUT);
 
-            mWriteStream = new BufferedWriter(new OutputStreamWriter(mSocket.getOutputStream()));
-            mReadStream = new BufferedReader(new InputStreamReader(mSocket.getInputStream()));
+            mWriteStream = new BufferedOutputStream(mSocket.getOutputStream());
+            mFrameReader = new FrameReader(mSocket.getInputStream());
         } catch (IOException e) {
             e.printStackTrace();
             throw new ServerInitializationFailedException("Something went wrong while initializing connexion");
@@ -299,19 +319,106 @@ public class Client extends Thread implements Server {
     /**
      * Envoie des données et attend le retour de l'hôte.
      * S'arrête en cas de timeout.
+     * Lit elle-même la socket : à n'utiliser qu'avant le démarrage du thread de lecture
+     * ou depuis celui-ci (connexion, reconnexion). Les messages reçus entre temps
+     * qui ne sont pas la réponse sont traités normalement.
      *
      * @param communicationMessage Le message à envoyer
      * @return Le message retourné par l'hôte
      * @throws IOException -
      */
     public CommunicationMessage sendAndWaitForReturn(CommunicationMessage communicationMessage) throws IOException {
+        final long requestID = mNextRequestID.incrementAndGet();
+        communicationMessage.setRequestID(requestID);
         sendData(communicationMessage);
 
         try {
-            return readData();
+            CommunicationMessage message;
+            while ((message = readData()) != null) {
+                final Long responseID = message.getRequestID();
+
+                // Un hôte plus ancien ne renvoie pas l'identifiant
+                if (Long.valueOf(requestID).equals(responseID)
+                        || (responseID == null && message.getType() == MESSAGE_TYPE.RESPONSE)) {
+                    return message;
+                }
+
+                if (!completeRequest(message) && ui != null) {
+                    handleMessage(message);
+                }
+            }
         } catch (IOException | CommunicationMessage.InvalidMessageException | SocketDisconnectedException e) {
             return null;
         }
+
+        return null;
+    }
+
+    /**
+     * Envoie une requête sans attendre sa réponse.
+     * Le thread de lecture reconnaît la réponse à son identifiant,
+     * plusieurs requêtes peuvent donc être en cours en même temps.
+     * Non bloquante.
+     *
+     * @param communicationMessage - La requête
+     * @return - La réponse de l'hôte, en erreur si la connexion est perdue
+     * ou sans réponse au bout de REQUEST_TIMEOUT ms
+     */
+    public CompletableFuture<CommunicationMessage> request(CommunicationMessage communicationMessage) {
+        final long requestID = mNextRequestID.incrementAndGet();
+        communicationMessage.setRequestID(requestID);
+
+        CompletableFuture<CommunicationMessage> response = new CompletableFuture<>();
+        mPendingRequests.put(requestID, response);
+        response.orTimeout(REQUEST_TIMEOUT, TimeUnit.MILLISECONDS)
+                .whenComplete((message, error) -> mPendingRequests.remove(requestID));
+
+        sendData(communicationMessage);
+
+        return response;
+    }
+
+    /**
+     * Transmet un message reçu à la requête qui l'attend.
+     *
+     * @param message - Le message reçu
+     * @return - Si le message était la réponse à une requête en cours
+     */
+    private boolean completeRequest(CommunicationMessage message) {
+        final Long requestID = message.getRequestID();
+        if (requestID == null) {
+            return false;
+        }
+
+        CompletableFuture<CommunicationMessage> response = mPendingRequests.remove(requestID);
+        if (response == null) {
+            return false;
+        }
+
+        response.complete(message);
+        return true;
+    }
+
+    /**
+     * Traite la réponse d'une requête comme n'importe quel message reçu.
+     *
+     * @param response - La réponse, null en cas d'erreur
+     * @param error    - L'erreur, null si la réponse est arrivée
+     */
+    private void handleResponse(CommunicationMessage response, Throwable error) {
+        if (error != null) {
+            Debugger.logColorMessage(DBG_COLOR, "Client", "Request failed: " + error);
+            return;
+        }
+
+        if (response.isNack()) {
+            Debugger.logColorMessage(DBG_COLOR, "Client", "Request refused: " + response);
+            return;
+        }
+
+        if (ui != null) {
+            handleMessage(response);
+        }
     }
 
 
@@ -329,10 +436,19 @@ public class Client extends Thread implements Server {
 
         try {
             returnedData = sendAndWaitForReturn(
-                    CommunicationMessage.createConnection(INE, password)
+                    CommunicationMessage.createConnection(INE, password,
+                            WireFormat.fromProperties(), FrameCompressor.enabledByProperties())
             );
 
             if (returnedData != null && returnedData.isAck()) {
+                // L'hôte envoie dans le format accepté dès le message suivant
+                WireFormat accepted = returnedData.getWireFormat();
+                FrameCompressor compressor = returnedData.isCompressionRequested() ? new FrameCompressor() : null;
+                mFrameReader.setCompressor(compressor);
+                mFrameReader.setFormat(accepted);
+                mCompressor = compressor;
+                mWireFormat = accepted;
+
                 if (myUser == null) {
                     myUser = new Utilisateur(0L, "", "", INE, "");
                     myUser.setPassword(password);
@@ -381,7 +497,7 @@ public class Client extends Thread implements Server {
 
             try {
                 CommunicationMessage message = readData();
-                if (message == null || ui == null) {
+                if (message == null || completeRequest(message) || ui == null) {
                     continue;
                 }
 
@@ -403,6 +519,12 @@ public class Client extends Thread implements Server {
      */
     private void reconnect() {
         connected = false;
+
+        // Leurs réponses ne viendront jamais
+        for (CompletableFuture<CommunicationMessage> response : mPendingRequests.values()) {
+            response.completeExceptionally(new SocketDisconnectedException("Connexion perdue"));
+        }
+
         if (ui != null) {
             ui.setConnectionStatus(false);
         }
@@ -412,8 +534,10 @@ public class Client extends Thread implements Server {
                 mSocket = (SSLSocket) SSLContext.getDefault().getSocketFactory().createSocket(HOST, PORT);
                 mSocket.setSoTimeout(SOCKET_TIMEOUT);
 
-                mWriteStream = new BufferedWriter(new OutputStreamWriter(mSocket.getOutputStream()));
-                mReadStream = new BufferedReader(new InputStreamReader(mSocket.getInputStream()));
+                mWriteStream = new BufferedOutputStream(mSocket.getOutputStream());
+                mFrameReader = new FrameReader(mSocket.getInputStream());
+                mWireFormat = WireFormat.LINE;
+                mCompressor = null;
 
                 CommunicationMessage message = sendConnectionMessage(myUser.getINE(), myUser.getPassword());
                 connected = (message != null && message.isAck());
@@ -432,6 +556,11 @@ public class Client extends Thread implements Server {
             setRequestEverything(requestEverything);
             sendPendingMessages();
 
+            // Rattrape seulement ce qui a changé pendant la coupure
+            if (mDataVersion > 0) {
+                updateLocalDatabase();
+            }
+
             if (ui != null) {
                 ui.setConnectionStatus(true);
             }
@@ -477,48 +606,79 @@ public class Client extends Thread implements Server {
                 handleEntryUpdated(message);
                 break;
 
-            case TABLE_MODEL:
-                handleTableModelMessage(message);
+            case ADMIN_PAGE:
+                handleAdminPage(message);
+                break;
+
+            case READ_RECEIPT:
+                handleReadReceipt(message);
+                break;
+
+            case MESSAGE_PAGE:
+                handleMessagePage(message);
                 break;
         }
 
     }
 
     /**
-     * Traite un message de type "tablemodel", utilisée par l'UI serveur.
+     * Applique un accusé de lecture : l'hôte n'envoie que l'id du lecteur,
+     * son nom est celui des listes des messages ("nom prenom").
      *
-     * @param message - Le message envoyé par l'hôte
+     * @param message - L'accusé envoyé par l'hôte.
      */
-    private void handleTableModelMessage(CommunicationMessage message) {
+    private void handleReadReceipt(CommunicationMessage message) {
+        final Utilisateur reader = Utilisateur.getInstance(message.getReadReceiptReader());
+        if (reader == null) {
+            // Utilisateur inconnu : la prochaine mise à jour apportera l'état des messages
+            Debugger.logColorMessage(DBG_COLOR, "Client", "Unknown reader " + message.getReadReceiptReader());
+            return;
+        }
+
+        ui.readReceipt(message.getReadReceiptTicketID(), reader.getNom() + " " + reader.getPrenom(),
+                message.getReadReceiptFrom(), message.getReadReceiptTo());
+    }
+
+    /**
+     * Traite une page d'une table demandée par l'UI serveur avec {@link #requestTablePage(TableQuery)}.
+     *
+     * @param message - La page envoyée par l'hôte
+     */
+    private void handleAdminPage(CommunicationMessage message) {
 
         if (ui instanceof ServerUI) {
-            Debugger.logMessage("Client", "Table model received, sending to the ui");
             ServerUI serverUI = (ServerUI) ui;
+            final TablePage page = message.getAdminPage();
 
-            final UserModel userModel = message.getTableModelUserModel();
-            final String password = myUser.getPassword();
-            myUser = userModel.getReferenceTo(myUser.getINE());
-            myUser.setPassword(password);
+            if (page.getQuery().getTable().equals(TABLE_NAME_UTILISATEUR)) {
+                for (ProjectTable row : page.getRows()) {
+                    final Utilisateur user = (Utilisateur) row;
+                    if (user.getINE().equals(myUser.getINE())) {
+                        user.setPassword(myUser.getPassword());
+                        myUser = user;
 
-            ui.setTitle("Administration | Connecté en tant que : " + myUser.getNom() + " " + myUser.getPrenom());
+                        ui.setTitle("Administration | Connecté en tant que : " + myUser.getNom() + " " + myUser.getPrenom());
+                    }
+                }
+            }
 
-            serverUI.setAllModels(
-                    message.getTableModelUserModel(),
-                    message.getTableModelGroupModel(),
-                    message.getTableModelTicketModel(),
-                    message.getTableModelMessageModel()
-            );
+            serverUI.addTablePage(page);
         }
 
     }
 
-
     /**
      * Traite un message de type local update.
      *
      * @param message - Le message envoyé par l'hôte.
      */
     private void handleLocalUpdate(CommunicationMessage message) {
+        if (message.isLocalUpdateDelta()) {
+            handleLocalUpdateDelta(message);
+            mDataVersion = message.getLocalUpdateVersion();
+            return;
+        }
+
         TreeSet<Groupe> relatedGroups = message.getLocalUpdateResponseRelatedGroups();
         TreeSet<String> allGroups = message.getLocalUpdateResponseAllGroups();
         TreeSet<Utilisateur> users = message.getLocalUpdateResponseUsers();
@@ -551,6 +711,82 @@ public class Client extends Thread implements Server {
         }
 
         sendData(CommunicationMessage.createMessageReceived(received));
+        mDataVersion = message.getLocalUpdateVersion();
+    }
+
+    /**
+     * Applique une mise à jour qui ne contient que les modifications depuis
+     * la version des données locales : les tickets reçus remplacent les anciens.
+     *
+     * @param message - Le message envoyé par l'hôte.
+     */
+    private void handleLocalUpdateDelta(CommunicationMessage message) {
+        for (Utilisateur user : message.getLocalUpdateResponseUsers()) {
+            Utilisateur.addInstance(user);
+
+            if (user.getID().equals(myUser.getID())) {
+                final String password = myUser.getPassword();
+                myUser = user;
+                myUser.setPassword(password);
+
+                ui.setTitle("Connecté en tant que : " + myUser.getNom() + " " + myUser.getPrenom());
+            }
+        }
+
+        TreeSet<String> allGroups = message.getLocalUpdateResponseAllGroups();
+        if (allGroups != null) {
+            ui.updateGroupsList(allGroups);
+        }
+
+        ArrayList<Message> received = new ArrayList<>();
+        for (Groupe groupe : message.getLocalUpdateResponseRelatedGroups()) {
+            ui.updateGroupe(groupe);
+
+            for (Ticket ticket : groupe.getTickets()) {
+                ui.updateTicket(groupe, ticket);
+
+                for (Message msg : ticket.getMessages()) {
+                    if (msg.state() < 3) {
+                        received.add(msg);
+                    }
+                }
+            }
+        }
+
+        try {
+            for (CommunicationMessage deletion : message.getLocalUpdateResponseDeletions()) {
+                handleEntryDeleted(deletion);
+            }
+        } catch (CommunicationMessage.InvalidMessageException e) {
+            e.printStackTrace();
+        }
+
+        if (!received.isEmpty()) {
+            sendData(CommunicationMessage.createMessageReceived(received));
+        }
+    }
+
+
+    /**
+     * Traite une page de messages demandée avec {@link #requestMessagePage(Long, Long)}.
+     * Les messages de la page sont reçus à ce moment.
+     *
+     * @param message - La page envoyée par l'hôte.
+     */
+    private void handleMessagePage(CommunicationMessage message) {
+        ArrayList<Message> messages = message.getPageMessages();
+        ui.addMessagePage(message.getPageTicketID(), messages, message.getPageBefore() == null, message.getPageNext());
+
+        ArrayList<Message> received = new ArrayList<>();
+        for (Message msg : messages) {
+            if (msg.state() < 3) {
+                received.add(msg);
+            }
+        }
+
+        if (!received.isEmpty()) {
+            sendData(CommunicationMessage.createMessageReceived(received));
+        }
     }
 
 
@@ -670,13 +906,15 @@ public class Client extends Thread implements Server {
                 break;
 
             case TABLE_NAME_TICKET:
+                // Un en-tête : seuls les messages modifiés sont présents
                 Ticket ticket = message.getEntryAsTicket();
                 ui.updateTicket(message.getEntryRelatedGroup(), ticket);
 
                 if (ticket.containsUnreceivedMessages()) {
-                    TreeSet<Message> messages = ticket.getMessages();
-                    if (messages != null) {
-                        received.addAll(messages);
+                    for (Message msg : ticket.getMessages()) {
+                        if (msg.state() < 3) {
+                            received.add(msg);
+                        }
                     }
                 }
                 break;
@@ -710,11 +948,23 @@ public class Client extends Thread implements Server {
 
     /**
      * Envoie un message pour demander la maj des données
-     * locale au serveur.
+     * locale au serveur, seules les modifications depuis
+     * la dernière maj sont renvoyées.
      * Non bloquante.
      */
     public void updateLocalDatabase() {
-        sendData(CommunicationMessage.createLocalUpdate(new Date(0)));
+        request(CommunicationMessage.createLocalUpdate(mDataVersion)).whenComplete(this::handleResponse);
+    }
+
+    /**
+     * Demande une page de messages d'un ticket, du plus récent au plus ancien.
+     * Non bloquante.
+     *
+     * @param ticketID - Le ticket en question
+     * @param before   - Le curseur reçu avec la page précédente, null pour les messages les plus récents
+     */
+    public void requestMessagePage(Long ticketID, Long before) {
+        request(CommunicationMessage.createMessagePageRequest(ticketID, before)).whenComplete(this::handleResponse);
     }
 
     /**
@@ -729,11 +979,13 @@ public class Client extends Thread implements Server {
 
 
     /**
-     * Utilisée par l'ui serveur pour demander
-     * toutes les tables au serveur.
+     * Utilisée par l'ui serveur pour demander une page d'une table,
+     * triée et filtrée par le serveur. Non bloquante.
+     *
+     * @param query - La table, le filtre, le tri et la position de la page
      */
-    public void retrieveAllModels() {
-        sendData(CommunicationMessage.createTableModelRequest());
+    public void requestTablePage(TableQuery query) {
+        request(CommunicationMessage.createAdminQuery(query)).whenComplete(this::handleResponse);
     }
 
     /**
@@ -752,13 +1004,23 @@ public class Client extends Thread implements Server {
     }
 
     @Override
-    public BufferedWriter getSocketWriter() {
+    public OutputStream getSocketOutput() {
         return mWriteStream;
     }
 
     @Override
-    public BufferedReader getSocketReader() {
-        return mReadStream;
+    public WireFormat getWireFormat() {
+        return mWireFormat;
+    }
+
+    @Override
+    public FrameCompressor getCompressor() {
+        return mCompressor;
+    }
+
+    @Override
+    public FrameReader getFrameReader() {
+        return mFrameReader;
     }
 
     @Override
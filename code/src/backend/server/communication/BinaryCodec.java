@@ -0,0 +1,311 @@
+package backend.server.communication;
+
+import backend.data.EncodedEntry;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONString;
+import org.json.JSONTokener;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Encodage binaire compact des données d'un message pour le format {@link WireFormat#BINARY}.
+ * Chaque valeur est précédée d'un octet de tag, les entiers et les tailles sont
+ * des varints : pas d'échappement ni de guillemets, et la lecture ne fait
+ * aucune analyse de texte.
+ */
+final class BinaryCodec {
+
+    /**
+     * Longueur du corps sur 4 octets puis octet de type.
+     */
+    static final int HEADER_SIZE = 5;
+
+    /**
+     * Imbrication maximale de tableaux et d'objets acceptée en lecture :
+     * au delà, une petite trame suffirait à épuiser la pile du thread qui la lit.
+     */
+    static final int MAX_DEPTH = 64;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_FALSE = 1;
+    private static final byte TAG_TRUE = 2;
+    private static final byte TAG_INTEGER = 3;
+    private static final byte TAG_DOUBLE = 4;
+    private static final byte TAG_STRING = 5;
+    private static final byte TAG_ARRAY = 6;
+    private static final byte TAG_OBJECT = 7;
+    private static final byte TAG_DECIMAL = 8;
+
+    private byte[] mBuffer;
+    private int mSize;
+
+    private BinaryCodec(int capacity) {
+        mBuffer = new byte[capacity];
+    }
+
+    /**
+     * Encode une trame complète, en-tête compris.
+     *
+     * @param type - Octet de type du message
+     * @param data - Données du message
+     * @return - La trame prête à être écrite sur la socket
+     */
+    static byte[] encodeFrame(byte type, JSONObject data) {
+        BinaryCodec codec = new BinaryCodec(256);
+        codec.mSize = HEADER_SIZE;
+        codec.writeObject(data);
+
+        final int length = codec.mSize - HEADER_SIZE;
+        byte[] frame = Arrays.copyOf(codec.mBuffer, codec.mSize);
+        frame[0] = (byte) (length >>> 24);
+        frame[1] = (byte) (length >>> 16);
+        frame[2] = (byte) (length >>> 8);
+        frame[3] = (byte) length;
+        frame[4] = type;
+
+        return frame;
+    }
+
+    /**
+     * @param body - Corps d'une trame, sans l'en-tête
+     * @return - Les données du message
+     * @throws CommunicationMessage.InvalidMessageException - Si le corps est tronqué ou mal formé
+     */
+    static JSONObject decode(byte[] body) throws CommunicationMessage.InvalidMessageException {
+        try {
+            Reader reader = new Reader(body);
+            Object value = reader.readValue(0);
+            if (!(value instanceof JSONObject) || reader.mPosition != body.length) {
+                throw new CommunicationMessage.InvalidMessageException("Malformed binary frame");
+            }
+
+            return (JSONObject) value;
+        } catch (ArrayIndexOutOfBoundsException | NegativeArraySizeException e) {
+            throw new CommunicationMessage.InvalidMessageException("Truncated binary frame");
+        }
+    }
+
+    private void writeValue(Object value) {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            writeByte(TAG_NULL);
+        } else if (value instanceof Boolean) {
+            writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            writeByte(TAG_INTEGER);
+            writeVarLong(((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            writeByte(TAG_DOUBLE);
+            writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+        } else if (value instanceof BigInteger || value instanceof BigDecimal) {
+            writeByte(TAG_DECIMAL);
+            writeString(value.toString());
+        } else if (value instanceof String) {
+            writeByte(TAG_STRING);
+            writeString((String) value);
+        } else if (value instanceof JSONObject) {
+            writeObject((JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray((JSONArray) value);
+        } else if (value instanceof EncodedEntry) {
+            writeEncoded((EncodedEntry) value);
+        } else if (value instanceof JSONString) {
+            // Même contenu que dans le format texte
+            writeValue(new JSONTokener(((JSONString) value).toJSONString()).nextValue());
+        } else {
+            // Tableaux, collections, maps... convertis comme le ferait toString()
+            Object wrapped = JSONObject.wrap(value);
+            if (wrapped instanceof JSONObject || wrapped instanceof JSONArray) {
+                writeValue(wrapped);
+            } else {
+                writeByte(TAG_STRING);
+                writeString(value.toString());
+            }
+        }
+    }
+
+    /**
+     * Une entrée partagée n'est encodée qu'au premier message qui la contient,
+     * les suivants recopient ses octets.
+     */
+    private void writeEncoded(EncodedEntry entry) {
+        byte[] binary = entry.getBinary();
+        if (binary == null) {
+            BinaryCodec codec = new BinaryCodec(256);
+            codec.writeValue(new JSONTokener(entry.toJSONString()).nextValue());
+            binary = Arrays.copyOf(codec.mBuffer, codec.mSize);
+            entry.setBinary(binary);
+        }
+
+        ensureCapacity(binary.length);
+        System.arraycopy(binary, 0, mBuffer, mSize, binary.length);
+        mSize += binary.length;
+    }
+
+    private void writeObject(JSONObject object) {
+        writeByte(TAG_OBJECT);
+        writeVarLong(object.length());
+        for (String key : object.keySet()) {
+            writeString(key);
+            writeValue(object.opt(key));
+        }
+    }
+
+    private void writeArray(JSONArray array) {
+        writeByte(TAG_ARRAY);
+        writeVarLong(array.length());
+        for (int i = 0; i < array.length(); ++i) {
+            writeValue(array.opt(i));
+        }
+    }
+
+    private void writeString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mSize, bytes.length);
+        mSize += bytes.length;
+    }
+
+    /**
+     * Varint zigzag : les petits entiers, même négatifs, tiennent sur un ou deux octets.
+     */
+    private void writeVarLong(long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+        ensureCapacity(10);
+        while ((zigzag & ~0x7FL) != 0) {
+            mBuffer[mSize++] = (byte) ((zigzag & 0x7F) | 0x80);
+            zigzag >>>= 7;
+        }
+        mBuffer[mSize++] = (byte) zigzag;
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            mBuffer[mSize++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void writeByte(byte value) {
+        ensureCapacity(1);
+        mBuffer[mSize++] = value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (mSize + extra > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mSize + extra));
+        }
+    }
+
+    private static class Reader {
+        private final byte[] mBody;
+        private int mPosition = 0;
+
+        Reader(byte[] body) {
+            mBody = body;
+        }
+
+        /**
+         * @param depth - Nombre de tableaux et d'objets englobant la valeur
+         */
+        Object readValue(int depth) throws CommunicationMessage.InvalidMessageException {
+            final byte tag = mBody[mPosition++];
+            switch (tag) {
+                case TAG_NULL:
+                    return JSONObject.NULL;
+
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+
+                case TAG_INTEGER:
+                    long value = readVarLong();
+                    if (value == (int) value) {
+                        return (int) value;
+                    }
+                    return value;
+
+                case TAG_DOUBLE:
+                    long bits = 0;
+                    for (int i = 0; i < 8; ++i) {
+                        bits = (bits << 8) | (mBody[mPosition++] & 0xFF);
+                    }
+                    return Double.longBitsToDouble(bits);
+
+                case TAG_DECIMAL:
+                    return new BigDecimal(readString());
+
+                case TAG_STRING:
+                    return readString();
+
+                case TAG_ARRAY:
+                    checkDepth(depth);
+                    final int length = readLength();
+                    JSONArray array = new JSONArray();
+                    for (int i = 0; i < length; ++i) {
+                        array.put(readValue(depth + 1));
+                    }
+                    return array;
+
+                case TAG_OBJECT:
+                    checkDepth(depth);
+                    final int count = readLength();
+                    JSONObject object = new JSONObject();
+                    for (int i = 0; i < count; ++i) {
+                        String key = readString();
+                        object.put(key, readValue(depth + 1));
+                    }
+                    return object;
+
+                default:
+                    throw new CommunicationMessage.InvalidMessageException("Unknown tag in binary frame: " + tag);
+            }
+        }
+
+        private static void checkDepth(int depth) throws CommunicationMessage.InvalidMessageException {
+            if (depth >= MAX_DEPTH) {
+                throw new CommunicationMessage.InvalidMessageException("Binary frame nested deeper than " + MAX_DEPTH);
+            }
+        }
+
+        private String readString() throws CommunicationMessage.InvalidMessageException {
+            final int length = readLength();
+            if (length > mBody.length - mPosition) {
+                throw new CommunicationMessage.InvalidMessageException("Truncated binary frame");
+            }
+
+            String value = new String(mBody, mPosition, length, StandardCharsets.UTF_8);
+            mPosition += length;
+            return value;
+        }
+
+        private int readLength() throws CommunicationMessage.InvalidMessageException {
+            final long length = readVarLong();
+            // Chaque élément occupe au moins un octet : une taille plus grande que le reste est fausse
+            if (length < 0 || length > mBody.length - mPosition) {
+                throw new CommunicationMessage.InvalidMessageException("Invalid length in binary frame: " + length);
+            }
+
+            return (int) length;
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte current;
+            do {
+                current = mBody[mPosition++];
+                zigzag |= (long) (current & 0x7F) << shift;
+                shift += 7;
+            } while ((current & 0x80) != 0 && shift < 70);
+
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+    }
+}
@@ -1,15 +1,19 @@
 package backend.server.communication;
 
 import backend.data.*;
-import backend.modele.GroupModel;
-import backend.modele.MessageModel;
-import backend.modele.TicketModel;
-import backend.modele.UserModel;
+import backend.database.LocalUpdateDelta;
+import backend.database.MessagePage;
+import backend.database.TablePage;
+import backend.database.TableQuery;
+import debug.Metrics;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.TreeSet;
@@ -20,6 +24,7 @@ public class CommunicationMessage {
 
     public static final String TYPE = "type";
     public static final String DATA = "data";
+    public static final String REQUEST_ID = "request_id";
 
     public final static String TABLE = "table";
     public final static String ENTRY = "entry";
@@ -37,8 +42,11 @@ public class CommunicationMessage {
     public final static String TYPE_ADD = "add";
     public final static String TYPE_UPDATE = "update";
     public final static String TYPE_MESSAGE_RECEIVED = "message_received";
+    public final static String TYPE_READ_RECEIPT = "read_receipt";
     public static final String CONNECTION_INE = "ine";
     public static final String CONNECTION_PASSWORD = "password";
+    public static final String CONNECTION_WIRE = "wire";
+    public static final String CONNECTION_COMPRESSION = "compression";
     public static final String TICKET_TITLE = "title";
     public static final String TICKET_MESSAGE = "message";
     public static final String TICKET_GROUP = "group";
@@ -49,20 +57,46 @@ public class CommunicationMessage {
     public static final String RESPONSE_ERROR = "error";
     public static final String RESPONSE_REASON = "reason";
     public static final String LOCAL_UPDATE_DATE = "contents";
+    public static final String LOCAL_UPDATE_VERSION = "version";
+    public static final String LOCAL_UPDATE_DELTA = "delta";
     private static final String TYPE_TICKET_CLICKED = "ticket_clicked";
     private static final String TYPE_TABLE_MODEL = "table_model";
     private static final String TYPE_TABLE_MODEL_REQUEST = "model_request";
+    private static final String TYPE_ADMIN_QUERY = "admin_query";
+    private static final String TYPE_ADMIN_PAGE = "admin_page";
     private static final String TYPE_REQUEST_EVERYTHING = "request_everything";
+    private static final String TYPE_MESSAGE_PAGE_REQUEST = "message_page_request";
+    private static final String TYPE_MESSAGE_PAGE = "message_page";
     private static final String TICKET_CLICKED_ID = "id";
     private static final String RELATED_TICKETS = "related_tickets";
     private static final String RELATED_GROUPS = "related_groups";
     private static final String ALL_GROUPS = "all_groups";
     private static final String USERS = "users";
     private static final String MESSAGE_RECEIVED = "message_received";
+    private static final String DELETED_ENTRIES = "deleted_entries";
+    private static final String READ_RECEIPT_TICKET = "ticket";
+    private static final String READ_RECEIPT_READER = "reader";
+    private static final String READ_RECEIPT_FROM = "from";
+    private static final String READ_RECEIPT_TO = "to";
+    private static final String PAGE_TICKET = "ticket";
+    private static final String PAGE_BEFORE = "before";
+    private static final String PAGE_NEXT = "next";
+    private static final String PAGE_MESSAGES = "messages";
+    private static final String PAGE_ROWS = "rows";
+    private static final String QUERY_FILTER = "filter";
+    private static final String QUERY_SORT = "sort";
+    private static final String QUERY_DESCENDING = "descending";
+    private static final String QUERY_OFFSET = "offset";
+    private static final String QUERY_LIMIT = "limit";
+    private static final String QUERY_TOTAL = "total";
     protected final MESSAGE_TYPE CLASSICMESSAGE_type;
 
     private String type;
     private JSONObject data = new JSONObject();
+    private String updatedEntryKey;
+    private volatile byte[] encodedFrame;
+    private volatile byte[] encodedBinaryFrame;
+    private volatile byte[] encodedCompressedFrame;
 
 
     /**
@@ -101,6 +135,61 @@ public class CommunicationMessage {
         CLASSICMESSAGE_type = guessType();
     }
 
+    /**
+     * Constructeur à partir d'un type et de données déjà décodées
+     *
+     * @param type - type de communication du message
+     * @param data - données du message
+     * @throws InvalidMessageException peut être renvoyé si les données ne correspondent pas au type
+     **/
+    private CommunicationMessage(final String type, JSONObject data) throws InvalidMessageException {
+        setTypeString(type);
+        setData(data);
+
+        CLASSICMESSAGE_type = guessType();
+    }
+
+    /**
+     * methode reconstruisant un message reçu en {@link WireFormat#BINARY}
+     *
+     * @param typeCode - octet de type de la trame
+     * @param body     - corps de la trame
+     * @return le message
+     * @throws InvalidMessageException si le type est inconnu ou le corps mal formé
+     **/
+    public static CommunicationMessage fromFrame(byte typeCode, byte[] body) throws InvalidMessageException {
+        return fromFrame(typeCode, body, null);
+    }
+
+    /**
+     * methode reconstruisant un message reçu en {@link WireFormat#BINARY}, éventuellement compressé
+     *
+     * @param typeCode   - octet de type de la trame
+     * @param body       - corps de la trame
+     * @param compressor - compression négociée sur la connexion, null si aucune
+     * @return le message
+     * @throws InvalidMessageException si le type est inconnu, le corps mal formé ou la compression non négociée
+     **/
+    public static CommunicationMessage fromFrame(byte typeCode, byte[] body, FrameCompressor compressor)
+            throws InvalidMessageException {
+
+        if ((typeCode & FrameCompressor.COMPRESSED_FLAG) != 0) {
+            if (compressor == null) {
+                throw new InvalidMessageException("Compressed frame on a connection without compression");
+            }
+
+            body = compressor.inflate(body);
+            typeCode &= ~FrameCompressor.COMPRESSED_FLAG;
+        }
+
+        MESSAGE_TYPE type = MESSAGE_TYPE.fromCode(typeCode);
+        if (type == null) {
+            throw new InvalidMessageException("Frame with invalid type: " + typeCode);
+        }
+
+        return new CommunicationMessage(typeName(type), BinaryCodec.decode(body));
+    }
+
 
     /**
      * methode créant un message NACK
@@ -146,6 +235,51 @@ public class CommunicationMessage {
         return communicationMessage;
     }
 
+    /**
+     * methode créant un message de connexion proposant un format d'échange
+     *
+     * @param ine      - Identifiant national d'étudiant
+     * @param password - mot de passe de celui se connectant
+     * @param format      - format souhaité une fois connecté
+     * @param compression - si la compression des grosses trames est proposée, uniquement en BINARY
+     * @return message de connexion créé
+     **/
+    public static CommunicationMessage createConnection(final String ine, final String password,
+                                                        final WireFormat format, final boolean compression) {
+        CommunicationMessage communicationMessage = createConnection(ine, password);
+
+        if (format != WireFormat.LINE) {
+            communicationMessage.addData(CONNECTION_WIRE, format.getName());
+
+            if (compression) {
+                communicationMessage.addData(CONNECTION_COMPRESSION, FrameCompressor.DEFLATE);
+            }
+        }
+
+        return communicationMessage;
+    }
+
+    /**
+     * Methode créant l'acquitement d'une connexion
+     *
+     * @param format      - format utilisé à partir du prochain message
+     * @param compression - si les grosses trames sont compressées à partir du prochain message
+     * @return message créé
+     **/
+    public static CommunicationMessage createConnectionAck(final WireFormat format, final boolean compression) {
+        CommunicationMessage result = createAck();
+
+        if (format != WireFormat.LINE) {
+            result.addData(CONNECTION_WIRE, format.getName());
+
+            if (compression) {
+                result.addData(CONNECTION_COMPRESSION, FrameCompressor.DEFLATE);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * methode créant un message de création de ticket
      *
@@ -196,21 +330,37 @@ public class CommunicationMessage {
         return communicationMessage;
     }
 
+    /**
+     * methode créant un message de demande de mise à jour à partir de la version des données locales
+     *
+     * @param version - version renvoyée par la dernière mise à jour, 0 pour tout recevoir
+     * @return message de demande de mise à jour créé
+     **/
+    public static CommunicationMessage createLocalUpdate(final long version) {
+        CommunicationMessage communicationMessage = createLocalUpdate(new Date(0));
+
+        communicationMessage.addData(LOCAL_UPDATE_VERSION, Long.toString(version));
+
+        return communicationMessage;
+    }
+
     /**
      * methode créant un message en réponse à une demande de mise à jour
      *
      * @param relatedGroups - groupes liés au client ayant fait la demande
      * @param allGroups     - tous les groupes de la base de données
+     * @param users         - tous les utilisateurs
+     * @param version       - version des données envoyées
      * @return message de réponse crée
-     * @users - tous les utilisateurs
      **/
     public static CommunicationMessage createLocalUpdateResponse(
-            TreeSet<Groupe> relatedGroups, TreeSet<String> allGroups, TreeSet<Utilisateur> users) {
+            TreeSet<Groupe> relatedGroups, TreeSet<String> allGroups, TreeSet<Utilisateur> users, long version) {
         CommunicationMessage communicationMessage = new CommunicationMessage(MESSAGE_TYPE.LOCAL_UPDATE_RESPONSE, TYPE_LOCAL_UPDATE_RESPONSE);
 
         JSONArray relatedGroupsArray = new JSONArray();
         for (Groupe group : relatedGroups) {
-            relatedGroupsArray.put(group.toJSON());
+            // Un groupe partagé entre les membres est déjà encodé
+            relatedGroupsArray.put(group instanceof EncodedEntry ? group : group.toJSON());
         }
 
         JSONArray usersArray = new JSONArray();
@@ -227,6 +377,52 @@ public class CommunicationMessage {
         communicationMessage.addData(RELATED_GROUPS, relatedGroupsArray);
         communicationMessage.addData(ALL_GROUPS, allGroupsArray);
         communicationMessage.addData(USERS, usersArray);
+        communicationMessage.addData(LOCAL_UPDATE_VERSION, Long.toString(version));
+
+        return communicationMessage;
+    }
+
+    /**
+     * methode créant une réponse à une demande de mise à jour qui ne contient que les modifications
+     *
+     * @param delta - les modifications depuis la version du client
+     * @return message de réponse crée
+     **/
+    public static CommunicationMessage createLocalUpdateResponse(LocalUpdateDelta delta) {
+        CommunicationMessage communicationMessage = new CommunicationMessage(MESSAGE_TYPE.LOCAL_UPDATE_RESPONSE, TYPE_LOCAL_UPDATE_RESPONSE);
+
+        JSONArray groupsArray = new JSONArray();
+        for (Groupe group : delta.getGroups()) {
+            groupsArray.put(group.toJSON());
+        }
+
+        JSONArray usersArray = new JSONArray();
+        for (Utilisateur u : delta.getUsers()) {
+            usersArray.put(u.toJSON());
+        }
+
+        JSONArray deletedArray = new JSONArray();
+        for (LocalUpdateDelta.Deletion deletion : delta.getDeletions()) {
+            JSONObject deleted = new JSONObject();
+            deleted.put(TABLE, deletion.getTable());
+            deleted.put(ENTRY, deletion.getEntry());
+            deletedArray.put(deleted);
+        }
+
+        communicationMessage.addData(LOCAL_UPDATE_DELTA, Boolean.TRUE.toString());
+        communicationMessage.addData(RELATED_GROUPS, groupsArray);
+        communicationMessage.addData(USERS, usersArray);
+        communicationMessage.addData(DELETED_ENTRIES, deletedArray);
+        communicationMessage.addData(LOCAL_UPDATE_VERSION, Long.toString(delta.getVersion()));
+
+        if (delta.getAllGroups() != null) {
+            JSONArray allGroupsArray = new JSONArray();
+            for (String s : delta.getAllGroups()) {
+                allGroupsArray.put(s);
+            }
+
+            communicationMessage.addData(ALL_GROUPS, allGroupsArray);
+        }
 
         return communicationMessage;
     }
@@ -247,6 +443,78 @@ public class CommunicationMessage {
 
     }
 
+    /**
+     * methode créant une demande de page de messages d'un ticket
+     *
+     * @param ticketID - le ticket
+     * @param before   - le curseur reçu avec la page précédente, null pour les messages les plus récents
+     * @return message créé
+     **/
+    public static CommunicationMessage createMessagePageRequest(Long ticketID, Long before) {
+
+        CommunicationMessage communicationMessage = new CommunicationMessage(MESSAGE_TYPE.MESSAGE_PAGE_REQUEST, TYPE_MESSAGE_PAGE_REQUEST);
+
+        communicationMessage.addData(PAGE_TICKET, ticketID.toString());
+        if (before != null) {
+            communicationMessage.addData(PAGE_BEFORE, before.toString());
+        }
+
+        return communicationMessage;
+
+    }
+
+    /**
+     * methode créant la réponse à une demande de page de messages
+     *
+     * @param page   - la page, du plus récent au plus ancien
+     * @param before - le curseur de la demande, null pour la première page
+     * @return message créé
+     **/
+    public static CommunicationMessage createMessagePage(MessagePage page, Long before) {
+
+        CommunicationMessage communicationMessage = new CommunicationMessage(MESSAGE_TYPE.MESSAGE_PAGE, TYPE_MESSAGE_PAGE);
+
+        communicationMessage.addData(PAGE_TICKET, Long.toString(page.getTicketID()));
+        if (before != null) {
+            communicationMessage.addData(PAGE_BEFORE, before.toString());
+        }
+        if (page.getNextPage() != null) {
+            communicationMessage.addData(PAGE_NEXT, page.getNextPage().toString());
+        }
+
+        JSONArray array = new JSONArray();
+        for (Message message : page.getMessages()) {
+            array.put(message.toJSON());
+        }
+        communicationMessage.addData(PAGE_MESSAGES, array);
+
+        return communicationMessage;
+
+    }
+
+    /**
+     * methode créant un accusé de lecture : un utilisateur a lu les messages d'un ticket
+     * dont l'id est compris entre from et to. Remplace l'envoi du ticket complet.
+     *
+     * @param ticketID - le ticket lu
+     * @param reader   - l'id du lecteur, le client retrouve son nom dans ses utilisateurs
+     * @param from     - le plus petit id de message lu
+     * @param to       - le plus grand id de message lu
+     * @return message créé
+     **/
+    public static CommunicationMessage createReadReceipt(Long ticketID, Long reader, Long from, Long to) {
+
+        CommunicationMessage communicationMessage = new CommunicationMessage(MESSAGE_TYPE.READ_RECEIPT, TYPE_READ_RECEIPT);
+
+        communicationMessage.addData(READ_RECEIPT_TICKET, ticketID.toString());
+        communicationMessage.addData(READ_RECEIPT_READER, reader.toString());
+        communicationMessage.addData(READ_RECEIPT_FROM, from.toString());
+        communicationMessage.addData(READ_RECEIPT_TO, to.toString());
+
+        return communicationMessage;
+
+    }
+
     /**
      * methode de création de message de signalement de signalement d'entrée supprimée
      *
@@ -289,7 +557,7 @@ public class CommunicationMessage {
      * @param table
      * @param entry
      * @param relatedGroup  - groupe sur lequel le ticket comportant le message est lié
-     * @param relatedTicket - ticket sur lequel le message à été posté
+     * @param relatedTicket - ticket sur lequel le message à été posté, seul son en-tête est envoyé
      * @return le message créé
      **/
     public static CommunicationMessage createMessageDeletedMessage
@@ -300,7 +568,7 @@ public class CommunicationMessage {
         communicationMessage.addData(TABLE, table);
         communicationMessage.addData(ENTRY, entry.toJSON().toString());
         communicationMessage.addData(RELATED_GROUPS, relatedGroup.toJSON().toString());
-        communicationMessage.addData(RELATED_TICKETS, relatedTicket.toJSON().toString());
+        communicationMessage.addData(RELATED_TICKETS, ticketHeader(relatedTicket, relatedGroup));
 
         return communicationMessage;
 
@@ -350,7 +618,7 @@ public class CommunicationMessage {
      * @param table
      * @param entry
      * @param relatedGroup  - groupe contenant le ticket sur lequel le message sera créé
-     * @param relatedTicket - ticket sur lequel le message va être posté
+     * @param relatedTicket - ticket sur lequel le message va être posté, seul son en-tête est envoyé
      * @return le message créé
      **/
     public static CommunicationMessage createMessageAddedMessage
@@ -361,7 +629,7 @@ public class CommunicationMessage {
         communicationMessage.addData(TABLE, table);
         communicationMessage.addData(ENTRY, entry.toJSON().toString());
         communicationMessage.addData(RELATED_GROUPS, relatedGroup.toJSON().toString());
-        communicationMessage.addData(RELATED_TICKETS, relatedTicket.toJSON().toString());
+        communicationMessage.addData(RELATED_TICKETS, ticketHeader(relatedTicket, relatedGroup));
 
         return communicationMessage;
 
@@ -388,17 +656,21 @@ public class CommunicationMessage {
     /**
      * methode créant un message de signalement de mise à jour d'un ticket
      *
+     * Seuls l'en-tête du ticket et les messages modifiés sont envoyés.
+     *
      * @param table        - table concernée
      * @param entry        - ticket modifiée
      * @param relatedGroup - groupe lié au ticket modifié
+     * @param changed      - messages du ticket modifiés
      * @return le message créé
      **/
-    public static CommunicationMessage createTicketUpdatedMessage(final String table, Ticket entry, Groupe relatedGroup) {
+    public static CommunicationMessage createTicketUpdatedMessage
+    (final String table, Ticket entry, Groupe relatedGroup, Collection<Message> changed) {
 
         CommunicationMessage communicationMessage = new CommunicationMessage(MESSAGE_TYPE.ENTRY_UPDATED, TYPE_ENTRY_UPDATED);
 
         communicationMessage.addData(TABLE, table);
-        communicationMessage.addData(ENTRY, entry.toJSON().toString());
+        communicationMessage.addData(ENTRY, entry.toHeaderJSON(relatedGroup.getID(), changed).toString());
         communicationMessage.addData(RELATED_GROUPS, relatedGroup.toJSON().toString());
 
         return communicationMessage;
@@ -411,7 +683,7 @@ public class CommunicationMessage {
      * @param table        - table concernée
      * @param entry        - message modifé
      * @param relatedGroup - groupe lié au ticket sur lequel le message est modifié
-     * @param ticket       - ticket sur lequel le message est modifié
+     * @param ticket       - ticket sur lequel le message est modifié, seul son en-tête est envoyé
      * @return le message créé
      **/
     public static CommunicationMessage createMessageUpdatedMessage(final String table, Message entry, Groupe relatedGroup, Ticket ticket) {
@@ -421,12 +693,23 @@ public class CommunicationMessage {
         communicationMessage.addData(TABLE, table);
         communicationMessage.addData(ENTRY, entry.toJSON().toString());
         communicationMessage.addData(RELATED_GROUPS, relatedGroup.toJSON().toString());
-        communicationMessage.addData(RELATED_TICKETS, ticket.toJSON().toString());
+        communicationMessage.addData(RELATED_TICKETS, ticketHeader(ticket, relatedGroup));
 
         return communicationMessage;
 
     }
 
+    /**
+     * En-tête d'un ticket lié à un message : le message est déjà l'entrée, aucun autre n'est envoyé.
+     *
+     * @param ticket       - le ticket du message
+     * @param relatedGroup - le groupe du ticket
+     * @return l'en-tête sous forme de chaîne
+     */
+    private static String ticketHeader(Ticket ticket, Groupe relatedGroup) {
+        return ticket.toHeaderJSON(relatedGroup.getID(), Collections.emptyList()).toString();
+    }
+
     /**
      * methode créant un message pour demander au serveur de supprimer une entrée
      *
@@ -481,19 +764,6 @@ public class CommunicationMessage {
 
     }
 
-    /**
-     * methode créant un message de demande des tables par un administrateur
-     *
-     * @return le message de demande
-     **/
-    public static CommunicationMessage createTableModelRequest() {
-
-        CommunicationMessage message = new CommunicationMessage(MESSAGE_TYPE.TABLE_MODEL_REQUEST, TYPE_TABLE_MODEL_REQUEST);
-
-        return message;
-
-    }
-
     /**
      * methode créant un message de demande au serveur de renvoi de tout ce qu'il reçoit à un administrateur
      *
@@ -570,6 +840,57 @@ public class CommunicationMessage {
 
     }
 
+    /**
+     * methode créant une demande de page d'une table par un administrateur
+     *
+     * @param query - la table, le filtre, le tri et la position de la page
+     * @return le message de demande
+     **/
+    public static CommunicationMessage createAdminQuery(TableQuery query) {
+
+        CommunicationMessage message = new CommunicationMessage(MESSAGE_TYPE.ADMIN_QUERY, TYPE_ADMIN_QUERY);
+        message.addQuery(query);
+
+        return message;
+
+    }
+
+    /**
+     * methode créant la réponse à une demande de page d'une table
+     *
+     * @param page - la page, qui reprend sa demande
+     * @return le message contenant la page
+     **/
+    public static CommunicationMessage createAdminPage(TablePage page) {
+
+        CommunicationMessage message = new CommunicationMessage(MESSAGE_TYPE.ADMIN_PAGE, TYPE_ADMIN_PAGE);
+        message.addQuery(page.getQuery());
+
+        JSONArray array = new JSONArray();
+        for (ProjectTable row : page.getRows()) {
+            array.put(row.toJSON());
+        }
+        message.addData(PAGE_ROWS, array);
+
+        if (page.getTotal() != null) {
+            message.addData(QUERY_TOTAL, page.getTotal().toString());
+        }
+
+        return message;
+
+    }
+
+    private void addQuery(TableQuery query) {
+        addData(TABLE, query.getTable());
+        addData(QUERY_FILTER, query.getFilter());
+        if (query.getSort() != null) {
+            addData(QUERY_SORT, query.getSort());
+        }
+        addData(QUERY_DESCENDING, Boolean.toString(query.isDescending()));
+        addData(QUERY_OFFSET, Integer.toString(query.getOffset()));
+        addData(QUERY_LIMIT, Integer.toString(query.getLimit()));
+    }
+
     /**
      * methode permettant d'ajouter des informations sur un message
      *
@@ -578,6 +899,9 @@ public class CommunicationMessage {
      **/
     protected void addData(String key, JSONArray data) {
         this.data.put(key, data);
+        this.encodedFrame = null;
+        this.encodedBinaryFrame = null;
+        this.encodedCompressedFrame = null;
     }
     
     /**
@@ -596,6 +920,9 @@ public class CommunicationMessage {
     **/
     protected void setData(JSONObject data) {
         this.data = data;
+        this.encodedFrame = null;
+        this.encodedBinaryFrame = null;
+        this.encodedCompressedFrame = null;
     }
     
     /**
@@ -614,6 +941,9 @@ public class CommunicationMessage {
     **/
     protected void setTypeString(String type) {
         this.type = type;
+        this.encodedFrame = null;
+        this.encodedBinaryFrame = null;
+        this.encodedCompressedFrame = null;
     }
     
     /**
@@ -624,6 +954,9 @@ public class CommunicationMessage {
     **/
     protected void addData(String key, String data) {
         this.data.put(key, data);
+        this.encodedFrame = null;
+        this.encodedBinaryFrame = null;
+        this.encodedCompressedFrame = null;
     }
     
    /**
@@ -634,6 +967,9 @@ public class CommunicationMessage {
     **/
     protected void addData(String key, byte[] data) {
         this.data.put(key, data);
+        this.encodedFrame = null;
+        this.encodedBinaryFrame = null;
+        this.encodedCompressedFrame = null;
     }
 
     /**
@@ -665,6 +1001,74 @@ public class CommunicationMessage {
         return result.toString() + "\n";
     }
     
+    /**
+     * retourne le message tel qu'il est envoyé sur le réseau (toString encodé en UTF-8),
+     * calculé une seule fois puis partagé par tous les destinataires
+     *
+     * @return les octets du message, le tableau ne doit pas être modifié
+    **/
+    public byte[] getEncodedFrame() {
+        byte[] frame = encodedFrame;
+        if (frame == null) {
+            final long start = System.nanoTime();
+            frame = toString().getBytes(StandardCharsets.UTF_8);
+            encodedFrame = frame;
+
+            Metrics.add("encode.line.nanos", System.nanoTime() - start);
+            Metrics.add("encode.line.bytes", frame.length);
+        }
+
+        return frame;
+    }
+
+    /**
+     * retourne le message tel qu'il est envoyé dans le format donné,
+     * chaque format n'est calculé qu'une fois
+     *
+     * @param format - format de la connexion
+     * @return les octets du message, le tableau ne doit pas être modifié
+    **/
+    public byte[] getEncodedFrame(WireFormat format) {
+        if (format != WireFormat.BINARY) {
+            return getEncodedFrame();
+        }
+
+        byte[] frame = encodedBinaryFrame;
+        if (frame == null) {
+            final long start = System.nanoTime();
+            frame = BinaryCodec.encodeFrame(getType().getCode(), data);
+            encodedBinaryFrame = frame;
+
+            Metrics.add("encode.binary.nanos", System.nanoTime() - start);
+            Metrics.add("encode.binary.bytes", frame.length);
+        }
+
+        return frame;
+    }
+
+    /**
+     * retourne le message tel qu'il est envoyé sur une connexion ayant négocié la compression.
+     * La trame compressée est elle aussi partagée : le premier destinataire la calcule
+     * avec son propre Deflater, les suivants la réutilisent.
+     *
+     * @param format     - format de la connexion
+     * @param compressor - compression de la connexion, null si aucune
+     * @return les octets du message, le tableau ne doit pas être modifié
+    **/
+    public byte[] getEncodedFrame(WireFormat format, FrameCompressor compressor) {
+        if (format != WireFormat.BINARY || compressor == null) {
+            return getEncodedFrame(format);
+        }
+
+        byte[] frame = encodedCompressedFrame;
+        if (frame == null) {
+            frame = compressor.compress(getEncodedFrame(WireFormat.BINARY));
+            encodedCompressedFrame = frame;
+        }
+
+        return frame;
+    }
+
     /**
      * traduit le message sous forme JSONObject en un String formaté via la fonction format
      *
@@ -786,6 +1190,28 @@ public class CommunicationMessage {
         return data.has(TYPE) && data.has(DATA);
     }
     
+    /**
+     * Accesseur sur l'identifiant de requête, recopié par l'hôte dans sa réponse
+     *
+     * @return l'identifiant, null si le message n'en a pas
+    **/
+    public Long getRequestID() {
+        if (!getData().has(REQUEST_ID)) {
+            return null;
+        }
+
+        return getData().getLong(REQUEST_ID);
+    }
+
+    /**
+     * Mutateur sur l'identifiant de requête
+     *
+     * @param requestID - l'identifiant choisi par l'émetteur de la requête
+    **/
+    public void setRequestID(long requestID) {
+        addData(REQUEST_ID, Long.toString(requestID));
+    }
+
     /**
      * Accesseur sur la table stockée sur les données du message
      *
@@ -828,6 +1254,42 @@ public class CommunicationMessage {
         }
     }
     
+    /**
+     * methode retournant une clé identifiant l'entrée concernée par une mise à jour,
+     * deux mises à jour de même clé décrivent le même objet en entier : la plus récente remplace l'autre
+     *
+     * Les mises à jour de tickets et de messages ne sont que des en-têtes avec les messages modifiés,
+     * appliquées une à une par le client : elles n'ont pas de clé et ne sont jamais remplacées.
+     *
+     * @return table et identifiant de l'entrée, null si le message n'est pas une mise à jour d'une entrée complète
+    **/
+    public String getUpdatedEntryKey() {
+        if (getType() != MESSAGE_TYPE.ENTRY_UPDATED) {
+            return null;
+        }
+
+        if (updatedEntryKey != null) {
+            return updatedEntryKey;
+        }
+
+        final String idKey;
+        switch (getTable()) {
+            case TABLE_NAME_UTILISATEUR:
+                idKey = UTILISATEUR_ID;
+                break;
+
+            case TABLE_NAME_GROUPE:
+                idKey = GROUPE_ID;
+                break;
+
+            default:
+                return null;
+        }
+
+        updatedEntryKey = getTable() + ":" + getEntryAsJSON().opt(idKey);
+        return updatedEntryKey;
+    }
+
     /**
      * methode retournant un utilisateur en fonction d'un entrée de table
      *
@@ -864,6 +1326,66 @@ public class CommunicationMessage {
         return new Message(getEntryAsJSON());
     }
 
+    /**
+     * methode renvoyant le type de communication correspondant à un type de message,
+     * inverse de guessType()
+     *
+     * @param type - le type du message
+     * @return le type de communication
+     **/
+    private static String typeName(MESSAGE_TYPE type) {
+        switch (type) {
+            case KEYXCHANGE:
+                return TYPE_KEY_XCHANGE;
+            case CONNECTION:
+                return TYPE_CONNECTION;
+            case MESSAGE:
+                return TYPE_MESSAGE;
+            case RESPONSE:
+                return TYPE_RESPONSE;
+            case TICKET:
+                return TYPE_TICKET;
+            case LOCAL_UPDATE:
+                return TYPE_LOCAL_UPDATE;
+            case LOCAL_UPDATE_RESPONSE:
+                return TYPE_LOCAL_UPDATE_RESPONSE;
+            case TICKET_CLICKED:
+                return TYPE_TICKET_CLICKED;
+            case ENTRY_ADDED:
+                return TYPE_ENTRY_ADDED;
+            case ENTRY_DELETED:
+                return TYPE_ENTRY_DELETED;
+            case ENTRY_UPDATED:
+                return TYPE_ENTRY_UPDATED;
+            case DELETE:
+                return TYPE_DELETE;
+            case ADD:
+                return TYPE_ADD;
+            case UPDATE:
+                return TYPE_UPDATE;
+            case TABLE_MODEL:
+                return TYPE_TABLE_MODEL;
+            case TABLE_MODEL_REQUEST:
+                return TYPE_TABLE_MODEL_REQUEST;
+            case ADMIN_QUERY:
+                return TYPE_ADMIN_QUERY;
+            case ADMIN_PAGE:
+                return TYPE_ADMIN_PAGE;
+            case REQUEST_EVERYTHING:
+                return TYPE_REQUEST_EVERYTHING;
+            case MESSAGE_RECEIVED:
+                return TYPE_MESSAGE_RECEIVED;
+            case READ_RECEIPT:
+                return TYPE_READ_RECEIPT;
+            case MESSAGE_PAGE_REQUEST:
+                return TYPE_MESSAGE_PAGE_REQUEST;
+            case MESSAGE_PAGE:
+                return TYPE_MESSAGE_PAGE;
+            default:
+                throw new IllegalArgumentException("No type name for " + type);
+        }
+    }
+
     /**
      * methode appelant getTypeToString() et renvoyant le type d'un message
      *
@@ -934,12 +1456,32 @@ public class CommunicationMessage {
             case TYPE_TABLE_MODEL_REQUEST:
                 return MESSAGE_TYPE.TABLE_MODEL_REQUEST;
 
+            case TYPE_ADMIN_QUERY:
+                checkForAdminQueryValidity(false);
+                return MESSAGE_TYPE.ADMIN_QUERY;
+
+            case TYPE_ADMIN_PAGE:
+                checkForAdminQueryValidity(true);
+                return MESSAGE_TYPE.ADMIN_PAGE;
+
             case TYPE_REQUEST_EVERYTHING:
                 return MESSAGE_TYPE.REQUEST_EVERYTHING;
 
             case TYPE_MESSAGE_RECEIVED:
                 return MESSAGE_TYPE.MESSAGE_RECEIVED;
 
+            case TYPE_READ_RECEIPT:
+                checkForReadReceiptValidity();
+                return MESSAGE_TYPE.READ_RECEIPT;
+
+            case TYPE_MESSAGE_PAGE_REQUEST:
+                checkForMessagePageValidity(false);
+                return MESSAGE_TYPE.MESSAGE_PAGE_REQUEST;
+
+            case TYPE_MESSAGE_PAGE:
+                checkForMessagePageValidity(true);
+                return MESSAGE_TYPE.MESSAGE_PAGE;
+
 
             default:
                 throw new InvalidMessageException("Message with invalid type: " + getTypeToString());
@@ -958,6 +1500,19 @@ public class CommunicationMessage {
         }
     }
 
+    /**
+     * methode de verification d'une demande ou d'une page de table de l'administration
+     *
+     * @param response - true pour une page, qui doit aussi contenir ses lignes
+     * @throws InvalidMessageException si le message ne contient pas la table, la position ou les lignes de la page
+     **/
+    private void checkForAdminQueryValidity(boolean response) throws InvalidMessageException {
+        if (!getData().has(TABLE) || !getData().has(QUERY_OFFSET) || !getData().has(QUERY_LIMIT)
+                || (response && !getData().has(PAGE_ROWS))) {
+            throw new InvalidMessageException("Missing field in admin query message");
+        }
+    }
+
     /**
      * methode de verification des message de modification
      *
@@ -1089,7 +1644,7 @@ public class CommunicationMessage {
      * @throws InvalidMessageException si le message ne contient pas les champs all_groups et related_groups
      **/
     private void checkForLocalUpdateResponseValidity() throws InvalidMessageException {
-        if (!getData().has(ALL_GROUPS) || !getData().has(RELATED_GROUPS)) {
+        if (!getData().has(RELATED_GROUPS) || (!isLocalUpdateDelta() && !getData().has(ALL_GROUPS))) {
             throw new InvalidMessageException("Missing field in update message");
         }
     }
@@ -1105,6 +1660,30 @@ public class CommunicationMessage {
         }
     }
 
+    /**
+     * methode de vérification des accusés de lecture
+     *
+     * @throws InvalidMessageException si le message ne contient pas le ticket, le lecteur ou les ids des messages lus
+     **/
+    private void checkForReadReceiptValidity() throws InvalidMessageException {
+        if (!getData().has(READ_RECEIPT_TICKET) || !getData().has(READ_RECEIPT_READER)
+                || !getData().has(READ_RECEIPT_FROM) || !getData().has(READ_RECEIPT_TO)) {
+            throw new InvalidMessageException("Missing field in read receipt message");
+        }
+    }
+
+    /**
+     * methode de vérification des demandes et des pages de messages
+     *
+     * @param response - true pour une page, qui doit aussi contenir ses messages
+     * @throws InvalidMessageException si le message ne contient pas le ticket ou les messages de la page
+     **/
+    private void checkForMessagePageValidity(boolean response) throws InvalidMessageException {
+        if (!getData().has(PAGE_TICKET) || (response && !getData().has(PAGE_MESSAGES))) {
+            throw new InvalidMessageException("Missing field in message page");
+        }
+    }
+
     /**
      * methode vérifiant si le message est un ACK
      *
@@ -1200,6 +1779,25 @@ public class CommunicationMessage {
         return getData().getString(CONNECTION_PASSWORD);
     }
 
+    /**
+     * accesseur sur le format d'échange d'un message de connexion ou de son acquittement
+     *
+     * @return le format demandé ou accepté, LINE si absent
+     **/
+    public WireFormat getWireFormat() {
+        return WireFormat.fromName(getData().optString(CONNECTION_WIRE, null));
+    }
+
+    /**
+     * accesseur sur la compression d'un message de connexion ou de son acquittement
+     *
+     * @return si la compression est demandée ou acceptée
+     **/
+    public boolean isCompressionRequested() {
+        return getWireFormat() == WireFormat.BINARY
+                && FrameCompressor.DEFLATE.equals(getData().optString(CONNECTION_COMPRESSION, null));
+    }
+
     /**
      * accesseur sur le titre du ticket d'un message de type ticket
      *
@@ -1254,6 +1852,84 @@ public class CommunicationMessage {
         return getData().getLong(TICKET_CLICKED_ID);
     }
 
+    /**
+     * accesseur sur le ticket d'une demande ou d'une page de messages
+     *
+     * @return l'id du ticket
+     **/
+    public Long getPageTicketID() {
+        return getData().getLong(PAGE_TICKET);
+    }
+
+    /**
+     * accesseur sur le curseur d'une demande ou d'une page de messages
+     *
+     * @return le curseur de la demande, null pour la première page
+     **/
+    public Long getPageBefore() {
+        return getData().has(PAGE_BEFORE) ? getData().getLong(PAGE_BEFORE) : null;
+    }
+
+    /**
+     * accesseur sur le curseur de la page suivante d'une page de messages
+     *
+     * @return le curseur, null si c'est la dernière page
+     **/
+    public Long getPageNext() {
+        return getData().has(PAGE_NEXT) ? getData().getLong(PAGE_NEXT) : null;
+    }
+
+    /**
+     * accesseur sur les messages d'une page
+     *
+     * @return les messages, du plus récent au plus ancien
+     **/
+    public ArrayList<Message> getPageMessages() {
+        JSONArray array = getData().getJSONArray(PAGE_MESSAGES);
+        ArrayList<Message> messages = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); ++i) {
+            messages.add(new Message(array.getJSONObject(i)));
+        }
+
+        return messages;
+    }
+
+    /**
+     * accesseur sur le ticket d'un accusé de lecture
+     *
+     * @return l'id du ticket
+     **/
+    public Long getReadReceiptTicketID() {
+        return getData().getLong(READ_RECEIPT_TICKET);
+    }
+
+    /**
+     * accesseur sur le lecteur d'un accusé de lecture
+     *
+     * @return l'id du lecteur
+     **/
+    public Long getReadReceiptReader() {
+        return getData().getLong(READ_RECEIPT_READER);
+    }
+
+    /**
+     * accesseur sur le premier message lu d'un accusé de lecture
+     *
+     * @return le plus petit id de message lu
+     **/
+    public Long getReadReceiptFrom() {
+        return getData().getLong(READ_RECEIPT_FROM);
+    }
+
+    /**
+     * accesseur sur le dernier message lu d'un accusé de lecture
+     *
+     * @return le plus grand id de message lu
+     **/
+    public Long getReadReceiptTo() {
+        return getData().getLong(READ_RECEIPT_TO);
+    }
+
     /**
      * accesseur sur les groupes (liés à un utilisateur) d'un message de compte rendu de mise à jour
      *
@@ -1269,12 +1945,52 @@ public class CommunicationMessage {
         return groups;
     }
 
+    /**
+     * methode vérifiant si le compte rendu de mise à jour ne contient que les modifications
+     *
+     * @return true si seules les modifications sont présentes, false si toutes les données le sont
+     **/
+    public Boolean isLocalUpdateDelta() {
+        return getData().optBoolean(LOCAL_UPDATE_DELTA, false);
+    }
+
+    /**
+     * accesseur sur la version d'une demande ou d'un compte rendu de mise à jour
+     *
+     * @return la version, 0 si absente
+     **/
+    public long getLocalUpdateVersion() {
+        return getData().optLong(LOCAL_UPDATE_VERSION, 0);
+    }
+
+    /**
+     * accesseur sur les entrées supprimées d'un compte rendu de mise à jour partiel
+     *
+     * @return les suppressions, sous forme de messages de suppression d'entrée
+     * @throws InvalidMessageException si une suppression est mal formée
+     **/
+    public ArrayList<CommunicationMessage> getLocalUpdateResponseDeletions() throws InvalidMessageException {
+        ArrayList<CommunicationMessage> deletions = new ArrayList<>();
+        JSONArray array = getData().optJSONArray(DELETED_ENTRIES);
+        if (array != null) {
+            for (int i = 0; i < array.length(); ++i) {
+                deletions.add(new CommunicationMessage(TYPE_ENTRY_DELETED, array.getJSONObject(i)));
+            }
+        }
+
+        return deletions;
+    }
+
     /**
      * accesseur sur les groupes (tous) d'un message de compte rendu de mise à jour
      *
-     * @return un ensemble trié des groupes
+     * @return un ensemble trié des groupes, null si un compte rendu partiel ne les contient pas
      **/
     public TreeSet<String> getLocalUpdateResponseAllGroups() {
+        if (!getData().has(ALL_GROUPS)) {
+            return null;
+        }
+
         TreeSet<String> groups = new TreeSet<>();
         JSONArray array = getData().getJSONArray(ALL_GROUPS);
         for (int i = 0; i < array.length(); ++i) {
@@ -1319,63 +2035,61 @@ public class CommunicationMessage {
     }
 
     /**
-     * accesseur sur les utilisateurs d'un message contenant toutes les tables
+     * accesseur sur la demande d'une demande ou d'une page de table de l'administration
      *
-     * @return tous les utilisateurs
+     * @return la demande
      **/
-    public UserModel getTableModelUserModel() {
-        JSONArray array = getData().getJSONArray(TABLE_NAME_UTILISATEUR);
-        List<Utilisateur> users = new ArrayList<>();
-        for (int i = 0; i < array.length(); ++i) {
-            users.add(new Utilisateur(array.getJSONObject(i)));
-        }
-
-        return new UserModel(users);
+    public TableQuery getAdminQuery() {
+        return new TableQuery(
+                getTable(),
+                getData().optString(QUERY_FILTER, ""),
+                getData().has(QUERY_SORT) ? getData().getString(QUERY_SORT) : null,
+                getData().optBoolean(QUERY_DESCENDING, false),
+                getData().getInt(QUERY_OFFSET),
+                getData().getInt(QUERY_LIMIT)
+        );
     }
 
     /**
-     * accesseur sur les groupes d'un message contenant toutes les tables
+     * accesseur sur une page de table de l'administration
      *
-     * @return tous groupes
+     * @return la page, avec sa demande
      **/
-    public GroupModel getTableModelGroupModel() {
-        JSONArray array = getData().getJSONArray(TABLE_NAME_GROUPE);
-        List<Groupe> groups = new ArrayList<>();
-        for (int i = 0; i < array.length(); ++i) {
-            groups.add(new Groupe(array.getJSONObject(i)));
-        }
-
-        return new GroupModel(groups);
+    public TablePage getAdminPage() {
+        return new TablePage(getAdminQuery(), getRows(), getData().has(QUERY_TOTAL) ? getData().getInt(QUERY_TOTAL) : null);
     }
 
     /**
-     * accesseur sur tickets d'un message contenant toutes les tables
-     *
-     * @return tous tickets
+     * @return les lignes d'une page de table, la table est donnée par getTable()
      **/
-    public TicketModel getTableModelTicketModel() {
-        JSONArray array = getData().getJSONArray(TABLE_NAME_TICKET);
-        List<Ticket> tickets = new ArrayList<>();
+    private ArrayList<ProjectTable> getRows() {
+        JSONArray array = getData().getJSONArray(PAGE_ROWS);
+        ArrayList<ProjectTable> rows = new ArrayList<>(array.length());
         for (int i = 0; i < array.length(); ++i) {
-            tickets.add(new Ticket(array.getJSONObject(i)));
-        }
-
-        return new TicketModel(tickets);
-    }
-
-    /**
-     * accesseur sur les messages d'un message contenant toutes les tables
-     *
-     * @return tous les messages
-     **/
-    public MessageModel getTableModelMessageModel() {
-        JSONArray array = getData().getJSONArray(TABLE_NAME_MESSAGE);
-        List<Message> messages = new ArrayList<>();
-        for (int i = 0; i < array.length(); ++i) {
-            messages.add(new Message(array.getJSONObject(i)));
+            JSONObject row = array.getJSONObject(i);
+            switch (getTable()) {
+                case TABLE_NAME_UTILISATEUR:
+                    rows.add(new Utilisateur(row));
+                    break;
+
+                case TABLE_NAME_GROUPE:
+                    rows.add(new Groupe(row));
+                    break;
+
+                case TABLE_NAME_TICKET:
+                    rows.add(new Ticket(row));
+                    break;
+
+                case TABLE_NAME_MESSAGE:
+                    rows.add(new Message(row));
+                    break;
+
+                default:
+                    break;
+            }
         }
 
-        return new MessageModel(messages);
+        return rows;
     }
 
     /**
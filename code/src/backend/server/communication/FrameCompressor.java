@@ -0,0 +1,140 @@
+package backend.server.communication;
+
+import debug.Metrics;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression des trames binaires d'une connexion, négociée dans le message de connexion.
+ * Le Deflater et l'Inflater sont gardés pour toute la connexion au lieu d'être recréés à chaque trame.
+ * <p>
+ * Seuls les corps d'au moins {@link #THRESHOLD} octets sont compressés. Une trame compressée a le bit
+ * {@link #COMPRESSED_FLAG} dans son octet de type, son corps commence par la taille décompressée sur 4 octets.
+ */
+public class FrameCompressor {
+
+    /**
+     * "deflate" (par défaut) pour proposer ou accepter la compression, "none" pour la refuser.
+     */
+    public static final String PROPERTY = "wire.compression";
+
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Taille de corps à partir de laquelle une trame est compressée.
+     */
+    public static final int THRESHOLD = Integer.getInteger("wire.compressThreshold", 4096);
+
+    static final byte COMPRESSED_FLAG = (byte) 0x80;
+
+    private static final int RAW_LENGTH_SIZE = 4;
+
+    private final Deflater mDeflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final Inflater mInflater = new Inflater();
+    private byte[] mOutput = new byte[64 * 1024];
+
+    /**
+     * @return - Si la propriété système autorise la compression
+     */
+    public static boolean enabledByProperties() {
+        return System.getProperty(PROPERTY, DEFLATE).trim().toLowerCase(Locale.ROOT).equals(DEFLATE);
+    }
+
+    /**
+     * @param frame - Trame binaire non compressée
+     * @return - La trame compressée, ou la même trame si elle est trop petite ou que la compression ne gagne rien
+     */
+    byte[] compress(byte[] frame) {
+        final int length = frame.length - BinaryCodec.HEADER_SIZE;
+        if (length < THRESHOLD) {
+            return frame;
+        }
+
+        final long start = System.nanoTime();
+        byte[] compressed;
+
+        synchronized (mDeflater) {
+            mDeflater.reset();
+            mDeflater.setInput(frame, BinaryCodec.HEADER_SIZE, length);
+            mDeflater.finish();
+
+            int size = BinaryCodec.HEADER_SIZE + RAW_LENGTH_SIZE;
+            while (!mDeflater.finished()) {
+                if (size == mOutput.length) {
+                    mOutput = Arrays.copyOf(mOutput, mOutput.length * 2);
+                }
+                size += mDeflater.deflate(mOutput, size, mOutput.length - size);
+
+                if (size >= frame.length) {
+                    // Pas rentable
+                    return frame;
+                }
+            }
+
+            compressed = Arrays.copyOf(mOutput, size);
+        }
+
+        writeInt(compressed, 0, compressed.length - BinaryCodec.HEADER_SIZE);
+        compressed[4] = (byte) (frame[4] | COMPRESSED_FLAG);
+        writeInt(compressed, BinaryCodec.HEADER_SIZE, length);
+
+        Metrics.add("encode.deflate.nanos", System.nanoTime() - start);
+        Metrics.add("encode.deflate.bytes.in", frame.length);
+        Metrics.add("encode.deflate.bytes.out", compressed.length);
+
+        return compressed;
+    }
+
+    /**
+     * @param body - Corps d'une trame compressée
+     * @return - Le corps décompressé, alloué une seule fois à sa taille annoncée
+     * @throws CommunicationMessage.InvalidMessageException - Si le corps est mal formé ou annonce une taille trop grande
+     */
+    byte[] inflate(byte[] body) throws CommunicationMessage.InvalidMessageException {
+        if (body.length < RAW_LENGTH_SIZE) {
+            throw new CommunicationMessage.InvalidMessageException("Truncated compressed frame");
+        }
+
+        final int length = ((body[0] & 0xFF) << 24) | ((body[1] & 0xFF) << 16) | ((body[2] & 0xFF) << 8) | (body[3] & 0xFF);
+        if (length < 0 || length > FrameReader.MAX_FRAME_SIZE) {
+            throw new CommunicationMessage.InvalidMessageException("Compressed frame too large: " + length);
+        }
+
+        final byte[] result = new byte[length];
+
+        synchronized (mInflater) {
+            mInflater.reset();
+            mInflater.setInput(body, RAW_LENGTH_SIZE, body.length - RAW_LENGTH_SIZE);
+
+            try {
+                int read = 0;
+                while (read < length && !mInflater.finished()) {
+                    final int count = mInflater.inflate(result, read, length - read);
+                    if (count == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                        break;
+                    }
+                    read += count;
+                }
+
+                if (read != length) {
+                    throw new CommunicationMessage.InvalidMessageException("Compressed frame size mismatch");
+                }
+            } catch (DataFormatException e) {
+                throw new CommunicationMessage.InvalidMessageException("Corrupted compressed frame: " + e.getMessage());
+            }
+        }
+
+        return result;
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
@@ -0,0 +1,204 @@
+package backend.server.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Lit les messages d'une socket dans le {@link WireFormat} courant.
+ * Les deux formats partagent le même tampon, le format peut donc changer
+ * entre deux messages sans perdre d'octets déjà lus.
+ * <p>
+ * En binaire la taille est connue avant la lecture : une trame trop grande est refusée
+ * sans être lue et le corps est alloué une seule fois, directement à sa taille.
+ */
+public class FrameReader {
+
+    /**
+     * Taille maximale d'un message (ligne ou corps de trame), au delà la connexion est coupée.
+     */
+    public static final int MAX_FRAME_SIZE = Integer.getInteger("wire.maxFrame", 16 * 1024 * 1024);
+
+    /**
+     * Taille de l'en-tête d'une trame binaire.
+     */
+    public static final int HEADER_SIZE = BinaryCodec.HEADER_SIZE;
+
+    private final InputStream mInput;
+    private final byte[] mBuffer = new byte[8192];
+    private int mPosition = 0;
+    private int mLimit = 0;
+    private volatile WireFormat mFormat = WireFormat.LINE;
+    private volatile FrameCompressor mCompressor;
+
+    /**
+     * @param input - Le flux de la socket, non bufferisé : le lecteur a son propre tampon
+     */
+    public FrameReader(InputStream input) {
+        mInput = input;
+    }
+
+    /**
+     * @param format - Le format des prochains messages
+     */
+    public void setFormat(WireFormat format) {
+        mFormat = format;
+    }
+
+    public WireFormat getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * @param compressor - Décompresse les trames compressées, null si la compression n'a pas été négociée
+     */
+    public void setCompressor(FrameCompressor compressor) {
+        mCompressor = compressor;
+    }
+
+    /**
+     * Lit le prochain message.
+     *
+     * @return - Le message, null si la connexion a été fermée
+     * @throws IOException                                  - Si la lecture échoue
+     * @throws FrameTooLargeException                       - Si le message dépasse {@link #MAX_FRAME_SIZE}
+     * @throws CommunicationMessage.InvalidMessageException - Si le message est mal formé
+     */
+    public CommunicationMessage read() throws IOException, CommunicationMessage.InvalidMessageException {
+        if (mFormat == WireFormat.BINARY) {
+            return readFrame();
+        }
+
+        return readLine();
+    }
+
+    private CommunicationMessage readLine() throws IOException, CommunicationMessage.InvalidMessageException {
+        byte[] line = null;
+        int length = 0;
+
+        while (true) {
+            if (mPosition == mLimit && !fill()) {
+                return null;
+            }
+
+            int end = mPosition;
+            while (end < mLimit && mBuffer[end] != '\n') {
+                ++end;
+            }
+
+            final int count = end - mPosition;
+            if (line == null && end < mLimit) {
+                // Ligne entièrement dans le tampon
+                final int start = mPosition;
+                mPosition = end + 1;
+                final int stop = count > 0 && mBuffer[end - 1] == '\r' ? end - 1 : end;
+
+                return new CommunicationMessage(new String(mBuffer, start, stop - start, StandardCharsets.UTF_8));
+            }
+
+            if (length + count > MAX_FRAME_SIZE) {
+                throw new FrameTooLargeException(length + count);
+            }
+
+            if (line == null) {
+                line = new byte[Math.max(count, 256)];
+            } else if (length + count > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + count));
+            }
+
+            System.arraycopy(mBuffer, mPosition, line, length, count);
+            length += count;
+            mPosition = end;
+
+            if (end < mLimit) {
+                // Retour à la ligne
+                ++mPosition;
+                if (length > 0 && line[length - 1] == '\r') {
+                    --length;
+                }
+
+                return new CommunicationMessage(new String(line, 0, length, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private CommunicationMessage readFrame() throws IOException, CommunicationMessage.InvalidMessageException {
+        if (!require(HEADER_SIZE)) {
+            return null;
+        }
+
+        final int length = ((mBuffer[mPosition] & 0xFF) << 24) | ((mBuffer[mPosition + 1] & 0xFF) << 16)
+                | ((mBuffer[mPosition + 2] & 0xFF) << 8) | (mBuffer[mPosition + 3] & 0xFF);
+        final byte type = mBuffer[mPosition + 4];
+
+        if (length < 0 || length > MAX_FRAME_SIZE) {
+            throw new FrameTooLargeException(length);
+        }
+
+        mPosition += HEADER_SIZE;
+
+        final byte[] body = new byte[length];
+        final int buffered = Math.min(length, mLimit - mPosition);
+        System.arraycopy(mBuffer, mPosition, body, 0, buffered);
+        mPosition += buffered;
+
+        // Le reste du corps est lu directement dans son tableau
+        int read = buffered;
+        while (read < length) {
+            final int count = mInput.read(body, read, length - read);
+            if (count < 0) {
+                return null;
+            }
+            read += count;
+        }
+
+        return CommunicationMessage.fromFrame(type, body, mCompressor);
+    }
+
+    /**
+     * Garantit qu'au moins count octets sont disponibles dans le tampon.
+     *
+     * @return - false si la connexion a été fermée avant
+     */
+    private boolean require(int count) throws IOException {
+        if (mBuffer.length - mPosition < count) {
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+            mLimit -= mPosition;
+            mPosition = 0;
+        }
+
+        while (mLimit - mPosition < count) {
+            final int read = mInput.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (read < 0) {
+                return false;
+            }
+            mLimit += read;
+        }
+
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        mPosition = 0;
+        mLimit = 0;
+
+        final int read = mInput.read(mBuffer, 0, mBuffer.length);
+        if (read < 0) {
+            return false;
+        }
+
+        mLimit = read;
+        return true;
+    }
+
+    /**
+     * Le message annoncé ou en cours de lecture dépasse {@link #MAX_FRAME_SIZE}.
+     * Le flux n'est plus utilisable, la connexion doit être fermée.
+     */
+    public static class FrameTooLargeException extends IOException {
+        public FrameTooLargeException(long size) {
+            super("Frame too large: " + size + " bytes (max " + MAX_FRAME_SIZE + ")");
+        }
+    }
+}
@@ -1,20 +1,53 @@
 package backend.server.communication;
 
+/**
+ * Types de messages échangés entre le client et l'hôte.
+ * Le code de chaque type est l'octet de type des trames binaires :
+ * il ne doit jamais changer, les nouveaux types prennent un code libre.
+ */
 public enum MESSAGE_TYPE {
-    KEYXCHANGE,
-    CONNECTION,
-    TICKET,
-    MESSAGE,
-    RESPONSE,
-    LOCAL_UPDATE,
-    TICKET_CLICKED,
-    LOCAL_UPDATE_RESPONSE,
-    ENTRY_ADDED,
-    ENTRY_DELETED,
-    ENTRY_UPDATED,
-    DELETE,
-    UPDATE,
-    ADD,
-    TABLE_MODEL,
-    REQUEST_EVERYTHING, MESSAGE_RECEIVED, TABLE_MODEL_REQUEST
+    KEYXCHANGE(0),
+    CONNECTION(1),
+    TICKET(2),
+    MESSAGE(3),
+    RESPONSE(4),
+    LOCAL_UPDATE(5),
+    TICKET_CLICKED(6),
+    LOCAL_UPDATE_RESPONSE(7),
+    ENTRY_ADDED(8),
+    ENTRY_DELETED(9),
+    ENTRY_UPDATED(10),
+    DELETE(11),
+    UPDATE(12),
+    ADD(13),
+    TABLE_MODEL(14),
+    REQUEST_EVERYTHING(15), MESSAGE_RECEIVED(16), TABLE_MODEL_REQUEST(17), READ_RECEIPT(18),
+    MESSAGE_PAGE_REQUEST(19), MESSAGE_PAGE(20), ADMIN_QUERY(22), ADMIN_PAGE(23);
+
+    private final byte code;
+
+    MESSAGE_TYPE(int code) {
+        this.code = (byte) code;
+    }
+
+    /**
+     * @return - L'octet de type utilisé dans les trames binaires
+     */
+    public byte getCode() {
+        return code;
+    }
+
+    /**
+     * @param code - Octet de type d'une trame binaire
+     * @return - Le type correspondant, null si le code est inconnu
+     */
+    public static MESSAGE_TYPE fromCode(byte code) {
+        for (MESSAGE_TYPE type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+
+        return null;
+    }
 }
@@ -0,0 +1,60 @@
+package backend.server.communication;
+
+import java.util.Locale;
+
+/**
+ * Découpage des messages sur la socket.
+ * Une connexion commence toujours en LINE, le client propose BINARY
+ * dans son message de connexion et les deux côtés basculent
+ * juste après l'acquittement si l'hôte l'accepte.
+ */
+public enum WireFormat {
+
+    /**
+     * Un message JSON par ligne.
+     */
+    LINE("line"),
+
+    /**
+     * Trames préfixées par leur taille : longueur du corps sur 4 octets,
+     * octet de type ({@link MESSAGE_TYPE#getCode()}) puis corps encodé par {@link BinaryCodec}.
+     */
+    BINARY("binary");
+
+    /**
+     * Choisit le format proposé par le client ou accepté par l'hôte.
+     */
+    public static final String PROPERTY = "wire.format";
+
+    private final String name;
+
+    WireFormat(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return - Le nom du format tel qu'il est échangé dans le message de connexion
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param name - Nom reçu dans un message de connexion
+     * @return - Le format correspondant, LINE si absent ou inconnu
+     */
+    public static WireFormat fromName(String name) {
+        if (name != null && name.trim().toLowerCase(Locale.ROOT).equals(BINARY.name)) {
+            return BINARY;
+        }
+
+        return LINE;
+    }
+
+    /**
+     * @return - Le format voulu par la propriété système, BINARY si absente
+     */
+    public static WireFormat fromProperties() {
+        return fromName(System.getProperty(PROPERTY, BINARY.name));
+    }
+}
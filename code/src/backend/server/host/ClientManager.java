@@ -2,39 +2,66 @@ package backend.server.host;
 
 import backend.data.*;
 import backend.database.DatabaseManager;
+import backend.database.LocalUpdateDelta;
+import backend.database.MessagePage;
+import backend.database.TablePage;
 import backend.server.Server;
 import backend.server.communication.CommunicationMessage;
+import backend.server.communication.FrameCompressor;
+import backend.server.communication.FrameReader;
+import backend.server.communication.WireFormat;
 import debug.Debugger;
+import debug.Metrics;
 
 import javax.net.ssl.SSLSocket;
 import java.io.*;
-import java.sql.ResultSet;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Executor;
 
 import static backend.database.Keys.*;
 
-public class ClientManager extends Thread implements Server {
+public class ClientManager implements Server, Runnable {
 
     private final static String DBG_COLOR = Debugger.YELLOW;
+    private final static SlowConsumerPolicy SLOW_CONSUMER_POLICY = SlowConsumerPolicy.fromProperties();
+    private final static WireFormat ACCEPTED_WIRE_FORMAT = WireFormat.fromProperties();
+    private final static boolean COMPRESSION_ACCEPTED = FrameCompressor.enabledByProperties();
 
     private final SSLSocket mSocket;
-    private BufferedWriter mWriteStream;
-    private BufferedReader mReadStream;
+    private final SecureConnection mConnection;
+    private OutputStream mWriteStream;
+    private FrameReader mFrameReader;
+    private volatile FrameCompressor mCompressor;
+    private final OutboundQueue mOutbound;
 
     private Utilisateur user;
+    private List<Long> mGroupIDs = Collections.emptyList();
 
 
-    public ClientManager(final SSLSocket socket) throws ServerInitializationFailedException {
+    /**
+     * @param socket  - La socket du client
+     * @param writers - Exécuteur sur lequel la file d'envoi est vidée
+     * @throws ServerInitializationFailedException - Si les flux de la socket ne sont pas accessibles
+     */
+    public ClientManager(final SSLSocket socket, final Executor writers) throws ServerInitializationFailedException {
 
         try {
 
             mSocket = socket;
-            mWriteStream = new BufferedWriter(new OutputStreamWriter(mSocket.getOutputStream()));
-            mReadStream = new BufferedReader(new InputStreamReader(mSocket.getInputStream()));
+            mConnection = null;
+            mWriteStream = new BufferedOutputStream(mSocket.getOutputStream());
+            mFrameReader = new FrameReader(mSocket.getInputStream());
+            mOutbound = new OutboundQueue(OutboundQueue.DEFAULT_CAPACITY, SLOW_CONSUMER_POLICY,
+                    writers, mWriteStream, this::closeConnection);
 
             Debugger.logColorMessage(DBG_COLOR, "ClientManager", "New client manager created");
         } catch (IOException e) {
@@ -46,6 +73,27 @@ public class ClientManager extends Thread implements Server {
 
     }
 
+    /**
+     * Client manager servi par une boucle d'évènements.
+     * Il n'est pas démarré comme thread : la connexion lui transmet
+     * les messages reçus via {@link #onLineReceived(byte[])} ou {@link #onFrameReceived(byte, byte[])}.
+     *
+     * @param connection - La connexion non bloquante
+     * @param writers    - Exécuteur sur lequel la file d'envoi est vidée
+     */
+    ClientManager(final SecureConnection connection, final Executor writers) {
+        mSocket = null;
+        mConnection = connection;
+        mWriteStream = connection.getOutputStream();
+        mFrameReader = null;
+        mOutbound = new OutboundQueue(OutboundQueue.DEFAULT_CAPACITY, SLOW_CONSUMER_POLICY,
+                writers, mWriteStream, this::closeConnection);
+        mOutbound.setWritabilityGate(connection::isWritable);
+        connection.setWritabilityListener(mOutbound::resume);
+
+        Debugger.logColorMessage(DBG_COLOR, "ClientManager", "New client manager created");
+    }
+
     /**
      * @return - Si le client a les droits administrateurs ou non
      */
@@ -63,8 +111,6 @@ public class ClientManager extends Thread implements Server {
      */
     @Override
     public void run() {
-        super.run();
-
         Debugger.logColorMessage(DBG_COLOR, "ClientManager", "client manager is listening");
 
         boolean running = true;
@@ -86,16 +132,60 @@ public class ClientManager extends Thread implements Server {
 
         }
 
-        Debugger.logColorMessage(DBG_COLOR, "ClientManager", "Client is now disconnected, cleaning things..");
+        onDisconnected();
 
-        if (user != null) {
-            final String groups;
-            try {
-                groups = DatabaseManager.getInstance().relatedUserGroup(user.getINE());
-                Host.removeClient(new ArrayList<>(Arrays.asList(groups.split(";"))), user, this);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Traite une ligne reçue par une connexion non bloquante.
+     * Appelée sur un worker, dans l'ordre de réception.
+     *
+     * @param line - La ligne reçue, sans le retour à la ligne
+     */
+    void onLineReceived(byte[] line) {
+        try {
+            onMessageReceived(new CommunicationMessage(new String(line, StandardCharsets.UTF_8)));
+        } catch (CommunicationMessage.InvalidMessageException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Traite une trame binaire reçue par une connexion non bloquante.
+     * Appelée sur un worker, dans l'ordre de réception.
+     *
+     * @param type - L'octet de type de la trame
+     * @param body - Le corps de la trame
+     */
+    void onFrameReceived(byte type, byte[] body) {
+        try {
+            onMessageReceived(CommunicationMessage.fromFrame(type, body, mCompressor));
+        } catch (CommunicationMessage.InvalidMessageException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void onMessageReceived(CommunicationMessage communicationMessage) {
+        if (Debugger.isDebugging) {
+            Debugger.logColorMessage(Debugger.GREEN, "Server", "Received data: \n" + communicationMessage.toFormattedString());
+        }
+
+        handleMessage(communicationMessage);
+    }
+
+    /**
+     * Coupe la connexion du client, la déconnexion est ensuite
+     * traitée normalement par {@link #onDisconnected()}.
+     */
+    private void closeConnection() {
+        if (mConnection != null) {
+            mConnection.close();
+            return;
         }
 
         try {
@@ -103,8 +193,18 @@ public class ClientManager extends Thread implements Server {
         } catch (IOException e) {
             e.printStackTrace();
         }
+    }
+
+    /**
+     * Retire le client de l'hôte une fois déconnecté.
+     */
+    void onDisconnected() {
+        Debugger.logColorMessage(DBG_COLOR, "ClientManager", "Client is now disconnected, cleaning things..");
+        mOutbound.close();
 
-        interrupt();
+        if (user != null) {
+            Host.removeClient(mGroupIDs, user, this);
+        }
     }
 
 
@@ -131,7 +231,7 @@ public class ClientManager extends Thread implements Server {
                 break;
 
             case LOCAL_UPDATE:
-                handleLocalUpdateMessage();
+                handleLocalUpdateMessage(communicationMessage);
                 break;
 
             case TICKET_CLICKED:
@@ -151,7 +251,7 @@ public class ClientManager extends Thread implements Server {
                 break;
 
             case TABLE_MODEL_REQUEST:
-                handleTableModelRequestMessage();
+                handleTableModelRequestMessage(communicationMessage);
                 break;
 
             case REQUEST_EVERYTHING:
@@ -161,6 +261,14 @@ public class ClientManager extends Thread implements Server {
             case MESSAGE_RECEIVED:
                 handleMessageReceivedMessage(communicationMessage);
                 break;
+
+            case MESSAGE_PAGE_REQUEST:
+                handleMessagePageRequest(communicationMessage);
+                break;
+
+            case ADMIN_QUERY:
+                handleAdminQueryMessage(communicationMessage);
+                break;
         }
 
     }
@@ -181,15 +289,21 @@ public class ClientManager extends Thread implements Server {
 
             if (communicationMessage.isConnection()) {
                 DatabaseManager database = DatabaseManager.getInstance();
-                ResultSet set = database.credentialsAreValid(communicationMessage.getConnectionINE(), communicationMessage.getConnectionPassword());
-                queryResult = set.next();
+                Utilisateur connected = database.credentialsAreValid(communicationMessage.getConnectionINE(), communicationMessage.getConnectionPassword());
+                queryResult = connected != null;
 
                 if (queryResult) {
-                    user = new Utilisateur(set);
+                    user = connected;
 
-                    String groups = database.relatedUserGroup(user.getINE());
+                    ArrayList<Groupe> groups = database.relatedUserGroups(user.getID());
                     Debugger.logColorMessage(DBG_COLOR, "Client Manager", "Affiliated groupe for " + user.getINE() + ": " + groups);
-                    Host.addClient(new ArrayList<>(Arrays.asList(groups.split(";"))), user, this);
+
+                    mGroupIDs = new ArrayList<>();
+                    for (Groupe groupe : groups) {
+                        mGroupIDs.add(groupe.getID());
+                    }
+
+                    Host.addClient(groups, user, this);
                 } else {
                     fail_reason = "Erreur nom utilisateur / mot de passe";
                 }
@@ -207,20 +321,53 @@ public class ClientManager extends Thread implements Server {
 
 
         if (queryResult) {
-            sendData(CommunicationMessage.createAck());
+            acknowledgeConnection(communicationMessage, communicationMessage.getWireFormat(), communicationMessage.isCompressionRequested());
         } else {
-            sendData(CommunicationMessage.createNack(fail_reason));
+            reply(communicationMessage, CommunicationMessage.createNack(fail_reason));
         }
 
     }
 
 
+    /**
+     * Acquitte la connexion et bascule dans le format et la compression demandés par le client si l'hôte les accepte.
+     * La lecture bascule avant l'envoi de l'acquittement : le client n'envoie rien
+     * dans le nouveau format avant de l'avoir reçu.
+     *
+     * @param request     - Le message de connexion
+     * @param requested   - Le format proposé par le client
+     * @param compression - Si le client propose la compression
+     */
+    private void acknowledgeConnection(CommunicationMessage request, WireFormat requested, boolean compression) {
+        final WireFormat format = requested == WireFormat.BINARY && ACCEPTED_WIRE_FORMAT == WireFormat.BINARY
+                ? WireFormat.BINARY : WireFormat.LINE;
+        final FrameCompressor compressor = format == WireFormat.BINARY && compression && COMPRESSION_ACCEPTED
+                ? new FrameCompressor() : null;
+
+        mCompressor = compressor;
+        if (mConnection != null) {
+            mConnection.setWireFormat(format);
+        } else {
+            mFrameReader.setCompressor(compressor);
+            mFrameReader.setFormat(format);
+        }
+
+        CommunicationMessage ack = CommunicationMessage.createConnectionAck(format, compressor != null);
+        if (request.getRequestID() != null) {
+            ack.setRequestID(request.getRequestID());
+        }
+
+        if (!mOutbound.offerThenSwitch(ack, format, compressor)) {
+            addPendingMessage(ack);
+        }
+    }
+
     /**
      * Fonction qui traite la création d'un ticket
      *
      * @param communicationMessage Le message qui contient le ticket
      */
-    private synchronized void handleTicketCreation(CommunicationMessage communicationMessage) {
+    private void handleTicketCreation(CommunicationMessage communicationMessage) {
 
         try {
 
@@ -245,12 +392,12 @@ public class ClientManager extends Thread implements Server {
                             relatedGroup
                     );
 
+                    // Le créateur reçoit le ticket même s'il n'est pas membre du groupe, une seule fois sinon
                     Host.broadcastToGroup(
                             message,
-                            relatedGroup.getLabel()
+                            relatedGroup.getID(),
+                            user.getID()
                     );
-
-                    Host.sendToClient(user, message);
                 }
             }
 
@@ -266,7 +413,7 @@ public class ClientManager extends Thread implements Server {
      *
      * @param communicationMessage Le message à ajouter.
      */
-    private synchronized void handleClassicMessage(CommunicationMessage communicationMessage) {
+    private void handleClassicMessage(CommunicationMessage communicationMessage) {
         Debugger.logColorMessage(DBG_COLOR, "ClientManager", "Classic message: \n" + communicationMessage.toString());
 
         try {
@@ -286,9 +433,9 @@ public class ClientManager extends Thread implements Server {
                     Debugger.logColorMessage(DBG_COLOR, "ClientManager", insertedMessage.toJSON().toString());
 
                     Groupe group = database.relatedTicketGroup(insertedMessage.getTicketID());
-                    Ticket ticket = database.getTicket(insertedMessage.getTicketID());
-                    Long userID = database.ticketCreator(insertedMessage.getTicketID());
-                    if (group != null) {
+                    Ticket ticket = database.getTicketHeader(insertedMessage.getTicketID());
+                    Long creatorID = database.ticketCreator(insertedMessage.getTicketID());
+                    if (group != null && ticket != null) {
                         CommunicationMessage message = CommunicationMessage.createMessageAddedMessage(
                                 TABLE_NAME_MESSAGE,
                                 insertedMessage,
@@ -297,8 +444,7 @@ public class ClientManager extends Thread implements Server {
                         );
 
                         Debugger.logColorMessage(DBG_COLOR, "ClientManager", "Broadcasting to group : " + group);
-                        Host.broadcastToGroup(message, group.getLabel());
-                        Host.sendToClient(user, message);
+                        Host.broadcastToGroup(message, group.getID(), user.getID(), creatorID);
                     }
 
                 }
@@ -314,19 +460,61 @@ public class ClientManager extends Thread implements Server {
 
     /**
      * Fonction qui traite une demande de maj locale.
+     *
+     * @param communicationMessage La demande
      */
-    private void handleLocalUpdateMessage() {
+    private void handleLocalUpdateMessage(CommunicationMessage communicationMessage) {
 
         Debugger.logColorMessage(DBG_COLOR, "ClientManager", "Handling a local update message");
 
         try {
-            TreeSet<Groupe> relatedGroups = DatabaseManager.getInstance().treatLocalUpdateMessage(user);
-            TreeSet<String> allGroups = DatabaseManager.getInstance().getAllGroups();
-            TreeSet<Utilisateur> users = DatabaseManager.getInstance().getAllUsers();
+            DatabaseManager database = DatabaseManager.getInstance();
+
+            // Un client qui a déjà des données ne reçoit que ce qui a changé depuis
+            LocalUpdateDelta delta = database.treatLocalUpdateMessage(user, communicationMessage.getLocalUpdateVersion());
+            if (delta != null) {
+                Metrics.increment("local_update.delta");
+                reply(communicationMessage, CommunicationMessage.createLocalUpdateResponse(delta));
+                return;
+            }
+
+            // Version lue avant les données : ce qui change pendant la lecture sera renvoyé la prochaine fois
+            final long version = database.getDataVersion();
+            TreeSet<Groupe> relatedGroups = database.treatLocalUpdateMessage(user);
+            TreeSet<String> allGroups = database.getAllGroups();
+            TreeSet<Utilisateur> users = database.getAllUsers();
+
+            Metrics.increment("local_update.full");
+            reply(communicationMessage, CommunicationMessage.createLocalUpdateResponse(relatedGroups, allGroups, users, version));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            reply(communicationMessage, CommunicationMessage.createNack(ERROR_MESSAGE_DATABASE_ERROR));
+        }
+
+    }
+
+    /**
+     * Fonction qui traite une demande de page de messages d'un ticket.
+     *
+     * @param communicationMessage La demande
+     */
+    private void handleMessagePageRequest(CommunicationMessage communicationMessage) {
+
+        try {
+            final Long before = communicationMessage.getPageBefore();
+            MessagePage page = DatabaseManager.getInstance()
+                    .getMessagePage(user.getID(), communicationMessage.getPageTicketID(), before);
+
+            if (page == null) {
+                reply(communicationMessage, CommunicationMessage.createNack(ERROR_MESSAGE_HANDLE_DEMAND));
+                return;
+            }
 
-            sendData(CommunicationMessage.createLocalUpdateResponse(relatedGroups, allGroups, users));
+            Metrics.add("message_page.messages", page.getMessages().size());
+            reply(communicationMessage, CommunicationMessage.createMessagePage(page, before));
         } catch (SQLException e) {
             e.printStackTrace();
+            reply(communicationMessage, CommunicationMessage.createNack(ERROR_MESSAGE_DATABASE_ERROR));
         }
 
     }
@@ -336,26 +524,23 @@ public class ClientManager extends Thread implements Server {
      *
      * @param communicationMessage Le ticket
      */
-    private synchronized void handleTicketClickedMessage(CommunicationMessage communicationMessage) {
+    private void handleTicketClickedMessage(CommunicationMessage communicationMessage) {
 
         try {
 
             DatabaseManager manager = DatabaseManager.getInstance();
-            if (manager.getTicket(communicationMessage.getTicketClickedID()) != null) {
-                int editted = manager.setMessagesFromTicketRead(communicationMessage.getTicketClickedID(), user.getID());
-
-                if (editted > 0) {
-                    Ticket ticket = manager.getTicket(communicationMessage.getTicketClickedID());
-                    if (ticket != null) {
-                        Groupe groupe = manager.relatedTicketGroup(ticket.getID());
-                        if (groupe != null) {
-                            CommunicationMessage message = CommunicationMessage.createTicketUpdatedMessage(TABLE_NAME_TICKET, ticket, groupe);
-                            Host.broadcastToGroup(message, groupe.getLabel());
-
-                            Long ticketCreator = manager.ticketCreator(ticket.getID());
-                            Host.sendToClient(ticketCreator, message);
-                        }
-                    }
+            // Le groupe est en cache, le ticket n'est pas relu
+            Groupe groupe = manager.relatedTicketGroup(communicationMessage.getTicketClickedID());
+            if (groupe != null) {
+                final Long ticketID = communicationMessage.getTicketClickedID();
+                ArrayList<Long> editted = manager.setMessagesFromTicketRead(ticketID, user.getID());
+
+                if (!editted.isEmpty()) {
+                    // Seul l'accusé de lecture est envoyé, le ticket complet ne l'est qu'à la resynchronisation
+                    CommunicationMessage message = CommunicationMessage.createReadReceipt(
+                            ticketID, user.getID(), Collections.min(editted), Collections.max(editted)
+                    );
+                    Host.broadcastToGroup(message, groupe.getID(), manager.ticketCreator(ticketID));
                 }
             } else {
                 sendData(
@@ -376,7 +561,7 @@ public class ClientManager extends Thread implements Server {
      *
      * @param communicationMessage L'entrée à supprimer et sa table
      */
-    private synchronized void handleDeleteMessage(CommunicationMessage communicationMessage) {
+    private void handleDeleteMessage(CommunicationMessage communicationMessage) {
 
         if (!isAdminOrStaff()) {
             return;
@@ -423,15 +608,20 @@ public class ClientManager extends Thread implements Server {
 
                 case TABLE_NAME_MESSAGE:
                     Message msg = database.getMessage(entry.getID());
-                    Ticket ticket = database.relatedMessageTicket(msg.getID());
-                    if (ticket != null) {
-                        relatedGroup = database.relatedTicketGroup(ticket.getID());
+                    // Le message donne déjà son ticket
+                    Long ticketID = msg == null ? null : msg.getTicketID();
+                    if (ticketID != null) {
+                        relatedGroup = database.relatedTicketGroup(ticketID);
                         if (relatedGroup != null) {
-                            if (database.deleteMessage(entry.getID())) {
-                                message = CommunicationMessage.createMessageDeletedMessage(
-                                        communicationMessage.getTable(), msg,
-                                        relatedGroup, ticket
-                                );
+                            if (database.deleteMessage(msg.getID(), ticketID)) {
+                                // L'en-tête est lu après la suppression, ses compteurs ne comptent plus le message
+                                Ticket ticket = database.getTicketHeader(ticketID);
+                                if (ticket != null) {
+                                    message = CommunicationMessage.createMessageDeletedMessage(
+                                            communicationMessage.getTable(), msg,
+                                            relatedGroup, ticket
+                                    );
+                                }
                             } else {
                                 Debugger.logColorMessage(DBG_COLOR, "ClientManager", "Deletion failed");
                                 success = false;
@@ -466,7 +656,7 @@ public class ClientManager extends Thread implements Server {
      *
      * @param communicationMessage L'entrée et sa table
      */
-    private synchronized void handleUpdateMessage(CommunicationMessage communicationMessage) {
+    private void handleUpdateMessage(CommunicationMessage communicationMessage) {
 
         if (!isAdminOrStaff()) {
             return;
@@ -503,14 +693,13 @@ public class ClientManager extends Thread implements Server {
 
                 case TABLE_NAME_GROUPE:
                     Groupe groupe = (Groupe) entry;
-                    String relatedGroup = DatabaseManager.getInstance().retrieveGroupForGivenID(entry.getID()).getLabel();
                     success = DatabaseManager.getInstance().editExistingGroup(
                             groupe.getID(),
                             groupe.getLabel()
                     );
 
                     if (success) {
-                        Host.changeGroupName(relatedGroup, groupe.getLabel());
+                        Host.changeGroupName(groupe.getID(), groupe.getLabel());
                     }
 
                     break;
@@ -534,7 +723,7 @@ public class ClientManager extends Thread implements Server {
      *
      * @param communicationMessage L'entrée et sa table
      */
-    private synchronized void handleAddMessage(CommunicationMessage communicationMessage) {
+    private void handleAddMessage(CommunicationMessage communicationMessage) {
 
         if (!isAdminOrStaff()) {
             return;
@@ -554,7 +743,7 @@ public class ClientManager extends Thread implements Server {
                     final String password = user.getPassword();
                     final String[] groups = user.getGroups();
 
-                    ResultSet set = DatabaseManager.getInstance().registerNewUser(
+                    Long id = DatabaseManager.getInstance().registerNewUser(
                             INE,
                             password,
                             nom,
@@ -563,8 +752,8 @@ public class ClientManager extends Thread implements Server {
                             String.join(";", groups)
                     );
 
-                    if (set.next()) {
-                        user.setID(set.getLong(1));
+                    if (id != null) {
+                        user.setID(id);
                     }
 
                     user.setPassword("");
@@ -597,45 +786,52 @@ public class ClientManager extends Thread implements Server {
     }
 
     /**
-     * Fonction qui traite la demande des table de modèle
+     * Fonction qui traite la demande d'une page d'une table de l'interface d'administration
+     *
+     * @param communicationMessage La demande
      */
-    private void handleTableModelRequestMessage() {
+    private void handleAdminQueryMessage(CommunicationMessage communicationMessage) {
 
-        Debugger.logColorMessage(DBG_COLOR, "ClientManager", "Table request received");
         if (!isAdminOrStaff()) {
-            Debugger.logColorMessage(DBG_COLOR, "ClientManager", "But user isn't an admin");
+            reply(communicationMessage, CommunicationMessage.createNack(ERROR_MESSAGE_HANDLE_DEMAND));
             return;
         }
 
         try {
-            DatabaseManager databaseManager = DatabaseManager.getInstance();
-            List<Utilisateur> users = databaseManager.retrieveAllUsers();
-            for (Utilisateur u : users) {
-                u.setGroups(databaseManager.relatedUserGroup(u.getINE()).split(";"));
-            }
-
-            List<Groupe> groups = databaseManager.retrieveAllGroups();
-            List<Ticket> tickets = databaseManager.retrieveAllTickets();
-            List<Message> messages = databaseManager.retrieveAllMessages();
+            TablePage page = DatabaseManager.getInstance().queryTable(communicationMessage.getAdminQuery());
 
-            sendData(CommunicationMessage.createTableModel(
-                    users,
-                    groups,
-                    tickets,
-                    messages
-            ));
+            if (page == null) {
+                reply(communicationMessage, CommunicationMessage.createNack(ERROR_MESSAGE_HANDLE_DEMAND));
+                return;
+            }
 
+            Metrics.add("admin_page.rows", page.getRows().size());
+            reply(communicationMessage, CommunicationMessage.createAdminPage(page));
         } catch (SQLException e) {
             e.printStackTrace();
+            reply(communicationMessage, CommunicationMessage.createNack(ERROR_MESSAGE_DATABASE_ERROR));
         }
 
     }
 
+    /**
+     * Les tables entières ne sont plus envoyées : l'interface d'administration
+     * demande ses pages avec ADMIN_QUERY. La demande est refusée.
+     *
+     * @param communicationMessage La demande
+     */
+    private void handleTableModelRequestMessage(CommunicationMessage communicationMessage) {
+
+        Debugger.logColorMessage(DBG_COLOR, "ClientManager", "Table request received, tables are now paged with ADMIN_QUERY");
+        reply(communicationMessage, CommunicationMessage.createNack(ERROR_MESSAGE_HANDLE_DEMAND));
+
+    }
+
     /**
      * Fonction qui traite le fait qu'un client doit
      * recevoir tous les messages sortant du serveur
      */
-    private synchronized void handleRequestEverythingMessage() {
+    private void handleRequestEverythingMessage() {
 
         if (!isAdminOrStaff()) {
             return;
@@ -651,50 +847,119 @@ public class ClientManager extends Thread implements Server {
      *
      * @param communicationMessage - Le message et l'utilisateur
      */
-    private synchronized void handleMessageReceivedMessage(CommunicationMessage communicationMessage) {
+    private void handleMessageReceivedMessage(CommunicationMessage communicationMessage) {
 
         DatabaseManager database = DatabaseManager.getInstance();
         ArrayList<Message> messages = communicationMessage.getMessagesReceived();
 
         Debugger.logColorMessage(Debugger.BLUE, "ClientManager", user.getNom() + " has received " + messages);
 
+        ArrayList<Long> ids = new ArrayList<>();
         for (Message message : messages) {
-            try {
-                int entryUpdated = database.setMessageReceived(message, user);
-                Debugger.logColorMessage(Debugger.BLUE, "ClientManager", entryUpdated + " entries updated");
-                if (entryUpdated > 0) {
-                    Message m = database.getMessage(message.getID());
-                    if (m != null) {
-                        Ticket ticket = database.relatedMessageTicket(message.getID());
-                        if (ticket != null) {
-                            Groupe groupe = database.relatedTicketGroup(ticket.getID());
-                            if (groupe != null) {
-                                CommunicationMessage msg = CommunicationMessage.createMessageUpdatedMessage(TABLE_NAME_MESSAGE, m, groupe, ticket);
-                                Host.broadcastToGroup(msg, groupe.getLabel());
-                                Host.sendToClient(database.ticketCreator(ticket.getID()), msg);
-                            }
-                        }
-                    }
+            ids.add(message.getID());
+        }
+
+        try {
+            // Un seul envoi par ticket modifié, quel que soit le nombre de ses messages reçus
+            TreeMap<Long, ArrayList<Long>> changed = database.setMessagesReceived(ids, user.getID());
+            Debugger.logColorMessage(Debugger.BLUE, "ClientManager", changed + " entries updated by ticket");
+
+            // Les messages reçus de tous les tickets sont relus ensemble, pas tout le ticket
+            HashMap<Long, ArrayList<Message>> messagesByTicket = changedMessages(changed.values());
+            for (Map.Entry<Long, ArrayList<Long>> entry : changed.entrySet()) {
+                final Long ticketID = entry.getKey();
+                Ticket ticket = database.getTicketHeader(ticketID);
+                Groupe groupe = database.relatedTicketGroup(ticketID);
+                if (ticket != null && groupe != null) {
+                    CommunicationMessage msg = CommunicationMessage.createTicketUpdatedMessage(
+                            TABLE_NAME_TICKET, ticket, groupe,
+                            messagesByTicket.getOrDefault(ticketID, new ArrayList<>())
+                    );
+                    Host.broadcastToGroup(msg, groupe.getID(), database.ticketCreator(ticketID));
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
             }
+        } catch (SQLException e) {
+            e.printStackTrace();
         }
 
     }
 
+    /**
+     * Les messages à envoyer avec l'en-tête de leur ticket, lus en une requête par lot d'ids.
+     *
+     * @param messageIDs - Les ids des messages modifiés, par ticket
+     * @return - Ces messages par id de ticket, sauf ceux supprimés depuis
+     * @throws SQLException - Peut être lancée en cas d'erreur sur la requête
+     */
+    private static HashMap<Long, ArrayList<Message>> changedMessages(Collection<ArrayList<Long>> messageIDs) throws SQLException {
+        ArrayList<Long> ids = new ArrayList<>();
+        for (ArrayList<Long> ticketMessageIDs : messageIDs) {
+            ids.addAll(ticketMessageIDs);
+        }
+
+        HashMap<Long, ArrayList<Message>> changed = new HashMap<>();
+        for (Message message : DatabaseManager.getInstance().getMessages(ids)) {
+            changed.computeIfAbsent(message.getTicketID(), k -> new ArrayList<>()).add(message);
+        }
+
+        return changed;
+    }
+
+    /**
+     * Dépose le message dans la file d'envoi du client sans attendre l'écriture.
+     *
+     * @param communicationMessage - Le message à envoyer
+     * @return - false si la file du client est pleine
+     */
     @Override
-    public BufferedWriter getSocketWriter() {
+    public boolean sendData(CommunicationMessage communicationMessage) {
+        if (!mOutbound.offer(communicationMessage)) {
+            addPendingMessage(communicationMessage);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Répond à une requête du client : la réponse reprend l'identifiant de la requête
+     * pour que le client la rattache à la bonne demande.
+     *
+     * @param request  - La requête reçue
+     * @param response - La réponse, propre à ce client
+     * @return - false si la file du client est pleine
+     */
+    private boolean reply(CommunicationMessage request, CommunicationMessage response) {
+        Long requestID = request.getRequestID();
+        if (requestID != null) {
+            response.setRequestID(requestID);
+        }
+
+        return sendData(response);
+    }
+
+    @Override
+    public OutputStream getSocketOutput() {
         return mWriteStream;
     }
 
     @Override
-    public BufferedReader getSocketReader() {
-        return mReadStream;
+    public WireFormat getWireFormat() {
+        return mOutbound.getWireFormat();
+    }
+
+    @Override
+    public FrameCompressor getCompressor() {
+        return mCompressor;
+    }
+
+    @Override
+    public FrameReader getFrameReader() {
+        return mFrameReader;
     }
 
     /**
-     * Ici nous ne faisons rien, en effet, lorsque le client
+     * Ici le message est seulement compté, en effet, lorsque le client
      * se reconnecte, le serveur crée un nouveau socket et
      * récupère de nouveau toutes les données qui lui sont
      * destinées.
@@ -703,6 +968,6 @@ public class ClientManager extends Thread implements Server {
      */
     @Override
     public void addPendingMessage(CommunicationMessage message) {
-
+        Metrics.increment("outbound.dropped");
     }
 }
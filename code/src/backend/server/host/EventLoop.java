@@ -0,0 +1,118 @@
+package backend.server.host;
+
+import debug.Debugger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Boucle d'évènements : un thread et un sélecteur qui servent
+ * toutes les connexions qui lui sont attribuées.
+ * Tout ce qui touche aux sockets et aux SSLEngine se fait sur ce thread,
+ * les autres threads lui soumettent des tâches via {@link #execute(Runnable)}.
+ */
+class EventLoop extends Thread {
+
+    private static final String DBG_COLOR = Debugger.PURPLE;
+
+    private final Selector mSelector;
+    private final Queue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean mRunning = true;
+
+    EventLoop(int index) throws IOException {
+        super("event-loop-" + index);
+        setDaemon(true);
+
+        mSelector = Selector.open();
+    }
+
+    /**
+     * Ajoute une tâche à exécuter sur le thread de la boucle.
+     *
+     * @param task - La tâche
+     */
+    void execute(Runnable task) {
+        mTasks.add(task);
+
+        if (Thread.currentThread() != this) {
+            mSelector.wakeup();
+        }
+    }
+
+    /**
+     * Attribue une nouvelle connexion à cette boucle.
+     *
+     * @param connection - La connexion acceptée
+     */
+    void register(final SecureConnection connection) {
+        execute(() -> connection.register(mSelector));
+    }
+
+    /**
+     * Arrête la boucle, les connexions restantes sont fermées.
+     */
+    void shutdown() {
+        mRunning = false;
+        mSelector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        Debugger.logColorMessage(DBG_COLOR, getName(), "Event loop is running");
+
+        while (mRunning) {
+            try {
+                if (mTasks.isEmpty()) {
+                    mSelector.select();
+                } else {
+                    mSelector.selectNow();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                break;
+            }
+
+            Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                SecureConnection connection = (SecureConnection) key.attachment();
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+
+                if (key.isValid() && key.isWritable()) {
+                    connection.onWritable();
+                }
+            }
+
+            runTasks();
+        }
+
+        for (SelectionKey key : mSelector.keys()) {
+            ((SecureConnection) key.attachment()).close();
+        }
+
+        try {
+            mSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = mTasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
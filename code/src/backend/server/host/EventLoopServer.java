@@ -0,0 +1,155 @@
+package backend.server.host;
+
+import debug.Debugger;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serveur non bloquant : un thread accepte les connexions et les répartit
+ * sur un petit nombre de boucles d'évènements, les messages sont traités
+ * par un pool de workers borné.
+ * Les tâches de la poignée de main TLS et les écrivains des files d'envoi ont leurs
+ * propres threads : une requête lente sur la base ne retarde ni les nouvelles
+ * connexions ni les envois des autres clients.
+ * Une connexion ne coûte plus un thread mais quelques buffers.
+ */
+class EventLoopServer {
+
+    private static final String DBG_COLOR = Debugger.PURPLE;
+
+    private final ServerSocketChannel mServerChannel;
+    private final SSLContext mContext;
+    private final EventLoop[] mLoops;
+    private final ExecutorService mWorkers;
+    private final ExecutorService mHandshakes;
+    private final Executor mWriters;
+    private int mNextLoop = 0;
+    private volatile boolean mRunning = false;
+
+    /**
+     * @param port        - Port d'écoute
+     * @param loopCount   - Nombre de boucles d'évènements
+     * @param workerCount - Nombre de threads qui traitent les messages
+     * @throws IOException - Si le port ne peut pas être ouvert
+     */
+    EventLoopServer(int port, int loopCount, int workerCount) throws IOException {
+        try {
+            mContext = SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("No SSL context available", e);
+        }
+
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.bind(new InetSocketAddress(port));
+
+        mLoops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < mLoops.length; ++i) {
+            mLoops[i] = new EventLoop(i);
+        }
+
+        final AtomicInteger workerNumber = new AtomicInteger();
+        mWorkers = Executors.newFixedThreadPool(Math.max(1, workerCount), runnable -> {
+            Thread thread = new Thread(runnable, "worker-" + workerNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Les tâches déléguées par le SSLEngine ne font que calculer
+        final AtomicInteger handshakeNumber = new AtomicInteger();
+        mHandshakes = Executors.newFixedThreadPool(mLoops.length, runnable -> {
+            Thread thread = new Thread(runnable, "handshake-" + handshakeNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        mWriters = Threads.newWriterExecutor(false);
+    }
+
+    /**
+     * Accepte les connexions jusqu'à l'appel de {@link #stop()}.
+     * Bloque le thread appelant.
+     */
+    void run() {
+        mRunning = true;
+        for (EventLoop loop : mLoops) {
+            loop.start();
+        }
+
+        Debugger.logColorMessage(DBG_COLOR, "EventLoopServer",
+                String.format("Listening with %d event loops", mLoops.length));
+
+        while (mRunning) {
+            try {
+                SocketChannel channel = mServerChannel.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+
+                Debugger.logColorMessage(DBG_COLOR, "EventLoopServer", "Connection detected");
+
+                SSLEngine engine = mContext.createSSLEngine();
+                engine.setUseClientMode(false);
+
+                EventLoop loop = mLoops[mNextLoop];
+                mNextLoop = (mNextLoop + 1) % mLoops.length;
+
+                SecureConnection connection = new SecureConnection(channel, engine, loop, mHandshakes, mWorkers);
+                connection.setSession(new ClientManager(connection, mWriters));
+                loop.register(connection);
+            } catch (ClosedChannelException e) {
+                mRunning = false;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        for (EventLoop loop : mLoops) {
+            loop.shutdown();
+        }
+
+        // Les boucles ferment leurs connexions et confient les déconnexions aux workers :
+        // ceux-ci ne sont arrêtés qu'une fois toutes les boucles terminées
+        for (EventLoop loop : mLoops) {
+            try {
+                loop.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        mHandshakes.shutdown();
+        mWorkers.shutdown();
+        try {
+            if (!mWorkers.awaitTermination(5, TimeUnit.SECONDS)) {
+                Debugger.logColorMessage(DBG_COLOR, "EventLoopServer", "Workers still busy after shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Arrête d'accepter les connexions et ferme les boucles.
+     */
+    void stop() {
+        mRunning = false;
+
+        try {
+            mServerChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
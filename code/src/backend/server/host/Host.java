@@ -1,10 +1,12 @@
 package backend.server.host;
 
+import backend.data.Groupe;
 import backend.data.Utilisateur;
 import backend.database.DatabaseManager;
 import backend.server.Server;
 import backend.server.communication.CommunicationMessage;
 import debug.Debugger;
+import debug.Metrics;
 import ui.Server.ServerStopUI;
 import utils.Utils;
 
@@ -14,115 +16,168 @@ import javax.net.ssl.SSLSocket;
 import javax.swing.*;
 import java.io.IOException;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-
-public class Host extends Thread {
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Host implements Runnable {
 
     public static final String DBG_COLOR = Debugger.RED;
 
-    private static HashMap<String, HashSet<Server>> clientsByGroups = new HashMap<>();
-    private static HashMap<Long, HashSet<Server>> clientsByID = new HashMap<>();
-    private static ArrayList<Server> admins = new ArrayList<>();
+    /*
+     * Tables de diffusion, lues sans verrou : chaque envoi parcourt
+     * un instantané de l'ensemble de ses destinataires.
+     */
+    private static final ConcurrentHashMap<Long, Set<Server>> clientsByGroups = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Long, Set<Server>> clientsByID = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Long, String> groupLabels = new ConcurrentHashMap<>();
+    private static final Set<Server> admins = new CopyOnWriteArraySet<>();
     private SSLServerSocket mServerSocket;
+    private EventLoopServer mEventLoopServer;
+    private final IoMode mIoMode;
+    private Executor mWriterExecutor;
     public static Boolean isRunning = false;
 
     private static ServerStopUI ui;
 
-    private static int nbConnectes = 0;
-    private static int nbAdmins = 0;
+    /**
+     * Intervalle entre deux affichages des métriques dans la fenêtre du serveur.
+     */
+    private static final long METRICS_LOG_PERIOD = Long.getLong("server.metricsPeriod", 60_000L);
+
+    private static final AtomicInteger nbConnectes = new AtomicInteger();
+    private static final AtomicInteger nbAdmins = new AtomicInteger();
 
     public Host() throws IOException {
-        SSLServerSocketFactory factory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
-        mServerSocket = (SSLServerSocket) factory.createServerSocket(Utils.PORT);
+        this(IoMode.fromProperties());
     }
 
-    public synchronized static void addClient(Collection<String> groups, Utilisateur user, ClientManager client) {
-        for (String group : groups) {
-            HashSet<Server> clientSet = clientsByGroups.computeIfAbsent(group, k -> new HashSet<>());
-            clientSet.add(client);
+    /**
+     * @param ioMode - Façon de servir les clients
+     * @throws IOException - Si le port d'écoute ne peut pas être ouvert
+     */
+    public Host(IoMode ioMode) throws IOException {
+        mIoMode = ioMode;
+
+        if (ioMode == IoMode.EVENT_LOOP) {
+            mEventLoopServer = new EventLoopServer(
+                    Utils.PORT,
+                    Integer.getInteger("server.eventLoops", Runtime.getRuntime().availableProcessors()),
+                    Integer.getInteger("server.workers", 16)
+            );
+        } else {
+            mWriterExecutor = Threads.newWriterExecutor(ioMode == IoMode.VIRTUAL);
+
+            SSLServerSocketFactory factory = (SSLServerSocketFactory) SSLServerSocketFactory.getDefault();
+            mServerSocket = (SSLServerSocket) factory.createServerSocket(Utils.PORT);
         }
+    }
 
-        if (!clientsByID.containsKey(user.getID())) {
-            clientsByID.put(user.getID(), new HashSet<>());
+    /**
+     * Ajoute un client connecté dans les tables de diffusion.
+     *
+     * @param groups - Les groupes de l'utilisateur
+     * @param user   - L'utilisateur connecté
+     * @param client - Son client manager
+     */
+    public static void addClient(Collection<Groupe> groups, Utilisateur user, ClientManager client) {
+        for (Groupe group : groups) {
+            groupLabels.put(group.getID(), group.getLabel());
+            addTo(clientsByGroups, group.getID(), client);
         }
 
-        clientsByID.get(user.getID()).add(client);
+        addTo(clientsByID, user.getID(), client);
 
-        ui.setConnectionNumber(++nbConnectes);
+        ui.setConnectionNumber(nbConnectes.incrementAndGet());
         postLogMessage(user.getINE() + " s'est connecté !");
     }
 
-
-    public synchronized static void removeClient(Collection<String> groups, Utilisateur user, Server client) {
-        for (String group : groups) {
-            HashSet<Server> set = clientsByGroups.get(group);
-            if (set != null) {
-                set.remove(client);
-            }
+    /**
+     * Retire un client déconnecté des tables de diffusion.
+     *
+     * @param groupIDs - Les groupes dans lesquels le client a été ajouté
+     * @param user     - L'utilisateur déconnecté
+     * @param client   - Son client manager
+     */
+    public static void removeClient(Collection<Long> groupIDs, Utilisateur user, Server client) {
+        for (Long groupID : groupIDs) {
+            removeFrom(clientsByGroups, groupID, client);
         }
 
-        HashSet<Server> set = clientsByID.get(user.getID());
-        set.remove(client);
+        removeFrom(clientsByID, user.getID(), client);
         if (admins.remove(client)) {
-            ui.setAdminNumber(--nbAdmins);
+            ui.setAdminNumber(nbAdmins.decrementAndGet());
         }
 
-        ui.setConnectionNumber(--nbConnectes);
+        ui.setConnectionNumber(nbConnectes.decrementAndGet());
         postLogMessage(user.getINE() + " s'est déconnecté !");
     }
 
-    public synchronized static void broadcastToGroup(final CommunicationMessage message, final String group) {
-        HashSet<Server> clients = clientsByGroups.get(group);
-
-        if (clients != null) {
-            for (Server cm : clients) {
-                cm.sendData(message);
+    /**
+     * Envoie un message aux membres connectés d'un groupe, aux administrateurs
+     * et à des utilisateurs qui peuvent être hors du groupe (auteur, créateur du ticket).
+     * Une connexion qui fait partie de plusieurs de ces ensembles ne reçoit le message qu'une fois.
+     *
+     * @param message - Le message
+     * @param groupID - Le groupe
+     * @param userIDs - Les autres destinataires, null ignoré
+     */
+    public static void broadcastToGroup(final CommunicationMessage message, final Long groupID, final Long... userIDs) {
+        Recipients recipients = new Recipients();
+        recipients.add(clientsByGroups.get(groupID));
+        for (Long userID : userIDs) {
+            if (userID != null) {
+                recipients.add(clientsByID.get(userID));
             }
         }
+        recipients.add(admins);
 
-        for (Server server : admins) {
-            server.sendData(message);
-        }
+        final int sent = recipients.send(message);
 
-        postLogMessage(String.format("Broadcast du message suivant (%s):\n%s", group, message.toFormattedString()));
+        postLogMessage(String.format("Broadcast %s (%s) à %d connexions%s", message.getType(),
+                groupLabels.getOrDefault(groupID, String.valueOf(groupID)), sent, details(message)));
     }
 
-    public synchronized static void broadcast(final CommunicationMessage message) {
-        Collection<HashSet<Server>> clients = clientsByID.values();
-        System.out.println(clientsByID.values());
-        for (HashSet<Server> clientList : clients) {
-            for (Server s : clientList) {
-                s.sendData(message);
-            }
+    public static void broadcast(final CommunicationMessage message) {
+        Recipients recipients = new Recipients();
+        for (Set<Server> clientList : clientsByID.values()) {
+            recipients.add(clientList);
         }
+        // Un administrateur est aussi rangé par identifiant
+        recipients.add(admins);
 
-        for (Server server : admins) {
-            server.sendData(message);
-        }
+        final int sent = recipients.send(message);
 
-        postLogMessage(String.format("Broadcast du message suivant :\n%s", message.toFormattedString()));
+        postLogMessage(String.format("Broadcast %s à %d connexions%s", message.getType(), sent, details(message)));
     }
 
-    public synchronized static void changeGroupName(String relatedGroup, String label) {
-        HashSet<Server> servers = clientsByGroups.get(relatedGroup);
-        if (servers != null) {
-            clientsByGroups.remove(relatedGroup);
-            clientsByGroups.put(label, servers);
-        }
-
-        postLogMessage(String.format("Changement du nom de groupe : %s -> %s", relatedGroup, label));
+    /**
+     * Les clients sont rangés par identifiant de groupe,
+     * renommer un groupe ne change donc que son nom affiché.
+     *
+     * @param groupID - Le groupe renommé
+     * @param label   - Son nouveau nom
+     */
+    public static void changeGroupName(Long groupID, String label) {
+        String previous = groupLabels.put(groupID, label);
+
+        postLogMessage(String.format("Changement du nom de groupe : %s -> %s", previous, label));
     }
 
-    public synchronized static void sendToClient(Utilisateur user, CommunicationMessage message) {
+    public static void sendToClient(Utilisateur user, CommunicationMessage message) {
         sendToClient(user.getID(), message);
-        postLogMessage("Envoi du message suivant à " + user.getINE() + "\n" + message.toFormattedString());
+        postLogMessage(String.format("Envoi %s à %s%s", message.getType(), user.getINE(), details(message)));
     }
 
-    public synchronized static void sendToClient(Long userID, CommunicationMessage message) {
-        HashSet<Server> client = clientsByID.get(userID);
+    public static void sendToClient(Long userID, CommunicationMessage message) {
+        Set<Server> client = clientsByID.get(userID);
         if (client != null) {
             for (Server s : client) {
                 s.sendData(message);
@@ -130,19 +185,95 @@ public class Host extends Thread {
         }
     }
 
-    public synchronized static void addAdmin(Server server) {
-        admins.add(server);
-        ui.setAdminNumber(++nbAdmins);
+    public static void addAdmin(Server server) {
+        if (admins.add(server)) {
+            ui.setAdminNumber(nbAdmins.incrementAndGet());
+        }
+    }
+
+    /**
+     * Le contenu d'un message n'est mis en forme pour les logs qu'en debug :
+     * sinon ce serait une deuxième sérialisation complète à chaque envoi.
+     *
+     * @param message - Le message envoyé
+     * @return - Son contenu précédé d'un saut de ligne en debug, une chaîne vide sinon
+     */
+    private static String details(CommunicationMessage message) {
+        return Debugger.isDebugging ? "\n" + message.toFormattedString() : "";
     }
 
-    public static synchronized void postLogMessage(String message) {
+    public static void postLogMessage(String message) {
         ui.addLogMessage(message);
     }
 
+    /**
+     * Destinataires d'un envoi, réunis avant d'écrire le moindre octet :
+     * chaque connexion n'y est qu'une fois, quel que soit le nombre d'ensembles qui la contiennent.
+     */
+    private static final class Recipients {
+        private final Set<Server> mServers = Collections.newSetFromMap(new IdentityHashMap<>());
+        private int mCandidates = 0;
+
+        void add(Collection<Server> servers) {
+            if (servers != null) {
+                for (Server server : servers) {
+                    mServers.add(server);
+                    mCandidates++;
+                }
+            }
+        }
+
+        /**
+         * @return - Le nombre de connexions à qui le message a été envoyé
+         */
+        int send(CommunicationMessage message) {
+            for (Server server : mServers) {
+                server.sendData(message);
+            }
+
+            Metrics.add("broadcast.recipients", mServers.size());
+            Metrics.add("broadcast.duplicates", mCandidates - mServers.size());
+            return mServers.size();
+        }
+    }
+
+    /**
+     * Ajoute un client à l'ensemble d'une clé, l'ensemble est créé au besoin.
+     * Fait sous le verrou de la clé pour ne pas croiser une suppression de l'ensemble.
+     */
+    private static void addTo(ConcurrentHashMap<Long, Set<Server>> map, Long key, Server client) {
+        map.compute(key, (k, set) -> {
+            if (set == null) {
+                set = new CopyOnWriteArraySet<>();
+            }
+
+            set.add(client);
+            return set;
+        });
+    }
+
+    /**
+     * Retire un client de l'ensemble d'une clé, l'ensemble est supprimé s'il devient vide.
+     */
+    private static void removeFrom(ConcurrentHashMap<Long, Set<Server>> map, Long key, Server client) {
+        map.computeIfPresent(key, (k, set) -> {
+            set.remove(client);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * Lance l'hôte dans son propre thread.
+     * Ce thread reste un thread classique même en mode {@link IoMode#VIRTUAL} :
+     * les threads virtuels sont des démons et la JVM pourrait s'arrêter
+     * avant que l'hôte ait fermé la base de données.
+     */
+    public void start() {
+        Threads.start(this, "host", false);
+    }
+
     @Override
     public void run() {
-        super.run();
-
         SwingUtilities.invokeLater(() -> {
             ui = new ServerStopUI(this);
         });
@@ -150,19 +281,39 @@ public class Host extends Thread {
         isRunning = true;
         Debugger.logColorMessage(DBG_COLOR, "Server", "Host is running !");
 
-        while (isRunning) {
+        Timer metricsTimer = new Timer("metrics", true);
+        metricsTimer.schedule(new TimerTask() {
+            private String lastSummary = "";
+
+            @Override
+            public void run() {
+                String summary = Metrics.summary();
+                if (ui != null && !summary.equals(lastSummary)) {
+                    lastSummary = summary;
+                    postLogMessage("Métriques :\n" + summary);
+                }
+            }
+        }, METRICS_LOG_PERIOD, METRICS_LOG_PERIOD);
+
+        if (mEventLoopServer != null) {
+            mEventLoopServer.run();
+        }
+
+        while (isRunning && mServerSocket != null) {
             try {
                 SSLSocket client = (SSLSocket) mServerSocket.accept();
 
                 Debugger.logColorMessage(DBG_COLOR, "Server", "Connection detected");
 
 
-                new ClientManager(client).start();
+                Threads.start(new ClientManager(client, mWriterExecutor), "client-manager", mIoMode == IoMode.VIRTUAL);
             } catch (IOException | Server.ServerInitializationFailedException e) {
                 e.printStackTrace();
             }
         }
 
+        metricsTimer.cancel();
+
         try {
             DatabaseManager.getInstance().closeConnection();
         } catch (SQLException e) {
@@ -172,12 +323,17 @@ public class Host extends Thread {
 
     public void stopServer() {
         System.out.println("CLOSING");
+        isRunning = false;
+
+        if (mEventLoopServer != null) {
+            mEventLoopServer.stop();
+            return;
+        }
+
         try {
             mServerSocket.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
-
-        isRunning = false;
     }
 }
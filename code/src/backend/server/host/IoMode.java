@@ -0,0 +1,51 @@
+package backend.server.host;
+
+import java.util.Locale;
+
+/**
+ * Mode d'entrée / sortie utilisé par l'hôte pour servir les clients.
+ * Il est choisi au lancement avec la propriété système "server.io".
+ */
+public enum IoMode {
+
+    /**
+     * Un thread par client, bloqué en lecture sur sa socket.
+     */
+    BLOCKING,
+
+    /**
+     * Comme BLOCKING mais chaque client tourne sur un thread virtuel :
+     * une connexion inactive ne coûte que quelques Ko de pile.
+     */
+    VIRTUAL,
+
+    /**
+     * Quelques boucles d'évènements non bloquantes (NIO + SSLEngine)
+     * partagées par toutes les connexions.
+     */
+    EVENT_LOOP;
+
+    public static final String PROPERTY = "server.io";
+
+    /**
+     * Lit le mode demandé dans les propriétés système.
+     *
+     * @return - Le mode demandé, BLOCKING si absent ou inconnu
+     */
+    public static IoMode fromProperties() {
+        final String value = System.getProperty(PROPERTY, "blocking").trim().toLowerCase(Locale.ROOT);
+
+        switch (value) {
+            case "eventloop":
+            case "event_loop":
+            case "nio":
+                return EVENT_LOOP;
+
+            case "virtual":
+                return VIRTUAL;
+
+            default:
+                return BLOCKING;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package backend.server.host;
+
+import backend.server.communication.CommunicationMessage;
+import backend.server.communication.FrameCompressor;
+import backend.server.communication.WireFormat;
+import debug.Debugger;
+import debug.Metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+/**
+ * File d'envoi bornée d'un client.
+ * Les broadcasts ne font qu'y déposer leurs messages, un écrivain unique
+ * la vide sur la socket : un client lent ne ralentit plus que lui-même.
+ * <p>
+ * Au delà du seuil haut (en messages ou en octets en attente) le client est
+ * considéré comme lent et la {@link SlowConsumerPolicy} s'applique jusqu'à ce que
+ * la file redescende sous le seuil bas.
+ */
+class OutboundQueue {
+
+    private static final String DBG_COLOR = Debugger.CYAN;
+
+    /**
+     * Nombre de messages en attente au delà duquel le client est déconnecté.
+     */
+    static final int DEFAULT_CAPACITY = Integer.getInteger("server.outboundQueue", 4096);
+
+    static final int HIGH_WATERMARK_MESSAGES = Integer.getInteger("server.outbound.highMessages", 1024);
+    static final int LOW_WATERMARK_MESSAGES = Integer.getInteger("server.outbound.lowMessages", 256);
+    static final long HIGH_WATERMARK_SIZE = Long.getLong("server.outbound.highBytes", 4L * 1024 * 1024);
+    static final long LOW_WATERMARK_SIZE = Long.getLong("server.outbound.lowBytes", 1024L * 1024);
+
+    private final ArrayDeque<Entry> mQueue = new ArrayDeque<>();
+    private final HashMap<String, Entry> mPendingUpdates = new HashMap<>();
+    private final int mCapacity;
+    private final SlowConsumerPolicy mPolicy;
+    private final Executor mWriterExecutor;
+    private final OutputStream mWriter;
+    private final Runnable mOnDisconnect;
+    private BooleanSupplier mWritable = () -> true;
+
+    // Protégés par this
+    private WireFormat mFormat = WireFormat.LINE;
+    private FrameCompressor mCompressor;
+    private int mCount = 0;
+    private long mSize = 0;
+    private boolean mSlow = false;
+    private boolean mScheduled = false;
+    private boolean mClosed = false;
+
+    /**
+     * @param capacity       - Nombre maximal de messages en attente
+     * @param policy         - Que faire d'un client lent
+     * @param writerExecutor - Où tourne l'écrivain, il n'y en a jamais plus d'un à la fois
+     * @param writer         - Flux de la socket
+     * @param onDisconnect   - Ferme la connexion du client quand la politique l'exige
+     */
+    OutboundQueue(int capacity, SlowConsumerPolicy policy, Executor writerExecutor, OutputStream writer, Runnable onDisconnect) {
+        mCapacity = capacity;
+        mPolicy = policy;
+        mWriterExecutor = writerExecutor;
+        mWriter = writer;
+        mOnDisconnect = onDisconnect;
+    }
+
+    /**
+     * Permet à la connexion de suspendre l'écrivain tant qu'elle
+     * a déjà trop de données à envoyer.
+     * Elle doit appeler {@link #resume()} quand elle peut en reprendre.
+     *
+     * @param writable - Si la connexion accepte de nouvelles données
+     */
+    void setWritabilityGate(BooleanSupplier writable) {
+        mWritable = writable;
+    }
+
+    /**
+     * Ajoute un message à envoyer sans attendre l'écriture.
+     *
+     * @param message - Le message
+     * @return - false si le message n'a pas été accepté
+     */
+    boolean offer(CommunicationMessage message) {
+        return offer(message, null, null);
+    }
+
+    /**
+     * Ajoute un message puis change le format et la compression des messages suivants,
+     * sans qu'aucun autre message ne puisse s'intercaler.
+     * Sert à l'acquittement de connexion qui annonce le format.
+     *
+     * @param message - Le dernier message dans le format courant
+     * @param format     - Le format des messages suivants
+     * @param compressor - La compression des messages suivants, null si aucune
+     * @return - false si le message n'a pas été accepté
+     */
+    boolean offerThenSwitch(CommunicationMessage message, WireFormat format, FrameCompressor compressor) {
+        return offer(message, format, compressor);
+    }
+
+    private boolean offer(CommunicationMessage message, WireFormat nextFormat, FrameCompressor nextCompressor) {
+        // Encode (et compresse) hors du verrou, la trame est partagée entre les destinataires
+        final WireFormat format;
+        final FrameCompressor compressor;
+        synchronized (this) {
+            format = mFormat;
+            compressor = mCompressor;
+        }
+        message.getEncodedFrame(format, compressor);
+        boolean disconnect = false;
+
+        synchronized (this) {
+            if (mClosed) {
+                return false;
+            }
+
+            final Entry entry = new Entry(message, mFormat, mCompressor);
+            if (nextFormat != null) {
+                mFormat = nextFormat;
+                mCompressor = nextCompressor;
+            }
+
+            if (mSlow && mPolicy == SlowConsumerPolicy.COALESCE && entry.updateKey != null) {
+                Entry previous = mPendingUpdates.get(entry.updateKey);
+                if (previous != null) {
+                    drop(previous);
+                    Metrics.increment("outbound.coalesced");
+                }
+            }
+
+            if (mCount >= mCapacity) {
+                Metrics.increment("outbound.overflow.disconnect");
+                disconnect = true;
+            } else {
+                mQueue.add(entry);
+                mCount++;
+                mSize += entry.size;
+                if (entry.updateKey != null) {
+                    mPendingUpdates.put(entry.updateKey, entry);
+                }
+
+                if (!mSlow && (mCount > HIGH_WATERMARK_MESSAGES || mSize > HIGH_WATERMARK_SIZE)) {
+                    mSlow = true;
+                    Metrics.increment("outbound.slow_consumer");
+                    Debugger.logColorMessage(DBG_COLOR, "OutboundQueue",
+                            String.format("Slow consumer: %d messages / %d bytes pending", mCount, mSize));
+
+                    if (mPolicy == SlowConsumerPolicy.DISCONNECT) {
+                        Metrics.increment("outbound.slow_consumer.disconnect");
+                        disconnect = true;
+                    }
+                }
+            }
+        }
+
+        if (disconnect) {
+            close();
+            mOnDisconnect.run();
+            return false;
+        }
+
+        resume();
+        return true;
+    }
+
+    /**
+     * @return - Le format des prochains messages
+     */
+    synchronized WireFormat getWireFormat() {
+        return mFormat;
+    }
+
+    synchronized int size() {
+        return mCount;
+    }
+
+    /**
+     * Abandonne les messages restants, les suivants seront refusés.
+     */
+    synchronized void close() {
+        mClosed = true;
+        mQueue.clear();
+        mPendingUpdates.clear();
+        mCount = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Relance l'écrivain s'il reste des messages à envoyer.
+     */
+    void resume() {
+        synchronized (this) {
+            if (mScheduled || mClosed || mCount == 0) {
+                return;
+            }
+
+            mScheduled = true;
+        }
+
+        mWriterExecutor.execute(this::drain);
+    }
+
+    /**
+     * Écrit tout ce qui est en attente puis flush une seule fois.
+     */
+    private void drain() {
+        try {
+            Entry entry;
+            while (mWritable.getAsBoolean() && (entry = poll()) != null) {
+                if (Debugger.isDebugging) {
+                    Debugger.logMessage("Server sendData", "Sending following data: " + entry.message.toFormattedString());
+                }
+
+                mWriter.write(entry.frame);
+                Metrics.add("outbound.bytes", entry.frame.length);
+
+                if (size() == 0 || !mWritable.getAsBoolean()) {
+                    mWriter.flush();
+                }
+            }
+        } catch (IOException e) {
+            Debugger.logColorMessage(DBG_COLOR, "OutboundQueue", "Write failed, dropping queue: " + e.getMessage());
+            close();
+        } finally {
+            synchronized (this) {
+                mScheduled = false;
+            }
+        }
+
+        // Un message a pu arriver entre le dernier poll et la remise à zéro
+        if (mWritable.getAsBoolean()) {
+            resume();
+        }
+    }
+
+    private Entry poll() {
+        Entry entry;
+        synchronized (this) {
+            entry = mQueue.poll();
+            if (entry == null) {
+                return null;
+            }
+
+            mCount--;
+            mSize -= entry.size;
+            if (entry.updateKey != null) {
+                mPendingUpdates.remove(entry.updateKey, entry);
+            }
+
+            if (mCount <= LOW_WATERMARK_MESSAGES && mSize <= LOW_WATERMARK_SIZE) {
+                mSlow = false;
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Retire de la file un message remplacé par une version plus récente,
+     * sa trame n'est plus retenue.
+     */
+    private void drop(Entry entry) {
+        mQueue.removeFirstOccurrence(entry);
+        mCount--;
+        mSize -= entry.size;
+        mPendingUpdates.remove(entry.updateKey, entry);
+    }
+
+    private static class Entry {
+        final CommunicationMessage message;
+        // Partagé par tous les destinataires du message
+        final byte[] frame;
+        final long size;
+        final String updateKey;
+
+        Entry(CommunicationMessage message, WireFormat format, FrameCompressor compressor) {
+            this.message = message;
+            this.frame = message.getEncodedFrame(format, compressor);
+            this.size = frame.length;
+            this.updateKey = message.getUpdatedEntryKey();
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package backend.server.host;
+
+import backend.server.communication.FrameReader;
+import backend.server.communication.WireFormat;
+import debug.Debugger;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connexion TLS non bloquante servie par une {@link EventLoop}.
+ * Le chiffrement passe par un SSLEngine, les lignes ou trames reçues sont découpées
+ * ici puis transmises dans l'ordre au {@link ClientManager} associé
+ * sur le pool de workers (les traitements font des accès à la base de données).
+ */
+class SecureConnection {
+
+    private static final String DBG_COLOR = Debugger.PURPLE;
+
+    /**
+     * Taille maximale d'une ligne reçue, au delà le client est déconnecté.
+     */
+    static final int MAX_LINE_LENGTH = FrameReader.MAX_FRAME_SIZE;
+
+    /**
+     * Quantité de données en clair en attente au delà de laquelle
+     * la connexion n'accepte plus de nouvelles données.
+     */
+    static final long WRITABLE_LIMIT = 256 * 1024;
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel mChannel;
+    private final SSLEngine mEngine;
+    private final EventLoop mLoop;
+    private final Executor mHandshakes;
+    private final SerialExecutor mInbound;
+    private final Queue<ByteBuffer> mOutbound = new ConcurrentLinkedQueue<>();
+    private final OutputStream mOutputStream = new ConnectionOutputStream();
+    private final AtomicLong mPendingBytes = new AtomicLong();
+    private volatile Runnable mWritabilityListener;
+
+    private ClientManager mSession;
+    private SelectionKey mKey;
+
+    // Buffers en mode écriture, uniquement manipulés par la boucle
+    private ByteBuffer mNetIn;
+    private ByteBuffer mNetOut;
+    private ByteBuffer mAppIn;
+    private int mScanned = 0;
+
+    // Trame binaire en cours de réception
+    private byte[] mFrameBody;
+    private int mFrameFilled = 0;
+    private byte mFrameType;
+    private volatile WireFormat mWireFormat = WireFormat.LINE;
+
+    private boolean mTasksRunning = false;
+    private volatile boolean mClosed = false;
+
+    /**
+     * @param handshakes - Exécute les tâches déléguées par le SSLEngine
+     * @param workers    - Traite les messages reçus, un à la fois pour cette connexion
+     */
+    SecureConnection(SocketChannel channel, SSLEngine engine, EventLoop loop, Executor handshakes, Executor workers) {
+        mChannel = channel;
+        mEngine = engine;
+        mLoop = loop;
+        mHandshakes = handshakes;
+        mInbound = new SerialExecutor(workers);
+
+        final int packetSize = engine.getSession().getPacketBufferSize();
+        mNetIn = ByteBuffer.allocate(packetSize);
+        mNetOut = ByteBuffer.allocate(packetSize);
+        mAppIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+    }
+
+    /**
+     * Associe le client manager qui traitera les lignes reçues.
+     *
+     * @param session - Le client manager
+     */
+    void setSession(ClientManager session) {
+        mSession = session;
+    }
+
+    /**
+     * Change le découpage des prochains messages reçus.
+     *
+     * @param format - Le format des messages suivants
+     */
+    void setWireFormat(WireFormat format) {
+        mWireFormat = format;
+    }
+
+    /**
+     * Flux dans lequel le client manager écrit ses réponses.
+     * Chaque écriture est transmise telle quelle à la boucle, le flush n'a rien à faire.
+     *
+     * @return - Le flux de sortie
+     */
+    OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * @return - Si la connexion accepte de nouvelles données sans trop en accumuler
+     */
+    boolean isWritable() {
+        return mPendingBytes.get() < WRITABLE_LIMIT;
+    }
+
+    /**
+     * @param listener - Appelé sur la boucle quand la connexion redevient disponible en écriture
+     */
+    void setWritabilityListener(Runnable listener) {
+        mWritabilityListener = listener;
+    }
+
+    /**
+     * Ajoute des octets à envoyer, peut être appelée depuis n'importe quel thread.
+     *
+     * @param data - Les octets en clair
+     */
+    void write(byte[] data) {
+        if (mClosed) {
+            return;
+        }
+
+        mPendingBytes.addAndGet(data.length);
+        mOutbound.add(ByteBuffer.wrap(data));
+        mLoop.execute(this::pump);
+    }
+
+    /**
+     * Enregistre la connexion sur le sélecteur de sa boucle et démarre la négociation TLS.
+     */
+    void register(Selector selector) {
+        try {
+            mKey = mChannel.register(selector, SelectionKey.OP_READ, this);
+            mEngine.beginHandshake();
+        } catch (IOException e) {
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    void onReadable() {
+        try {
+            int read = mChannel.read(mNetIn);
+            if (read < 0) {
+                try {
+                    mEngine.closeInbound();
+                } catch (SSLException ignored) {
+                    // Le client a fermé sans close_notify
+                }
+
+                close();
+                return;
+            }
+        } catch (IOException e) {
+            close();
+            return;
+        }
+
+        pump();
+    }
+
+    void onWritable() {
+        pump();
+    }
+
+    /**
+     * Fait avancer la connexion autant que possible : négociation,
+     * déchiffrement des données reçues et chiffrement des données à envoyer.
+     */
+    private void pump() {
+        if (mClosed || mTasksRunning || mKey == null) {
+            return;
+        }
+
+        try {
+            boolean progress;
+            do {
+                switch (mEngine.getHandshakeStatus()) {
+                    case NEED_TASK:
+                        runDelegatedTasks();
+                        flush();
+                        return;
+
+                    case NEED_WRAP:
+                        progress = wrap(EMPTY);
+                        break;
+
+                    case NEED_UNWRAP:
+                        progress = unwrap();
+                        break;
+
+                    default:
+                        progress = unwrap();
+                        if (!isHandshaking()) {
+                            progress |= wrapOutbound();
+                        }
+                }
+            } while (progress && !mClosed);
+
+            flush();
+        } catch (IOException e) {
+            Debugger.logColorMessage(DBG_COLOR, "SecureConnection", "Connection error: " + e.getMessage());
+            close();
+        }
+    }
+
+    private boolean isHandshaking() {
+        switch (mEngine.getHandshakeStatus()) {
+            case NOT_HANDSHAKING:
+            case FINISHED:
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+    private boolean unwrap() throws IOException {
+        mNetIn.flip();
+        SSLEngineResult result;
+        try {
+            result = mEngine.unwrap(mNetIn, mAppIn);
+        } finally {
+            mNetIn.compact();
+        }
+
+        switch (result.getStatus()) {
+            case BUFFER_UNDERFLOW:
+                final int packetSize = mEngine.getSession().getPacketBufferSize();
+                if (mNetIn.capacity() < packetSize) {
+                    mNetIn = enlarge(mNetIn, packetSize);
+                }
+                return false;
+
+            case BUFFER_OVERFLOW:
+                if (mAppIn.position() > MAX_LINE_LENGTH) {
+                    throw new IOException("Line too long");
+                }
+                mAppIn = enlarge(mAppIn, Math.max(mAppIn.capacity() * 2,
+                        mAppIn.position() + mEngine.getSession().getApplicationBufferSize()));
+                return true;
+
+            case CLOSED:
+                close();
+                return false;
+
+            default:
+                if (result.bytesProduced() > 0) {
+                    if (mWireFormat == WireFormat.BINARY) {
+                        deliverFrames();
+                    } else {
+                        deliverLines();
+                    }
+                }
+
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0
+                        || result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED;
+        }
+    }
+
+    private boolean wrap(ByteBuffer source) throws IOException {
+        SSLEngineResult result = mEngine.wrap(source, mNetOut);
+
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                flush();
+                if (mNetOut.position() > 0) {
+                    // La socket est pleine, on attend OP_WRITE
+                    return false;
+                }
+                mNetOut = enlarge(mNetOut, mEngine.getSession().getPacketBufferSize());
+                return true;
+
+            case CLOSED:
+                close();
+                return false;
+
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+    private boolean wrapOutbound() throws IOException {
+        boolean progress = false;
+
+        ByteBuffer head;
+        while (!mClosed && (head = mOutbound.peek()) != null) {
+            if (!wrap(head)) {
+                break;
+            }
+
+            progress = true;
+            if (!head.hasRemaining()) {
+                mOutbound.poll();
+
+                final Runnable listener = mWritabilityListener;
+                if (mPendingBytes.addAndGet(-head.capacity()) < WRITABLE_LIMIT && listener != null) {
+                    listener.run();
+                }
+            }
+        }
+
+        return progress;
+    }
+
+    /**
+     * Envoie ce qui peut l'être et met à jour l'intérêt en écriture.
+     */
+    private void flush() throws IOException {
+        if (mNetOut.position() > 0) {
+            mNetOut.flip();
+            mChannel.write(mNetOut);
+            mNetOut.compact();
+        }
+
+        if (mKey.isValid()) {
+            mKey.interestOps(mNetOut.position() > 0
+                    ? SelectionKey.OP_READ | SelectionKey.OP_WRITE
+                    : SelectionKey.OP_READ);
+        }
+    }
+
+    private void runDelegatedTasks() {
+        mTasksRunning = true;
+        mHandshakes.execute(() -> {
+            Runnable task;
+            while ((task = mEngine.getDelegatedTask()) != null) {
+                task.run();
+            }
+
+            mLoop.execute(() -> {
+                mTasksRunning = false;
+                pump();
+            });
+        });
+    }
+
+    /**
+     * Découpe les données déchiffrées en lignes et les transmet au client manager.
+     */
+    private void deliverLines() throws IOException {
+        mAppIn.flip();
+
+        int start = mAppIn.position();
+        for (int i = start + mScanned; i < mAppIn.limit(); ++i) {
+            if (mAppIn.get(i) == '\n') {
+                final byte[] line = new byte[i - start];
+                mAppIn.position(start);
+                mAppIn.get(line);
+                mAppIn.get();
+                start = i + 1;
+
+                final ClientManager session = mSession;
+                mInbound.execute(() -> session.onLineReceived(line));
+            }
+        }
+
+        mAppIn.position(start);
+        mScanned = mAppIn.remaining();
+        mAppIn.compact();
+
+        if (mAppIn.position() > MAX_LINE_LENGTH) {
+            throw new IOException("Line too long");
+        }
+    }
+
+    /**
+     * Découpe les trames binaires reçues.
+     * Le corps est alloué dès la lecture de l'en-tête puis rempli au fil des lectures,
+     * le tampon de la connexion reste donc petit même pour une grosse trame.
+     */
+    private void deliverFrames() throws IOException {
+        mAppIn.flip();
+        mScanned = 0;
+
+        while (true) {
+            if (mFrameBody == null) {
+                if (mAppIn.remaining() < FrameReader.HEADER_SIZE) {
+                    break;
+                }
+
+                final int length = mAppIn.getInt();
+                mFrameType = mAppIn.get();
+                if (length < 0 || length > FrameReader.MAX_FRAME_SIZE) {
+                    mAppIn.compact();
+                    throw new IOException("Frame too large: " + length);
+                }
+
+                mFrameBody = new byte[length];
+                mFrameFilled = 0;
+            }
+
+            final int count = Math.min(mAppIn.remaining(), mFrameBody.length - mFrameFilled);
+            mAppIn.get(mFrameBody, mFrameFilled, count);
+            mFrameFilled += count;
+
+            if (mFrameFilled < mFrameBody.length) {
+                break;
+            }
+
+            final byte type = mFrameType;
+            final byte[] body = mFrameBody;
+            mFrameBody = null;
+
+            final ClientManager session = mSession;
+            mInbound.execute(() -> session.onFrameReceived(type, body));
+        }
+
+        mAppIn.compact();
+    }
+
+    /**
+     * Ferme la connexion, le client manager est prévenu une fois ses messages traités.
+     * Peut être appelée depuis n'importe quel thread.
+     */
+    void close() {
+        if (Thread.currentThread() != mLoop) {
+            mLoop.execute(this::close);
+            return;
+        }
+
+        if (mClosed) {
+            return;
+        }
+
+        mClosed = true;
+        mOutbound.clear();
+
+        try {
+            mEngine.closeOutbound();
+            mEngine.wrap(EMPTY, mNetOut);
+            mNetOut.flip();
+            mChannel.write(mNetOut);
+        } catch (IOException ignored) {
+            // Fermeture au mieux
+        }
+
+        if (mKey != null) {
+            mKey.cancel();
+        }
+
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        final ClientManager session = mSession;
+        if (session != null) {
+            mInbound.execute(session::onDisconnected);
+        }
+    }
+
+    private static ByteBuffer enlarge(ByteBuffer buffer, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(Math.max(capacity, buffer.capacity()));
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+
+    /**
+     * Accumule les octets écrits et les confie à la boucle lors du flush.
+     */
+    private class ConnectionOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * Transmet directement le tableau à la boucle, sans copie :
+         * les trames encodées sont partagées entre les destinataires et ne sont jamais modifiées.
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            checkOpen();
+            if (len == 0) {
+                return;
+            }
+
+            SecureConnection.this.write(off == 0 && len == b.length ? b : Arrays.copyOfRange(b, off, off + len));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            checkOpen();
+        }
+
+        @Override
+        public void close() {
+            SecureConnection.this.close();
+        }
+
+        private void checkOpen() throws IOException {
+            if (mClosed) {
+                throw new ClosedChannelException();
+            }
+        }
+    }
+}
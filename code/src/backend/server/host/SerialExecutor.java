@@ -0,0 +1,42 @@
+package backend.server.host;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+/**
+ * Exécute les tâches qui lui sont soumises une par une, dans l'ordre,
+ * sur un exécuteur partagé.
+ * Permet de garder l'ordre des messages d'un client sans lui dédier un thread.
+ */
+class SerialExecutor implements Executor {
+
+    private final Queue<Runnable> mTasks = new ArrayDeque<>();
+    private final Executor mExecutor;
+    private Runnable mActive;
+
+    SerialExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        mTasks.add(() -> {
+            try {
+                task.run();
+            } finally {
+                scheduleNext();
+            }
+        });
+
+        if (mActive == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        if ((mActive = mTasks.poll()) != null) {
+            mExecutor.execute(mActive);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package backend.server.host;
+
+import java.util.Locale;
+
+/**
+ * Ce que fait le serveur quand un client ne lit plus assez vite
+ * et que sa file d'envoi dépasse le seuil haut.
+ * Choisi avec la propriété système "server.outbound.policy".
+ */
+public enum SlowConsumerPolicy {
+
+    /**
+     * Les anciennes mises à jour (ENTRY_UPDATED) d'un utilisateur ou d'un groupe encore en attente
+     * sont remplacées par la plus récente. Celles des tickets et des messages ne contiennent que
+     * les changements et sont toutes gardées. Le client est déconnecté
+     * si la file atteint malgré tout sa taille maximale.
+     */
+    COALESCE,
+
+    /**
+     * Le client est déconnecté dès le seuil haut,
+     * il se resynchronise avec un LOCAL_UPDATE à sa reconnexion.
+     */
+    DISCONNECT;
+
+    public static final String PROPERTY = "server.outbound.policy";
+
+    /**
+     * @return - La politique demandée, COALESCE si absente ou inconnue
+     */
+    public static SlowConsumerPolicy fromProperties() {
+        final String value = System.getProperty(PROPERTY, "coalesce").trim().toLowerCase(Locale.ROOT);
+
+        if (value.equals("disconnect")) {
+            return DISCONNECT;
+        }
+
+        return COALESCE;
+    }
+}
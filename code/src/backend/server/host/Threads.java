@@ -0,0 +1,55 @@
+package backend.server.host;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Démarre les threads de l'hôte, virtuels si demandé.
+ */
+final class Threads {
+
+    private Threads() {
+
+    }
+
+    /**
+     * Crée et démarre un thread.
+     *
+     * @param task    - Ce que le thread exécute
+     * @param name    - Nom du thread
+     * @param virtual - Si un thread virtuel doit être utilisé
+     * @return - Le thread démarré
+     */
+    static Thread start(Runnable task, String name, boolean virtual) {
+        if (virtual) {
+            return Thread.ofVirtual().name(name).start(task);
+        }
+
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Exécuteur des écrivains des files d'envoi.
+     * Un écrivain peut rester bloqué sur une socket pleine, il lui faut donc
+     * son propre thread : virtuel, ou pris dans un pool
+     * qui ne garde que les threads utilisés.
+     *
+     * @param virtual - Si des threads virtuels doivent être utilisés
+     * @return - L'exécuteur
+     */
+    static Executor newWriterExecutor(boolean virtual) {
+        if (virtual) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+
+        final AtomicInteger number = new AtomicInteger();
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "writer-" + number.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,48 @@
+package debug;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Compteurs nommés, incrémentés depuis n'importe quel thread.
+ * Permet de suivre ce qui se passe sur le serveur sans activer le debug.
+ */
+public class Metrics {
+
+    private static final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public static void increment(String name) {
+        add(name, 1);
+    }
+
+    public static void add(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new LongAdder()).add(delta);
+    }
+
+    public static long get(String name) {
+        LongAdder counter = counters.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * @return - Valeur de chaque compteur, triés par nom
+     */
+    public static Map<String, Long> snapshot() {
+        TreeMap<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sum()));
+
+        return result;
+    }
+
+    /**
+     * @return - Les compteurs sur une ligne par compteur
+     */
+    public static String summary() {
+        StringBuilder builder = new StringBuilder();
+        snapshot().forEach((name, value) -> builder.append(name).append(" = ").append(value).append('\n'));
+
+        return builder.toString();
+    }
+}
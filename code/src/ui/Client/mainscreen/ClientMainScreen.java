@@ -18,6 +18,7 @@ import javax.swing.plaf.basic.BasicSplitPaneDivider;
 import javax.swing.plaf.basic.BasicSplitPaneUI;
 import java.awt.*;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -33,6 +34,8 @@ public class ClientMainScreen extends InteractiveUI {
     private Client client;
     private TreeSet<String> allGroups;
     private Ticket selectedTicket;
+    // Curseur de la dernière page de messages demandée pour le ticket affiché
+    private Long requestedPage;
 
     public ClientMainScreen(Client client, TreeSet<Groupe> groups) {
         super();
@@ -98,7 +101,8 @@ public class ClientMainScreen extends InteractiveUI {
     }
 
     private void updateTicketDisplayer(Ticket ticket) {
-        if (ticket != null) {
+        // Les messages d'un en-tête ne sont pas tous chargés, le premier n'est pas forcément présent
+        if (ticket != null && !ticket.isHeader()) {
             Message premierMessage = ticket.premierMessage();
             if (premierMessage == null || Utilisateur.getInstance(premierMessage.getUtilisateurID()) == null) {
                 Debugger.logMessage("ClientMainScreen", "User does not exists, deleting ticket");
@@ -115,8 +119,13 @@ public class ClientMainScreen extends InteractiveUI {
         }
 
         selectedTicket = ticket;
+        requestedPage = null;
         mainPanel.setRightComponent(ticketDisplayer);
 
+        if (ticket != null && ticket.isHeader()) {
+            client.requestMessagePage(ticket.getID(), null);
+        }
+
         ticketDisplayer.revalidate();
         ticketDisplayer.repaint();
         ticketDisplayer.setViewToBottom();
@@ -141,6 +150,14 @@ public class ClientMainScreen extends InteractiveUI {
                 client.postAMessage(affiliatedTicket.getID(), text);
             }
         });
+
+        ticketDisplayer.setOlderMessagesDemandListener(affiliatedTicket -> {
+            final Long nextPage = affiliatedTicket.getNextPage();
+            if (nextPage != null && !nextPage.equals(requestedPage)) {
+                requestedPage = nextPage;
+                client.requestMessagePage(affiliatedTicket.getID(), nextPage);
+            }
+        });
     }
 
     private void updateTicketTree() {
@@ -236,18 +253,33 @@ public class ClientMainScreen extends InteractiveUI {
                     leftPanel.remove(ticketTree);
                     ticketTree = null;
                     if (entryAsTicket.equals(selectedTicket)) {
+                        final Message last = selectedTicket.dernierMessage();
                         selectedTicket.merge(entryAsTicket);
 
+                        // Messages postés pendant une déconnexion : la première page est redemandée
+                        final Date lastActivity = entryAsTicket.getLastActivity();
+                        if (entryAsTicket.isHeader() && lastActivity != null
+                                && (last == null || lastActivity.after(last.getHeureEnvoie()))) {
+                            client.requestMessagePage(entryAsTicket.getID(), null);
+                        }
+
                         if (entryAsTicket.containsUnreadOrUnreceivedMessages()) {
                             client.sendNotificationTicketClicked(entryAsTicket);
                         }
                     } else {
+                        boolean merged = false;
                         for (Ticket ticket : groupe.getTickets()) {
                             if (ticket.equals(entryAsTicket)) {
                                 ticket.merge(entryAsTicket);
+                                merged = true;
                                 break;
                             }
                         }
+
+                        // Ticket créé pendant une déconnexion
+                        if (!merged) {
+                            groupe.addTicket(entryAsTicket);
+                        }
                     }
 
                     updateTicketTree();
@@ -273,6 +305,7 @@ public class ClientMainScreen extends InteractiveUI {
                         for (Ticket ticket : tickets) {
                             if (ticket.equals(entryRelatedTicket)) {
                                 ticket.merge(entryAsMessage);
+                                ticket.merge(entryRelatedTicket);
 
                                 if (ticket.equals(selectedTicket)) {
                                     ticketDisplayer.updateContents();
@@ -335,12 +368,12 @@ public class ClientMainScreen extends InteractiveUI {
 
     public void deleteTicket(Ticket entryAsTicket) {
         for (Groupe groupe : relatedGroups) {
-            if (groupe.getTickets().contains(entryAsTicket)) {
+            // Par id : la copie locale peut ne pas avoir les mêmes messages que le ticket supprimé
+            if (groupe.getTickets().removeIf(entryAsTicket::equals)) {
                 if (entryAsTicket.equals(selectedTicket)) {
                     updateTicketDisplayer(null);
                 }
 
-                groupe.getTickets().remove(entryAsTicket);
                 updateTree();
             }
         }
@@ -353,6 +386,7 @@ public class ClientMainScreen extends InteractiveUI {
                 for (Ticket ticket : groupe.getTickets()) {
                     if (ticket.equals(entryRelatedTicket)) {
                         ticket.getMessages().remove(entryAsMessage);
+                        ticket.merge(entryRelatedTicket);
                         if (ticket.equals(selectedTicket)) {
                             ticketDisplayer.updateContents();
                         }
@@ -394,6 +428,7 @@ public class ClientMainScreen extends InteractiveUI {
                 for (Ticket ticket : groupe.getTickets()) {
                     if (ticket.equals(entryRelatedTicket)) {
                         ticket.merge(entryAsMessage);
+                        ticket.merge(entryRelatedTicket);
                         if (ticket.equals(selectedTicket)) {
                             ticketDisplayer.updateContents();
                         }
@@ -407,6 +442,46 @@ public class ClientMainScreen extends InteractiveUI {
         }
     }
 
+    @Override
+    public void readReceipt(Long ticketID, String reader, Long from, Long to) {
+        for (Groupe groupe : relatedGroups) {
+            for (Ticket ticket : groupe.getTickets()) {
+                if (ticket.getID().equals(ticketID)) {
+                    if (ticket.markRead(reader, from, to) > 0) {
+                        if (ticket.equals(selectedTicket)) {
+                            ticketDisplayer.updateContents();
+                        }
+
+                        updateTree();
+                    }
+
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addMessagePage(Long ticketID, ArrayList<Message> messages, boolean first, Long nextPage) {
+        for (Groupe groupe : relatedGroups) {
+            for (Ticket ticket : groupe.getTickets()) {
+                if (ticket.getID().equals(ticketID)) {
+                    ticket.addPage(messages, first, nextPage);
+
+                    if (ticket.equals(selectedTicket)) {
+                        if (first) {
+                            ticketDisplayer.updateContents();
+                        } else {
+                            ticketDisplayer.updateContentsKeepingPosition();
+                        }
+                    }
+
+                    return;
+                }
+            }
+        }
+    }
+
     @Override
     public void dispose() {
         super.dispose();
@@ -16,6 +16,7 @@ public class TicketDisplayer extends JPanel {
     private JPanel messagePanel = new JPanel();
 
     private OnMessageSendRequest sendDemandListener;
+    private OnOlderMessagesRequest olderMessagesListener;
 
     private Ticket ticket;
 
@@ -37,6 +38,15 @@ public class TicketDisplayer extends JPanel {
     private void initPanel() {
         initMessageEditor();
         initMessagePanel();
+
+        // Les messages plus anciens sont demandés quand on remonte en haut de la liste
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = scrollPane.getVerticalScrollBar();
+            if (!e.getValueIsAdjusting() && e.getValue() == 0 && bar.getMaximum() > bar.getVisibleAmount()
+                    && olderMessagesListener != null) {
+                olderMessagesListener.loadOlderMessages(ticket);
+            }
+        });
     }
 
     private void initMessagePanel() {
@@ -61,6 +71,11 @@ public class TicketDisplayer extends JPanel {
     }
 
     private void updateView() {
+        fillView();
+        setViewToBottom();
+    }
+
+    private void fillView() {
 
         if (ticket != null) {
             int y = 0;
@@ -90,7 +105,6 @@ public class TicketDisplayer extends JPanel {
 
         messagePanel.revalidate();
         messagePanel.repaint();
-        setViewToBottom();
     }
 
     private void initMessageEditor() {
@@ -122,9 +136,33 @@ public class TicketDisplayer extends JPanel {
         updateView();
     }
 
+    /**
+     * Met à jour les messages sans bouger ceux affichés, utilisée quand des messages plus anciens sont ajoutés au dessus.
+     */
+    public void updateContentsKeepingPosition() {
+        final JScrollBar bar = scrollPane.getVerticalScrollBar();
+        final int fromBottom = bar.getMaximum() - bar.getValue();
+
+        messagePanel.removeAll();
+        fillView();
+
+        SwingUtilities.invokeLater(() -> {
+            scrollPane.validate();
+            bar.setValue(bar.getMaximum() - fromBottom);
+        });
+    }
+
+    public void setOlderMessagesDemandListener(OnOlderMessagesRequest listener) {
+        this.olderMessagesListener = listener;
+    }
+
 
     public interface OnMessageSendRequest {
         void sendMessage(Ticket ticket, String text);
     }
 
+    public interface OnOlderMessagesRequest {
+        void loadOlderMessages(Ticket ticket);
+    }
+
 }
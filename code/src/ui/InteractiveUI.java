@@ -7,6 +7,7 @@ import backend.data.Utilisateur;
 
 import javax.swing.*;
 import java.awt.*;
+import java.util.ArrayList;
 import java.util.TreeSet;
 
 public abstract class InteractiveUI extends JFrame {
@@ -58,4 +59,8 @@ public abstract class InteractiveUI extends JFrame {
     public abstract void addTicket(Groupe relatedGroupEntry, Ticket entryAsTicket);
 
     public abstract void addMessage(Groupe entryRelatedGroup, Ticket entryRelatedTicket, Message entryAsMessage);
+
+    public abstract void readReceipt(Long ticketID, String reader, Long from, Long to);
+
+    public abstract void addMessagePage(Long ticketID, ArrayList<Message> messages, boolean first, Long nextPage);
 }
@@ -2,21 +2,27 @@ package ui.Server;
 
 import backend.data.Groupe;
 import backend.data.Message;
+import backend.data.ProjectTable;
 import backend.data.Ticket;
 import backend.data.Utilisateur;
+import backend.database.TablePage;
+import backend.database.TableQuery;
 import backend.modele.GroupModel;
 import backend.modele.MessageModel;
 import backend.modele.TicketModel;
 import backend.modele.UserModel;
 import backend.server.client.Client;
-import debug.Debugger;
 import ui.InteractiveUI;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeSet;
 
+import static backend.database.Keys.*;
+
 public class ServerUI extends InteractiveUI {
     private static String SERVER_FRAME_TITLE = "Administration";
 
@@ -47,7 +53,16 @@ public class ServerUI extends InteractiveUI {
         this.client = client;
         client.setRequestEverything(true);
         client.setUI(this);
-        client.retrieveAllModels();
+
+        // Chaque vue demande ses pages quand elle est affichée
+        userModel = new UserModel(client::requestTablePage);
+        groupModel = new GroupModel(client::requestTablePage);
+        ticketModel = new TicketModel(client::requestTablePage);
+        messageModel = new MessageModel(client::requestTablePage);
+        uiPanel.updateModels(userModel, groupModel, ticketModel, messageModel);
+
+        // Le nom de l'administrateur, pour le titre
+        client.requestTablePage(new TableQuery(TABLE_NAME_UTILISATEUR, client.getMyUser().getINE(), null, false, 0, 1));
         client.start();
     }
 
@@ -105,15 +120,37 @@ public class ServerUI extends InteractiveUI {
     }
 
 
-    public void setAllModels(UserModel userModel, GroupModel groupModel, TicketModel ticketModel, MessageModel messageModel) {
-        this.userModel = userModel;
-        this.groupModel = groupModel;
-        this.ticketModel = ticketModel;
-        this.messageModel = messageModel;
+    /**
+     * Donne une page reçue de l'hôte à la vue de sa table
+     *
+     * @param page - La page, avec sa demande
+     */
+    public void addTablePage(TablePage page) {
+        switch (page.getQuery().getTable()) {
+            case TABLE_NAME_UTILISATEUR:
+                userModel.addPage(page.getQuery(), cast(page.getRows()), page.getTotal());
+                break;
+
+            case TABLE_NAME_GROUPE:
+                groupModel.addPage(page.getQuery(), cast(page.getRows()), page.getTotal());
+                break;
+
+            case TABLE_NAME_TICKET:
+                ticketModel.addPage(page.getQuery(), cast(page.getRows()), page.getTotal());
+                break;
 
+            case TABLE_NAME_MESSAGE:
+                messageModel.addPage(page.getQuery(), cast(page.getRows()), page.getTotal());
+                break;
 
-        Debugger.logMessage("ServerUI", "Sending all of theses models to the panel");
-        uiPanel.updateModels(userModel, groupModel, ticketModel, messageModel);
+            default:
+                break;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends ProjectTable> List<T> cast(List<? extends ProjectTable> rows) {
+        return (List<T>) rows;
     }
 
     @Override
@@ -134,6 +171,11 @@ public class ServerUI extends InteractiveUI {
     @Override
     public void updateTicket(Groupe entryRelatedGroup, Ticket entryAsTicket) {
         ticketModel.updateEntry(entryAsTicket);
+        if (entryAsTicket.isHeader()) {
+            for (Message message : entryAsTicket.getMessages()) {
+                messageModel.updateEntry(message);
+            }
+        }
     }
 
     @Override
@@ -192,6 +234,16 @@ public class ServerUI extends InteractiveUI {
         messageModel.addRow(entryAsMessage);
     }
 
+    @Override
+    public void readReceipt(Long ticketID, String reader, Long from, Long to) {
+        // Les tables d'administration n'affichent pas les lectures
+    }
+
+    @Override
+    public void addMessagePage(Long ticketID, ArrayList<Message> messages, boolean first, Long nextPage) {
+        // Les messages viennent des tables complètes
+    }
+
     @Override
     public void dispose() {
         super.dispose();
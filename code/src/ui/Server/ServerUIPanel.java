@@ -12,6 +12,8 @@ import java.awt.*;
 import java.awt.event.FocusEvent;
 import java.awt.event.FocusListener;
 import java.awt.event.ItemEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.TreeSet;
@@ -28,7 +30,6 @@ public class ServerUIPanel extends JPanel {
     public static TicketModel ticketTableModel;
     public static MessageModel messageTableModel;
     public static SearchableModel<? extends ProjectTable> currentModel;
-    public static SearchableModel<? extends ProjectTable> searchModel;
 
 
     private JComboBox<String> table_selector;
@@ -80,7 +81,6 @@ public class ServerUIPanel extends JPanel {
 
         table_selector.addItemListener(itemEvent -> {
             if (itemEvent.getStateChange() == ItemEvent.SELECTED) {
-                searchModel = null;
                 updateModelTable();
             }
         });
@@ -104,8 +104,8 @@ public class ServerUIPanel extends JPanel {
             private void warn() {
                 if (currentModel != null) {
                     if (search_bar.hasFocus() || !(search_bar.getText().equals(HINT_SEARCH_BAR))) {
-                        searchModel = currentModel.retrieveSearchModel(search_bar.getText());
-                        table.setModel(searchModel);
+                        // Filtré par la base, la vue recharge ses pages
+                        currentModel.setFilter(search_bar.getText());
                     }
                 }
             }
@@ -123,7 +123,6 @@ public class ServerUIPanel extends JPanel {
             public void focusLost(FocusEvent focusEvent) {
                 if (search_bar.getText().isEmpty()) {
                     search_bar.setText(HINT_SEARCH_BAR);
-                    searchModel = null;
                 }
             }
         });
@@ -187,10 +186,10 @@ public class ServerUIPanel extends JPanel {
                 case "Utilisateur":
 
                 case "Groupe":
-                    if (searchModel == null) {
-                        parent.edit(selected_table, currentModel.getReferenceTo(selectedRow));
-                    } else {
-                        parent.edit(selected_table, searchModel.getReferenceTo(selectedRow));
+                    // null tant que la page de la ligne n'est pas arrivée
+                    final ProjectTable selected = currentModel.getReferenceTo(selectedRow);
+                    if (selected != null) {
+                        parent.edit(selected_table, selected);
                     }
 
                     break;
@@ -325,11 +324,23 @@ public class ServerUIPanel extends JPanel {
         if (table == null) {
             table = new JTable();
             table_container.setViewportView(table);
+
+            // Trié par la base : un clic sur une colonne la trie, un deuxième inverse l'ordre
+            table.getTableHeader().addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    final int column = table.columnAtPoint(e.getPoint());
+                    if (column >= 0 && currentModel != null) {
+                        currentModel.sortBy(table.convertColumnIndexToModel(column));
+                    }
+                }
+            });
         }
 
         if (model != null) {
             table.setModel(model);
             currentModel = model;
+            model.setFilter("");
         }
     }
 
@@ -372,7 +383,8 @@ public class ServerUIPanel extends JPanel {
 
 
     public void update() {
-        table.revalidate();
-        table.repaint();
+        if (currentModel != null) {
+            currentModel.refresh();
+        }
     }
 }